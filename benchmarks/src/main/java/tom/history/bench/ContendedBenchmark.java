@@ -0,0 +1,128 @@
+package tom.history.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import tom.history.History;
+import tom.history.HistorySequencer;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures a single history, with and without a limit, shared by several
+ * threads. The history starts with 1000 actions to undo. The ungrouped
+ * benchmarks run on 4 threads by default, use {@code -t} to run them on any
+ * number from 1 up, for example
+ * {@code gradle :benchmarks:jmh -PjmhArgs='Contended -t 8'}. The
+ * {@code mixed} group runs registering, undoing and redoing threads against
+ * each other. The {@code sequenced} benchmarks submit the same operations
+ * through a {@link HistorySequencer}, waiting for every 64th one so that the
+ * queue stays bounded
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+public class ContendedBenchmark {
+
+    @Param({"-1", "1000"})
+    public int limit;
+
+    private History history;
+    private HistorySequencer sequencer;
+
+    /**
+     * The outstanding submission of one thread to the sequencer
+     */
+    @State(Scope.Thread)
+    public static class Pipeline {
+
+        private int submitted;
+
+        void submitted(CompletableFuture<Boolean> future) {
+            if (++submitted % 64 == 0) {
+                future.join();
+            }
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        history = new History();
+        history.setLimit(limit);
+        for (int i = 0; i < 1000; i++) {
+            history.registerAction(NoopAction.INSTANCE);
+        }
+        sequencer = new HistorySequencer(history);
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() {
+        sequencer.close();
+    }
+
+    @Benchmark
+    public void registerAction() {
+        history.registerAction(NoopAction.INSTANCE);
+    }
+
+    @Benchmark
+    public void registerActionAndExecute() {
+        history.registerActionAndExecute(NoopAction.INSTANCE);
+    }
+
+    @Benchmark
+    public boolean undoThenRedo() {
+        history.undo();
+        return history.redo();
+    }
+
+    @Benchmark
+    public void sequencedRegisterActionAndExecute(Pipeline pipeline) {
+        pipeline.submitted(sequencer.registerActionAndExecute(NoopAction.INSTANCE));
+    }
+
+    @Benchmark
+    public void sequencedUndoThenRedo(Pipeline pipeline) {
+        sequencer.undo();
+        pipeline.submitted(sequencer.redo());
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(2)
+    public void mixedRegister() {
+        history.registerActionAndExecute(NoopAction.INSTANCE);
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(1)
+    public boolean mixedUndo() {
+        return history.undo();
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(1)
+    public boolean mixedRedo() {
+        return history.redo();
+    }
+}
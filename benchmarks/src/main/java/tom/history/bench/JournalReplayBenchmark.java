@@ -0,0 +1,91 @@
+package tom.history.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import tom.history.Action;
+import tom.history.ActionSerializer;
+import tom.history.History;
+import tom.history.HistoryJournal;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how long it takes to rebuild the stacks of a history from a
+ * journal of {@code records} registrations, every tenth of them followed by
+ * an undo and a redo. Each action is written as a single int, so the time is
+ * spent reading, checking and replaying the records rather than in the
+ * serializer
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class JournalReplayBenchmark {
+
+    private static final ActionSerializer SERIALIZER = new ActionSerializer() {
+        @Override
+        public void write(Action action, DataOutput out) throws IOException {
+            out.writeInt(0);
+        }
+
+        @Override
+        public Action read(DataInput in) throws IOException {
+            in.readInt();
+            return NoopAction.INSTANCE;
+        }
+    };
+
+    @Param({"1000000"})
+    public int records;
+
+    private Path file;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        file = Files.createTempFile("history", ".journal");
+        History history = new History();
+        try (HistoryJournal journal = new HistoryJournal(file, SERIALIZER)) {
+            history.setJournal(journal);
+            for (int i = 0; i < records; i++) {
+                history.registerAction(NoopAction.INSTANCE);
+                if (i % 10 == 9) {
+                    history.undo();
+                    history.redo();
+                }
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    @Benchmark
+    public int replay() throws IOException {
+        History history = new History();
+        try (HistoryJournal journal = new HistoryJournal(file, SERIALIZER)) {
+            history.setJournal(journal);
+            history.setJournal(null);
+        }
+        return history.undoSize();
+    }
+}
@@ -0,0 +1,27 @@
+package tom.history.bench;
+
+import tom.history.Action;
+
+/**
+ * An action that does nothing, so that the benchmarks measure only the cost
+ * of {@link tom.history.History} itself
+ */
+final class NoopAction implements Action {
+
+    static final NoopAction INSTANCE = new NoopAction();
+
+    private NoopAction() {
+    }
+
+    @Override
+    public void execute() {
+    }
+
+    @Override
+    public void undo() {
+    }
+
+    @Override
+    public void redo() {
+    }
+}
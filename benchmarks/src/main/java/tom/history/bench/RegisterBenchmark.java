@@ -0,0 +1,71 @@
+package tom.history.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import tom.history.History;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the throughput of registering actions on a single thread, with
+ * and without a limit. An unbounded history is replaced every
+ * {@link #RESET} registrations so that it does not grow for the whole run
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RegisterBenchmark {
+
+    private static final int RESET = 1 << 20;
+
+    @Param({"-1", "100", "10000"})
+    public int limit;
+
+    private History history;
+    private int registered;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        history = newHistory();
+    }
+
+    @Benchmark
+    public void registerAction() {
+        reset();
+        history.registerAction(NoopAction.INSTANCE);
+    }
+
+    @Benchmark
+    public void registerActionAndExecute() {
+        reset();
+        history.registerActionAndExecute(NoopAction.INSTANCE);
+    }
+
+    private void reset() {
+        if (++registered == RESET) {
+            registered = 0;
+            if (limit < 0) {
+                history = newHistory();
+            }
+        }
+    }
+
+    private History newHistory() {
+        History h = new History();
+        h.setLimit(limit);
+        return h;
+    }
+}
@@ -0,0 +1,75 @@
+package tom.history.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import tom.history.History;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures undo and redo on a single thread against a history that has been
+ * filled to {@code depth} actions, with and without a limit, and the churn of
+ * registering new actions in between undos and redos, which drops the redo
+ * side every time
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UndoRedoBenchmark {
+
+    @Param({"-1", "1000"})
+    public int limit;
+
+    @Param({"1000"})
+    public int depth;
+
+    private History history;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        history = new History();
+        history.setLimit(limit);
+        for (int i = 0; i < depth; i++) {
+            history.registerAction(NoopAction.INSTANCE);
+        }
+    }
+
+    @Benchmark
+    public boolean undoThenRedo() {
+        history.undo();
+        return history.redo();
+    }
+
+    @Benchmark
+    public int undoAllThenRedoAll() {
+        int moved = 0;
+        while (history.undo()) {
+            moved++;
+        }
+        while (history.redo()) {
+            moved++;
+        }
+        return moved;
+    }
+
+    @Benchmark
+    public boolean churn() {
+        history.registerActionAndExecute(NoopAction.INSTANCE);
+        history.undo();
+        history.redo();
+        return history.undo();
+    }
+}
@@ -0,0 +1,210 @@
+package tom.history.fx;
+
+import javafx.application.Platform;
+import javafx.beans.property.ReadOnlyBooleanProperty;
+import javafx.beans.property.ReadOnlyBooleanWrapper;
+import javafx.beans.property.ReadOnlyIntegerProperty;
+import javafx.beans.property.ReadOnlyIntegerWrapper;
+import javafx.scene.control.Button;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import tom.history.History;
+import tom.history.HistoryEvent;
+import tom.history.HistoryEventPublisher;
+
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.Flow;
+
+/**
+ * FxHistory connects a {@link History} to a JavaFX user interface. It lives in
+ * its own module so that the tom.history.History class has no dependency on
+ * JavaFX and programs that do not show one never load it.
+ * <p>
+ * You can use {@link #registerUndoButton(Button)} and {@link #registerRedoButton(Button)}
+ * to have the undo and redo buttons of the program disabled and enabled
+ * according to when such actions are available to the user. The buttons are
+ * bound to the read only properties {@link #canUndoProperty()} and
+ * {@link #canRedoProperty()}, which along with {@link #undoSizeProperty()} and
+ * {@link #redoSizeProperty()} can also be bound to any other part of the user
+ * interface.
+ * <pre>{@code
+ * FxHistory fx = FxHistory.of(History.getInstance());
+ * fx.registerUndoButton(undo);
+ * fx.registerRedoButton(redo);
+ * }</pre>
+ * The properties are only ever changed on the JavaFX Application Thread.
+ * They follow the {@link History#getEvents() events} of the tom.history.History
+ * through a subscription with a buffer of one event that conflates, so however
+ * many changes are made in a burst, and from whichever threads, the JavaFX
+ * event queue receives at most one update at a time and that update applies
+ * the latest sizes.
+ */
+public final class FxHistory {
+
+    private static final Map<History, FxHistory> instances = new WeakHashMap<>();
+
+    private final ReadOnlyBooleanWrapper canUndo = new ReadOnlyBooleanWrapper(this, "canUndo");
+    private final ReadOnlyBooleanWrapper canRedo = new ReadOnlyBooleanWrapper(this, "canRedo");
+    private final ReadOnlyIntegerWrapper undoSize = new ReadOnlyIntegerWrapper(this, "undoSize");
+    private final ReadOnlyIntegerWrapper redoSize = new ReadOnlyIntegerWrapper(this, "redoSize");
+    private Button undoButton;
+    private Button redoButton;
+
+    private FxHistory(int undo, int redo) {
+        apply(undo, redo);
+    }
+
+    /**
+     * Returns the FxHistory of a tom.history.History, creating it the first time.
+     * Every call with the same tom.history.History returns the same object
+     *
+     * @param history the tom.history.History to show the state of
+     * @return the JavaFX properties and buttons of the tom.history.History
+     */
+    @NotNull
+    public static FxHistory of(@NotNull History history) {
+        synchronized (instances) {
+            FxHistory fx = instances.get(history);
+            if (fx == null) {
+                fx = new FxHistory(history.undoSize(), history.redoSize());
+                history.getEvents().subscribe(fx.new Updater(), 1,
+                                              HistoryEventPublisher.Overflow.CONFLATE);
+                instances.put(history, fx);
+            }
+            return fx;
+        }
+    }
+
+    /**
+     * Registers the button passed as the undo button of the program. By passing
+     * this method a {@link Button} instance it will disable and enable that
+     * button in accordance with the availability of the undo function within
+     * the tom.history.History class itself. So, if there are no actions to undo, then
+     * the undo button would be disabled and otherwise it would be enabled
+     *
+     * @param button the button to be treated as the undo button, or null to
+     *               release the current one
+     */
+    public void registerUndoButton(@Nullable Button button) {
+        if (undoButton != null) {
+            undoButton.disableProperty().unbind();
+        }
+        undoButton = button;
+        if (button != null) {
+            button.disableProperty().bind(canUndo.not());
+        }
+    }
+
+    /**
+     * Registers a button as the redo button. Performs the same tasks as
+     * {@link #registerUndoButton(Button)}
+     *
+     * @param button the button to be treated as the redo button, or null to
+     *               release the current one
+     * @see #registerUndoButton(Button)
+     */
+    public void registerRedoButton(@Nullable Button button) {
+        if (redoButton != null) {
+            redoButton.disableProperty().unbind();
+        }
+        redoButton = button;
+        if (button != null) {
+            button.disableProperty().bind(canRedo.not());
+        }
+    }
+
+    /**
+     * Returns a property that is true while there is an action to undo. The
+     * property is only changed on the JavaFX Application Thread
+     *
+     * @return whether {@link History#undo()} would undo an action
+     */
+    @NotNull
+    public ReadOnlyBooleanProperty canUndoProperty() {
+        return canUndo.getReadOnlyProperty();
+    }
+
+    /**
+     * Returns a property that is true while there is an action to redo. The
+     * property is only changed on the JavaFX Application Thread
+     *
+     * @return whether {@link History#redo()} would redo an action
+     */
+    @NotNull
+    public ReadOnlyBooleanProperty canRedoProperty() {
+        return canRedo.getReadOnlyProperty();
+    }
+
+    /**
+     * Returns a property holding the number of actions that can be undone.
+     * The property is only changed on the JavaFX Application Thread
+     *
+     * @return the size of the undo stack
+     */
+    @NotNull
+    public ReadOnlyIntegerProperty undoSizeProperty() {
+        return undoSize.getReadOnlyProperty();
+    }
+
+    /**
+     * Returns a property holding the number of actions that can be redone.
+     * The property is only changed on the JavaFX Application Thread
+     *
+     * @return the size of the redo stack
+     */
+    @NotNull
+    public ReadOnlyIntegerProperty redoSizeProperty() {
+        return redoSize.getReadOnlyProperty();
+    }
+
+    private void apply(int undo, int redo) {
+        undoSize.set(undo);
+        redoSize.set(redo);
+        canUndo.set(undo != 0);
+        canRedo.set(redo != 0);
+    }
+
+    /**
+     * Receives the events one at a time, asking for the next only once the
+     * last one has been applied on the JavaFX Application Thread. Events that
+     * arrive in between replace one another in the buffer
+     */
+    private final class Updater implements Flow.Subscriber<HistoryEvent> {
+
+        private Flow.Subscription subscription;
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            subscription.request(1);
+        }
+
+        @Override
+        public void onNext(HistoryEvent event) {
+            Platform.runLater(() -> {
+                apply(event.getUndoSize(), event.getRedoSize());
+                subscription.request(1);
+            });
+        }
+
+        /**
+         * Disables both buttons, since the properties can no longer follow
+         * the tom.history.History, and reports the error to the uncaught
+         * exception handler of the JavaFX Application Thread
+         */
+        @Override
+        public void onError(Throwable throwable) {
+            Platform.runLater(() -> {
+                canUndo.set(false);
+                canRedo.set(false);
+                Thread current = Thread.currentThread();
+                current.getUncaughtExceptionHandler().uncaughtException(current, throwable);
+            });
+        }
+
+        @Override
+        public void onComplete() {
+        }
+    }
+}
@@ -1,5 +1,7 @@
 package tom.history;
 
+import java.util.Collection;
+
 /**
  * This interface is used by {@link History} to implement undo and redo
  * This class functions <i>similar</i> to a functional interface except that
@@ -26,6 +28,28 @@ package tom.history;
  * On the other hand, scaling a window by a factor, for instance, can be done
  * in execute and reversed in undo and in such a case redo, could simply call
  * execute.
+ * <p>
+ * Optionally an Action can report roughly how much memory it keeps alive by
+ * overriding {@link #getEstimatedSize()}. This is only needed if the
+ * {@link History} is given a memory budget with {@link History#setMemoryBudget(long)}
+ * <p>
+ * Actions that happen in quick succession, such as typing a character or
+ * dragging a slider, can also override {@link #absorb(Action)} to merge the
+ * next action into themselves so they end up as a single entry in the {@link History}
+ * <p>
+ * When several users or panes share one {@link History}, actions can say
+ * which of them they belong to by overriding {@link #getScope()}, so that
+ * {@link History#undoInScope(Object)} undoes the most recent action of one
+ * scope only
+ * <p>
+ * To show and search the history, actions can also give a label by
+ * overriding {@link #getLabel()} and a type by overriding {@link #getType()},
+ * which an {@link History#setIndexed(boolean) indexed} {@link History} can
+ * then look up
+ * <p>
+ * Actions grouped in a {@link CompoundAction} can declare the things they
+ * change by overriding {@link #getResources()}, so that the actions of the
+ * group that change different things are undone and redone in parallel
  */
 public interface Action {
 
@@ -62,4 +86,111 @@ public interface Action {
      */
     void redo();
 
+    /**
+     * Returns an estimate of the number of bytes this action keeps alive, such
+     * as the size of any state captured in order to undo or redo it. The
+     * estimate does not have to be exact but it should grow with the data
+     * held. For example an action storing two Strings could return roughly
+     * twice the sum of their lengths
+     * <p>
+     * {@link History} asks for this value when the action is registered and
+     * every time it is undone or redone, so it should be cheap to compute.
+     * The default implementation returns 0 which means the action is never
+     * counted against a memory budget
+     *
+     * @return the estimated retained size of this action in bytes
+     * @see History#setMemoryBudget(long)
+     */
+    default long getEstimatedSize() {
+        return 0;
+    }
+
+    /**
+     * Offers this action, the most recent one in the {@link History}, the
+     * chance to take over an action that was just executed. If this returns
+     * true the newer action is not stored and from then on this action must
+     * undo and redo both itself and the newer action. For example an action
+     * that typed some characters could append the newer action's characters
+     * to its own and return true
+     * <p>
+     * This is only called when a coalescing window has been set with
+     * {@link History#setCoalesceWindow(long, java.util.concurrent.TimeUnit)}
+     * and the newer action was passed to {@link History#registerActionAndExecute(Action)}
+     * within that window. The newer action has already been executed when
+     * this is called. The default implementation returns false so that
+     * actions are never merged
+     *
+     * @param newer the action that was just executed
+     * @return true if this action now includes the newer one, false to store
+     * the newer action on its own
+     */
+    default boolean absorb(Action newer) {
+        return false;
+    }
+
+    /**
+     * Returns the scope this action belongs to, such as the user who made it
+     * or the pane it was made in. Scopes are compared with {@link Object#equals(Object)}
+     * and should not change while the action is in the {@link History}.
+     * <p>
+     * This is only used by {@link History#undoInScope(Object)} and
+     * {@link History#redoInScope(Object)}.
+     * The default implementation returns null which means the action can only
+     * be undone by {@link History#undo()}
+     *
+     * @return the scope of this action or null if it has none
+     */
+    default Object getScope() {
+        return null;
+    }
+
+    /**
+     * Returns a short description of this action for showing in a list of
+     * the history, such as "Change color". It should not change while the
+     * action is in the {@link History}.
+     * <p>
+     * {@link History#findByLabel(String, long, long)} finds actions by the
+     * start of their label. The default implementation returns null which
+     * means the action is never found by label
+     *
+     * @return the label of this action or null if it has none
+     */
+    default String getLabel() {
+        return null;
+    }
+
+    /**
+     * Returns the kind of this action, such as a constant for every action
+     * that changes a color. Types are compared with {@link Object#equals(Object)}
+     * and should not change while the action is in the {@link History}.
+     * <p>
+     * {@link History#findByType(Object, long, long)} finds actions by type.
+     * The default implementation returns the class of the action
+     *
+     * @return the type of this action or null if it has none
+     */
+    default Object getType() {
+        return getClass();
+    }
+
+    /**
+     * Returns the things this action changes when it is undone or redone,
+     * such as the shapes it recolors or the paragraphs it reformats. Two
+     * actions conflict if they share a resource, compared with {@link Object#equals(Object)},
+     * and the resources should not change while the action is in the {@link History}.
+     * <p>
+     * This is only used by {@link CompoundAction}, which undoes and redoes
+     * actions that do not conflict in parallel on a {@link java.util.concurrent.ForkJoinPool},
+     * so an action that returns resources must be safe to undo and redo on
+     * another thread and must not call the {@link History} while doing so.
+     * An empty collection means the action conflicts with no other action.
+     * The default implementation returns null which means the action may
+     * change anything and is always undone and redone on its own
+     *
+     * @return the resources this action changes or null if they are not known
+     */
+    default Collection<?> getResources() {
+        return null;
+    }
+
 }
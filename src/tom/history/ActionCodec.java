@@ -0,0 +1,143 @@
+package tom.history;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * ActionCodec converts actions to and from bytes using an {@link ActionSerializer},
+ * writing {@link CompoundAction}s itself one action at a time. It reuses the
+ * same buffers for every action so encoding and decoding do not allocate
+ * beyond what the serializer does. Used by {@link HistoryJournal} and {@link SpillTier}.
+ * <p>
+ * This class is not thread safe.
+ */
+final class ActionCodec {
+
+    private static final byte PLAIN = 0;
+    private static final byte COMPOUND = 1;
+
+    private final ActionSerializer serializer;
+    private final Output output = new Output();
+    private final DataOutputStream data = new DataOutputStream(output);
+    private final Input input = new Input();
+    private final DataInputStream in = new DataInputStream(input);
+
+    ActionCodec(ActionSerializer serializer) {
+        this.serializer = serializer;
+    }
+
+    /**
+     * Clears the output buffer so that a new encoding can be written to it
+     *
+     * @return the output to write to
+     */
+    DataOutputStream begin() {
+        output.reset();
+        return data;
+    }
+
+    /**
+     * Writes an action to the output buffer after whatever was already written
+     * since {@link #begin()}
+     *
+     * @param action the action to write
+     * @throws IOException if the serializer fails
+     */
+    void write(Action action) throws IOException {
+        write(data, action);
+    }
+
+    /**
+     * Returns the output buffer. Only the first {@link #size()} bytes are valid
+     *
+     * @return the output buffer, not a copy
+     */
+    byte[] buffer() {
+        return output.buffer();
+    }
+
+    /**
+     * Returns the number of bytes written since {@link #begin()}
+     *
+     * @return the length of the encoding
+     */
+    int size() {
+        return output.size();
+    }
+
+    /**
+     * Reads an action from part of an array
+     *
+     * @param bytes  the array holding the action
+     * @param offset where the action starts
+     * @param length how many bytes the action takes
+     * @return the action that was read
+     * @throws IOException if the serializer fails
+     */
+    Action read(byte[] bytes, int offset, int length) throws IOException {
+        input.reset(bytes, offset, length);
+        return read(in);
+    }
+
+    private void write(DataOutput out, Action action) throws IOException {
+        if (action instanceof CompoundAction) {
+            CompoundAction compound = (CompoundAction) action;
+            out.writeByte(COMPOUND);
+            out.writeInt(compound.size());
+            for (int i = 0; i < compound.size(); i++) {
+                write(out, compound.get(i));
+            }
+        } else {
+            out.writeByte(PLAIN);
+            serializer.write(action, out);
+        }
+    }
+
+    private Action read(DataInput in) throws IOException {
+        if (in.readByte() == COMPOUND) {
+            Action[] actions = new Action[in.readInt()];
+            for (int i = 0; i < actions.length; i++) {
+                actions[i] = read(in);
+            }
+            return new CompoundAction(actions);
+        }
+        return serializer.read(in);
+    }
+
+    /**
+     * A ByteArrayOutputStream whose buffer can be read without copying it
+     */
+    private static final class Output extends ByteArrayOutputStream {
+
+        Output() {
+            super(256);
+        }
+
+        byte[] buffer() {
+            return buf;
+        }
+    }
+
+    /**
+     * A ByteArrayInputStream that can be pointed at a new array so a single
+     * DataInputStream can read every action
+     */
+    private static final class Input extends ByteArrayInputStream {
+
+        Input() {
+            super(new byte[0]);
+        }
+
+        void reset(byte[] bytes, int offset, int length) {
+            buf = bytes;
+            pos = offset;
+            mark = offset;
+            count = offset + length;
+        }
+    }
+}
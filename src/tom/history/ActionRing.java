@@ -0,0 +1,480 @@
+package tom.history;
+
+import java.lang.ref.SoftReference;
+
+/**
+ * ActionRing is the storage behind {@link History}. It holds both the undo
+ * stack and the redo stack in a single circular array so that moving an
+ * {@link Action} from one stack to the other never copies or allocates
+ * anything.
+ * <p>
+ * The array is laid out chronologically. Starting at {@code head} are the
+ * undo-able actions from oldest to most recent, ending just before the
+ * cursor ({@code head + undoCount}). Starting at the cursor are the redo-able
+ * actions from the most recently undone to the one undone first, ending
+ * just before the tail ({@code head + undoCount + redoCount}). Undoing is
+ * therefore just moving the cursor back by one and redoing is moving it
+ * forward by one. Dropping the oldest undo moves the head forward and dropping
+ * the farthest redo moves the tail back.
+ * <p>
+ * The array doubles whenever it is full. When a limit is set on the
+ * {@link History} it never grows past room for {@code limit} undos and
+ * {@code limit} redos, so once a bounded history has filled up its steady
+ * state use produces no garbage, while a large limit costs nothing until
+ * that many actions are actually stored.
+ * <p>
+ * Alongside each action the ring keeps the value last returned by
+ * {@link Action#getEstimatedSize()} in a parallel array and a running total of
+ * those values, so {@link #retainedSize()} never has to visit the actions.
+ * An action is measured when it is pushed and again each time it moves
+ * between the undo and redo side, since actions often capture state while
+ * they run.
+ * <p>
+ * With a {@link #setSoftDepth(int) soft depth} set, the redo-able actions and
+ * the undo-able actions deeper than that depth are held through a
+ * {@link SoftReference} so that the garbage collector may reclaim them
+ * before running out of memory. Every method that returns an action returns
+ * null for an action that has been reclaimed. An action is held strongly
+ * again as it comes within the depth or is redone, if it is still there.
+ * <p>
+ * Once {@link #keepTimes(long)} has been called the ring also keeps the time
+ * each action was registered in another parallel array, for {@link History}
+ * to expire actions by age. Only the oldest entry needs to be looked at to
+ * find out whether anything has expired, as the times rise from the head.
+ * <p>
+ * This class is not thread safe. {@link History} guards every call with its
+ * own lock so the ring does not need one of its own.
+ */
+final class ActionRing {
+
+    private static final int DEFAULT_CAPACITY = 16;
+    private static final int MAX_CAPACITY = Integer.MAX_VALUE - 8;
+
+    private Object[] slots;
+    private long[] sizes;
+    private long[] times;
+    private long retained;
+    private int head;
+    private int undoCount;
+    private int redoCount;
+    private int maxCapacity = MAX_CAPACITY;
+    private int softDepth = -1;
+
+    ActionRing() {
+        slots = new Object[DEFAULT_CAPACITY];
+        sizes = new long[DEFAULT_CAPACITY];
+    }
+
+    /**
+     * Returns the number of actions that can currently be undone
+     *
+     * @return the size of the undo side of the ring
+     */
+    int undoSize() {
+        return undoCount;
+    }
+
+    /**
+     * Returns the number of actions that can currently be redone
+     *
+     * @return the size of the redo side of the ring
+     */
+    int redoSize() {
+        return redoCount;
+    }
+
+    /**
+     * Returns the sum of the estimated sizes of every action in the ring
+     *
+     * @return the estimated number of bytes retained by the stored actions
+     * @see Action#getEstimatedSize()
+     */
+    long retainedSize() {
+        return retained;
+    }
+
+    /**
+     * Returns the most recently registered or redone action without removing
+     * it, or null if there is nothing to undo
+     *
+     * @return the action that would be undone next
+     */
+    Action peekUndo() {
+        return undoCount == 0 ? null : at(index(undoCount - 1));
+    }
+
+    /**
+     * Returns the most recently undone action without removing it, or null
+     * if there is nothing to redo
+     *
+     * @return the action that would be redone next
+     */
+    Action peekRedo() {
+        return redoCount == 0 ? null : at(index(undoCount));
+    }
+
+    /**
+     * Returns the action at the given position, counting chronologically from
+     * the oldest undo-able action at 0 through the most recent undo-able
+     * action and on through the redo-able actions to the farthest one
+     *
+     * @param offset the position of the action, from 0 to
+     *               {@code undoSize() + redoSize() - 1}
+     * @return the action at that position
+     */
+    Action get(int offset) {
+        return at(index(offset));
+    }
+
+    /**
+     * Replaces the action at the given position and measures the new one.
+     * The new action is held the same way, strongly or softly, as the one
+     * it replaces
+     *
+     * @param offset the position of the action, as for {@link #get(int)}
+     * @param action the action to put there
+     */
+    void set(int offset, Action action) {
+        int i = index(offset);
+        slots[i] = slots[i] instanceof SoftReference ? new SoftReference<>(action) : action;
+        remeasure(i);
+    }
+
+    /**
+     * Starts keeping the time each action was registered, giving every action
+     * already in the ring the time passed, or stops keeping times if the time
+     * passed is 0
+     *
+     * @param now the time to give the actions already in the ring, or 0
+     */
+    void keepTimes(long now) {
+        if (now == 0) {
+            times = null;
+            return;
+        }
+        times = new long[slots.length];
+        for (int n = 0; n < undoCount + redoCount; n++) {
+            times[index(n)] = now;
+        }
+    }
+
+    /**
+     * Returns the time the action at the given position was registered
+     *
+     * @param offset the position of the action, as for {@link #get(int)}
+     * @return the time or 0 if it is not known or times are not kept
+     */
+    long getTime(int offset) {
+        return times == null ? 0 : times[index(offset)];
+    }
+
+    /**
+     * Sets the time the action at the given position was registered, if
+     * times are kept
+     *
+     * @param offset the position of the action, as for {@link #get(int)}
+     * @param time   the time
+     */
+    void setTime(int offset, long time) {
+        if (times != null) {
+            times[index(offset)] = time;
+        }
+    }
+
+    /**
+     * Pushes an action on to the undo side. The redo side must be empty
+     * when this is called, which is always the case after {@link #clearRedo()}
+     *
+     * @param action the action to push
+     */
+    void push(Action action) {
+        if (redoCount != 0) {
+            throw new IllegalStateException("Redo actions must be cleared " +
+                                            "before pushing a new action");
+        }
+        if (undoCount == slots.length) {
+            grow();
+        }
+        slots[index(undoCount)] = action;
+        if (times != null) {
+            times[index(undoCount)] = 0;
+        }
+        undoCount++;
+        remeasure(index(undoCount - 1));
+        if (softDepth >= 0 && undoCount > softDepth) {
+            soften(index(undoCount - 1 - softDepth));
+        }
+    }
+
+    /**
+     * Puts an action below every other action on the undo side, as the new
+     * oldest action. Used to bring back actions that were moved out of memory.
+     * It is given the time of the action it goes below, which is the closest
+     * time known
+     *
+     * @param action the action to add
+     */
+    void pushOldest(Action action) {
+        if (undoCount + redoCount == slots.length) {
+            grow();
+        }
+        int next = head;
+        head = head == 0 ? slots.length - 1 : head - 1;
+        slots[head] = action;
+        if (times != null) {
+            times[head] = undoCount + redoCount == 0 ? 0 : times[next];
+        }
+        undoCount++;
+        remeasure(head);
+        if (softDepth >= 0 && undoCount > softDepth) {
+            soften(head);
+        }
+    }
+
+    /**
+     * Adds an action after every other action on the redo side, so that it
+     * will be redone last. Used to bring back a branch of a branching history.
+     * It is given the time of the action before it, which is the closest time
+     * known
+     *
+     * @param action the action to add
+     */
+    void appendRedo(Action action) {
+        if (undoCount + redoCount == slots.length) {
+            grow();
+        }
+        int i = index(undoCount + redoCount);
+        slots[i] = action;
+        if (times != null) {
+            times[i] = undoCount + redoCount == 0 ? 0 : times[index(undoCount + redoCount - 1)];
+        }
+        redoCount++;
+        remeasure(i);
+        if (softDepth >= 0) {
+            soften(i);
+        }
+    }
+
+    /**
+     * Measures the action on top of the undo side again. Used after an
+     * action that was pushed before it was executed has been executed
+     */
+    void remeasureUndoTop() {
+        if (undoCount != 0) {
+            remeasure(index(undoCount - 1));
+        }
+    }
+
+    /**
+     * Moves the most recent undo-able action to the redo side. Only the
+     * cursor moves, the action itself stays in the same slot
+     *
+     * @return the action that was moved
+     */
+    Action stepBack() {
+        Action a = at(index(undoCount - 1));
+        undoCount--;
+        redoCount++;
+        remeasure(index(undoCount));
+        if (softDepth >= 0) {
+            soften(index(undoCount));
+            if (undoCount >= softDepth && softDepth > 0) {
+                harden(index(undoCount - softDepth));
+            }
+        }
+        return a;
+    }
+
+    /**
+     * Moves the most recently undone action back to the undo side
+     *
+     * @return the action that was moved
+     */
+    Action stepForward() {
+        Action a = at(index(undoCount));
+        undoCount++;
+        redoCount--;
+        remeasure(index(undoCount - 1));
+        if (softDepth >= 0) {
+            if (softDepth > 0) {
+                harden(index(undoCount - 1));
+            }
+            if (undoCount > softDepth) {
+                soften(index(undoCount - 1 - softDepth));
+            }
+        }
+        return a;
+    }
+
+    /**
+     * Removes the chronologically oldest undo-able action
+     *
+     * @return the action that was removed
+     */
+    Action evictOldest() {
+        Action a = at(head);
+        slots[head] = null;
+        retained -= sizes[head];
+        sizes[head] = 0;
+        head = head + 1 == slots.length ? 0 : head + 1;
+        undoCount--;
+        return a;
+    }
+
+    /**
+     * Removes the redo-able action that would be redone last
+     *
+     * @return the action that was removed
+     */
+    Action evictFarthestRedo() {
+        int i = index(undoCount + redoCount - 1);
+        Action a = at(i);
+        slots[i] = null;
+        retained -= sizes[i];
+        sizes[i] = 0;
+        redoCount--;
+        return a;
+    }
+
+    /**
+     * Drops every redo-able action. The slots are cleared so that the actions
+     * can be collected, each slot is cleared at most once per push so this
+     * is still constant time when amortized over the pushes
+     */
+    void clearRedo() {
+        for (int n = 0; n < redoCount; n++) {
+            int i = index(undoCount + n);
+            slots[i] = null;
+            retained -= sizes[i];
+            sizes[i] = 0;
+        }
+        redoCount = 0;
+    }
+
+    /**
+     * Stops the ring from growing past room for {@code limit} undos and
+     * {@code limit} redos, or lets it grow freely again if {@code limit} is
+     * -1. Actions that no longer fit are dropped from the oldest end of the
+     * undo side and the far end of the redo side, and an array larger than
+     * the new room is shrunk. Room is only allocated as it is needed
+     *
+     * @param limit the limit set on the {@link History} or -1 for none
+     */
+    void setLimit(int limit) {
+        if (limit < 0) {
+            maxCapacity = MAX_CAPACITY;
+            return;
+        }
+        while (undoCount > limit) {
+            evictOldest();
+        }
+        while (redoCount > limit) {
+            evictFarthestRedo();
+        }
+        maxCapacity = (int) Math.min(2L * limit, MAX_CAPACITY);
+        if (slots.length > maxCapacity) {
+            resize(maxCapacity);
+        }
+    }
+
+    /**
+     * Returns the number of actions the array has room for
+     *
+     * @return the length of the array
+     */
+    int capacity() {
+        return slots.length;
+    }
+
+    /**
+     * Sets how many of the most recent undo-able actions are held strongly,
+     * with every action deeper than that and every redo-able action held
+     * through a {@link SoftReference}, or holds every action strongly again
+     * if {@code depth} is -1. Actions that have already been reclaimed stay
+     * reclaimed
+     *
+     * @param depth the number of undo-able actions held strongly or -1
+     */
+    void setSoftDepth(int depth) {
+        softDepth = depth;
+        for (int n = 0; n < undoCount + redoCount; n++) {
+            if (depth >= 0 && (n < undoCount - depth || n >= undoCount)) {
+                soften(index(n));
+            } else {
+                harden(index(n));
+            }
+        }
+    }
+
+    /**
+     * Clears every soft reference in the ring, as the garbage collector would
+     * when memory runs low. Only used by the tests of reclaimed actions
+     */
+    void clearSoftReferences() {
+        for (Object o : slots) {
+            if (o instanceof SoftReference) {
+                ((SoftReference<?>) o).clear();
+            }
+        }
+    }
+
+    private void soften(int i) {
+        Object o = slots[i];
+        if (o instanceof Action) {
+            slots[i] = new SoftReference<>((Action) o);
+        }
+    }
+
+    private void harden(int i) {
+        Action a = at(i);
+        if (a != null) {
+            slots[i] = a;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private Action at(int i) {
+        Object o = slots[i];
+        return o instanceof SoftReference ? ((SoftReference<Action>) o).get() : (Action) o;
+    }
+
+    /**
+     * Doubles the array, without going past the room allowed by the limit
+     */
+    private void grow() {
+        if (slots.length >= maxCapacity) {
+            throw new IllegalStateException("ActionRing is full");
+        }
+        resize((int) Math.min(2L * slots.length, maxCapacity));
+    }
+
+    private void resize(int capacity) {
+        Object[] grown = new Object[Math.max(capacity, 1)];
+        long[] grownSizes = new long[grown.length];
+        long[] grownTimes = times == null ? null : new long[grown.length];
+        int size = undoCount + redoCount;
+        for (int n = 0; n < size; n++) {
+            grown[n] = slots[index(n)];
+            grownSizes[n] = sizes[index(n)];
+            if (grownTimes != null) {
+                grownTimes[n] = times[index(n)];
+            }
+        }
+        slots = grown;
+        sizes = grownSizes;
+        times = grownTimes;
+        head = 0;
+    }
+
+    private void remeasure(int i) {
+        Action a = at(i);
+        long size = a == null ? 0 : Math.max(0, a.getEstimatedSize());
+        retained += size - sizes[i];
+        sizes[i] = size;
+    }
+
+    private int index(int offset) {
+        int i = head + offset;
+        return i >= slots.length ? i - slots.length : i;
+    }
+}
@@ -0,0 +1,39 @@
+package tom.history;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * ActionSerializer turns {@link Action}s into bytes and back so that they can
+ * be written to disk by a {@link HistoryJournal}. Since actions usually refer to
+ * objects of the program, such as a Label whose text they change, the
+ * serializer is expected to write only the data the action captured and look
+ * up or create those objects again when reading.
+ * <p>
+ * {@link CompoundAction}s are written by the journal itself, one action at a
+ * time, so a serializer never needs to handle them.
+ */
+public interface ActionSerializer {
+
+    /**
+     * Writes everything needed to recreate the action to the output
+     *
+     * @param action the action to write
+     * @param out    where to write the action
+     * @throws IOException if the output cannot be written
+     */
+    void write(@NotNull Action action, @NotNull DataOutput out) throws IOException;
+
+    /**
+     * Recreates an action from data written by {@link #write(Action, DataOutput)}
+     *
+     * @param in where to read the action from
+     * @return the recreated action
+     * @throws IOException if the input cannot be read or is not valid
+     */
+    @NotNull
+    Action read(@NotNull DataInput in) throws IOException;
+}
@@ -0,0 +1,110 @@
+package tom.history;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Branch is a run of actions that were undone and then replaced by a new
+ * action while the {@link History} was {@link History#setBranching(boolean) branching}.
+ * Instead of being dropped they are kept here, and {@link History#switchBranch(Branch)}
+ * brings them back as the actions to redo.
+ * <p>
+ * A branch only holds the actions after the point where it split off, which
+ * it shares with the rest of the history. A branch that split off from one
+ * of the actions of another branch is a child of that branch, so all the
+ * branches of a history form a tree. The actions of the current path, those
+ * that can be undone or redone right now, are not in any branch.
+ * <p>
+ * A Branch is a snapshot handle. Once it has been switched to, or dropped
+ * because of the limit or memory budget, it is no longer {@link #isAlive() alive}
+ * and can no longer be switched to.
+ */
+public final class Branch {
+
+    final History owner;
+    final Action[] actions;
+    final long forkDepth;
+    final long retained;
+    Branch parent;
+    final List<Branch> children = new ArrayList<>(0);
+    boolean alive = true;
+
+    Branch(History owner, Action[] actions, long forkDepth) {
+        this.owner = owner;
+        this.actions = actions;
+        this.forkDepth = forkDepth;
+        long size = 0;
+        for (Action a : actions) {
+            size += Math.max(0, a.getEstimatedSize());
+        }
+        this.retained = size;
+    }
+
+    /**
+     * Returns the number of actions in this branch, not counting any of its
+     * children
+     *
+     * @return the number of actions in the branch
+     */
+    public int size() {
+        return actions.length;
+    }
+
+    /**
+     * Returns an action of this branch. The action at 0 is the first one that
+     * would be redone after switching to the branch
+     *
+     * @param index the position of the action in the branch
+     * @return the action at that position
+     */
+    @NotNull
+    public Action get(int index) {
+        return actions[index];
+    }
+
+    /**
+     * Returns where this branch splits off, as the number of actions that can
+     * be undone when standing at that point. For a branch that splits off the
+     * current path this is the index to pass to {@link History#jumpTo(int)} to
+     * get there. For a child branch it is counted along the path through its
+     * parent
+     *
+     * @return the position this branch splits off at
+     */
+    public int getForkPosition() {
+        return owner.positionOf(forkDepth);
+    }
+
+    /**
+     * Returns the branch this branch split off from, or null if it split off
+     * from the current path
+     *
+     * @return the parent branch or null
+     */
+    @Nullable
+    public Branch getParent() {
+        return owner.withLock(() -> parent);
+    }
+
+    /**
+     * Returns the branches that split off from the actions of this branch
+     *
+     * @return a copy of the list of child branches
+     */
+    @NotNull
+    public List<Branch> getChildren() {
+        return owner.withLock(() -> new ArrayList<>(children));
+    }
+
+    /**
+     * Returns whether this branch is still stored in its {@link History}
+     *
+     * @return false if the branch has been switched to or dropped
+     */
+    public boolean isAlive() {
+        return owner.withLock(() -> alive);
+    }
+}
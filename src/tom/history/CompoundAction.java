@@ -0,0 +1,360 @@
+package tom.history;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountedCompleter;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * CompoundAction groups several {@link Action}s so that they are stored in
+ * {@link History} as a single entry and undone or redone together. This is
+ * what {@link History#registerAll(Collection)} and {@link History#commit()}
+ * store, but it can also be created directly and registered like any other
+ * action.
+ * <p>
+ * Executing or redoing a CompoundAction executes or redoes its actions in the
+ * order they were given and undoing it undoes them in the reverse order, so
+ * each action sees the same state it would have seen had they been registered
+ * one at a time. The actions are kept in a plain array so a group costs one
+ * entry in the history plus one reference per action.
+ * <p>
+ * When the actions declare what they change through {@link Action#getResources()},
+ * undoing and redoing only keep that order between actions that conflict.
+ * The first undo or redo works out, once, which earlier action each action
+ * has to wait for, and from then on actions run on the {@link ForkJoinPool}
+ * as soon as the actions they wait for are done, with the calling thread
+ * helping until all of them are. An action whose resources are not known
+ * waits for every action before it and every action after it waits for it.
+ * If no two actions can run at the same time they are simply run in order on
+ * the calling thread. If an action throws, no more actions are started and
+ * the first exception is thrown once those already running have finished.
+ */
+public class CompoundAction implements Action {
+
+    private final Action[] actions;
+    private Graph graph;
+
+    /**
+     * Creates a CompoundAction of the given actions, in the order they are
+     * returned by the collection's iterator. Later changes to the collection
+     * do not affect the CompoundAction
+     *
+     * @param actions the actions to group
+     */
+    public CompoundAction(@NotNull Collection<? extends Action> actions) {
+        this.actions = actions.toArray(new Action[0]);
+    }
+
+    /**
+     * Creates a CompoundAction of the given actions in the order given
+     *
+     * @param actions the actions to group
+     */
+    public CompoundAction(@NotNull Action... actions) {
+        this.actions = actions.clone();
+    }
+
+    /**
+     * Returns the number of actions in this group
+     *
+     * @return the number of grouped actions
+     */
+    public int size() {
+        return actions.length;
+    }
+
+    /**
+     * Returns the action at the given position in this group
+     *
+     * @param index the position of the action, 0 being executed first
+     * @return the action at that position
+     */
+    @NotNull
+    public Action get(int index) {
+        return actions[index];
+    }
+
+    @Override
+    public void execute() {
+        for (Action a : actions) {
+            a.execute();
+        }
+    }
+
+    @Override
+    public void undo() {
+        Graph g = graph();
+        if (g.parallel) {
+            g.run(actions, true);
+            return;
+        }
+        for (int i = actions.length - 1; i >= 0; i--) {
+            actions[i].undo();
+        }
+    }
+
+    @Override
+    public void redo() {
+        Graph g = graph();
+        if (g.parallel) {
+            g.run(actions, false);
+            return;
+        }
+        for (Action a : actions) {
+            a.redo();
+        }
+    }
+
+    /**
+     * Returns every resource of the grouped actions, so that groups can be
+     * grouped in turn
+     *
+     * @return the resources of all the grouped actions or null if those of
+     * any of them are not known
+     */
+    @Override
+    public Collection<?> getResources() {
+        Set<Object> resources = new HashSet<>();
+        for (Action a : actions) {
+            Collection<?> r = a.getResources();
+            if (r == null) {
+                return null;
+            }
+            resources.addAll(r);
+        }
+        return resources;
+    }
+
+    /**
+     * Returns the sum of the estimated sizes of the grouped actions
+     *
+     * @return the estimated retained size of every grouped action
+     */
+    @Override
+    public long getEstimatedSize() {
+        long size = 0;
+        for (Action a : actions) {
+            size += a.getEstimatedSize();
+        }
+        return size;
+    }
+
+    /**
+     * Returns whether undoing and redoing run the actions one after another
+     * on the calling thread, working out the graph if that has not been done
+     *
+     * @return true if no two of the actions can run at the same time
+     */
+    boolean isSequential() {
+        return !graph().parallel;
+    }
+
+    private Graph graph() {
+        Graph g = graph;
+        if (g == null) {
+            g = Graph.of(actions);
+            graph = g;
+        }
+        return g;
+    }
+
+    /**
+     * For each action, the actions it conflicts with that must run before it
+     * when redoing and after it when undoing. Only the closest conflicting
+     * action is recorded for each resource, the others follow from it. The
+     * fields are final so that a graph worked out on one thread is seen
+     * whole by any other
+     */
+    private static final class Graph {
+
+        /**
+         * Shared by every group whose actions all have to run in order, so
+         * such a group keeps no arrays
+         */
+        static final Graph SEQUENTIAL = new Graph(null, null);
+
+        final int[][] earlier;
+        final int[][] later;
+        final boolean parallel;
+
+        private Graph(int[][] earlier, int[][] later) {
+            this.earlier = earlier;
+            this.later = later;
+            this.parallel = earlier != null;
+        }
+
+        /**
+         * Works out the graph of the given actions, or returns {@link #SEQUENTIAL}
+         * if no two of them can run at the same time
+         */
+        static Graph of(Action[] actions) {
+            boolean known = false;
+            for (Action a : actions) {
+                if (a.getResources() != null) {
+                    known = true;
+                    break;
+                }
+            }
+            if (!known) {
+                return SEQUENTIAL;
+            }
+            int n = actions.length;
+            int[][] earlier = new int[n][];
+            Map<Object, Integer> last = new HashMap<>();
+            List<Integer> sinceBarrier = new ArrayList<>();
+            int barrier = -1;
+            boolean chain = true;
+            int[] count = new int[n];
+            for (int k = 0; k < n; k++) {
+                Collection<?> resources = actions[k].getResources();
+                Set<Integer> deps = new HashSet<>();
+                if (resources == null) {
+                    if (barrier >= 0) {
+                        deps.add(barrier);
+                    }
+                    deps.addAll(sinceBarrier);
+                    barrier = k;
+                    sinceBarrier.clear();
+                    last.clear();
+                } else {
+                    for (Object r : resources) {
+                        Integer previous = last.put(r, k);
+                        if (previous != null) {
+                            deps.add(previous);
+                        }
+                    }
+                    if (deps.isEmpty() && barrier >= 0) {
+                        deps.add(barrier);
+                    }
+                    sinceBarrier.add(k);
+                }
+                earlier[k] = new int[deps.size()];
+                int i = 0;
+                for (int d : deps) {
+                    earlier[k][i++] = d;
+                    count[d]++;
+                }
+                chain &= k == 0 || deps.contains(k - 1);
+            }
+            if (chain) {
+                return SEQUENTIAL;
+            }
+            int[][] later = new int[n][];
+            for (int k = 0; k < n; k++) {
+                later[k] = new int[count[k]];
+            }
+            for (int k = 0; k < n; k++) {
+                for (int d : earlier[k]) {
+                    later[d][--count[d]] = k;
+                }
+            }
+            return new Graph(earlier, later);
+        }
+
+        /**
+         * Undoes or redoes the actions, running each once the actions it
+         * waits for are done, and waits for all of them
+         */
+        void run(Action[] actions, boolean undo) {
+            Run run = new Run(actions, undo, undo ? later : earlier, undo ? earlier : later);
+            new Step(null, run, -1).invoke();
+            Throwable failure = run.failure.get();
+            if (failure instanceof RuntimeException) {
+                throw (RuntimeException) failure;
+            }
+            if (failure instanceof Error) {
+                throw (Error) failure;
+            }
+            if (failure != null) {
+                throw new IllegalStateException("Action threw while being undone " +
+                                                "or redone", failure);
+            }
+        }
+    }
+
+    /**
+     * The state shared by the steps of one undo or redo
+     */
+    private static final class Run {
+
+        final Action[] actions;
+        final boolean undo;
+        final int[][] next;
+        final AtomicIntegerArray waiting;
+        final int[] first;
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        Run(Action[] actions, boolean undo, int[][] waitFor, int[][] next) {
+            this.actions = actions;
+            this.undo = undo;
+            this.next = next;
+            this.waiting = new AtomicIntegerArray(actions.length);
+            int ready = 0;
+            for (int k = 0; k < actions.length; k++) {
+                waiting.set(k, waitFor[k].length);
+                if (waitFor[k].length == 0) {
+                    ready++;
+                }
+            }
+            first = new int[ready];
+            for (int k = 0, i = 0; k < actions.length; k++) {
+                if (waitFor[k].length == 0) {
+                    first[i++] = k;
+                }
+            }
+        }
+    }
+
+    /**
+     * Undoes or redoes one action and then starts each action that was only
+     * waiting for it. A step completes once every step it started has, so the
+     * first step, which runs no action and starts the actions that wait for
+     * nothing, completes once they all have. Exceptions are caught and kept
+     * so that a step always completes. Steps are never serialized
+     */
+    @SuppressWarnings("serial")
+    private static final class Step extends CountedCompleter<Void> {
+
+        private final Run run;
+        private final int index;
+
+        Step(Step parent, Run run, int index) {
+            super(parent);
+            this.run = run;
+            this.index = index;
+        }
+
+        @Override
+        public void compute() {
+            if (index >= 0 && run.failure.get() == null) {
+                try {
+                    if (run.undo) {
+                        run.actions[index].undo();
+                    } else {
+                        run.actions[index].redo();
+                    }
+                } catch (Throwable t) {
+                    run.failure.compareAndSet(null, t);
+                }
+            }
+            if (run.failure.get() == null) {
+                for (int k : index < 0 ? run.first : run.next[index]) {
+                    if (index < 0 || run.waiting.decrementAndGet(k) == 0) {
+                        addToPendingCount(1);
+                        new Step(this, run, k).fork();
+                    }
+                }
+            }
+            tryComplete();
+        }
+    }
+}
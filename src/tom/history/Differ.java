@@ -0,0 +1,102 @@
+package tom.history;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.List;
+
+/**
+ * A Differ finds what changed between two values of some state so that a
+ * {@link StateAction} can store only the change instead of both values.
+ * The change is returned as a {@link Delta} which can turn the value before
+ * the change into the value after it and back again.
+ * <p>
+ * Differs for {@link String}, {@code byte[]} and {@link List} are returned by
+ * {@link #strings()}, {@link #bytes()} and {@link #lists()}. They keep the
+ * part that was replaced and the part that replaced it, found by skipping
+ * everything the two values have in common at the start and at the end. A
+ * single insertion, deletion or replacement, such as appending to a
+ * document, is therefore stored in space proportional to the edit and not
+ * to the document.
+ *
+ * @param <T> the type of the state
+ */
+public interface Differ<T> {
+
+    /**
+     * Works out the change from one value to another
+     *
+     * @param before the value before the change
+     * @param after  the value after the change
+     * @return a delta that turns {@code before} into {@code after} and back
+     */
+    @NotNull
+    Delta<T> diff(@NotNull T before, @NotNull T after);
+
+    /**
+     * A change between two values as worked out by a {@link Differ}
+     *
+     * @param <T> the type of the state
+     */
+    interface Delta<T> {
+
+        /**
+         * Makes the change again
+         *
+         * @param before the value the change was worked out from
+         * @return the value after the change
+         */
+        @NotNull
+        T apply(@NotNull T before);
+
+        /**
+         * Takes the change back
+         *
+         * @param after the value the change produced
+         * @return the value before the change
+         */
+        @NotNull
+        T revert(@NotNull T after);
+
+        /**
+         * Returns roughly how many bytes the delta retains
+         *
+         * @return the estimated size of the delta in bytes
+         * @see Action#getEstimatedSize()
+         */
+        long getEstimatedSize();
+    }
+
+    /**
+     * Returns a differ that stores the replaced part of a string
+     *
+     * @return a differ for strings
+     */
+    @NotNull
+    static Differ<String> strings() {
+        return Differs.STRINGS;
+    }
+
+    /**
+     * Returns a differ that stores the replaced part of a byte array
+     *
+     * @return a differ for byte arrays
+     */
+    @NotNull
+    static Differ<byte[]> bytes() {
+        return Differs.BYTES;
+    }
+
+    /**
+     * Returns a differ that stores the replaced part of a list, comparing
+     * the elements with {@link Object#equals(Object)}. Applying and reverting
+     * the delta return new lists and never modify the one they are given
+     *
+     * @param <E> the type of the elements
+     * @return a differ for lists
+     */
+    @NotNull
+    @SuppressWarnings("unchecked")
+    static <E> Differ<List<E>> lists() {
+        return (Differ<List<E>>) (Differ<?>) Differs.LISTS;
+    }
+}
@@ -0,0 +1,192 @@
+package tom.history;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * The differs returned by {@link Differ#strings()}, {@link Differ#bytes()}
+ * and {@link Differ#lists()}. Each one trims the common start and end of the
+ * two values and keeps where the rest starts, what was there before and what
+ * replaced it
+ */
+final class Differs {
+
+    private static final long DELTA_OVERHEAD = 32;
+
+    static final Differ<String> STRINGS = (before, after) -> {
+        int start = 0;
+        int max = Math.min(before.length(), after.length());
+        while (start < max && before.charAt(start) == after.charAt(start)) {
+            start++;
+        }
+        int end = 0;
+        max -= start;
+        while (end < max && before.charAt(before.length() - 1 - end) ==
+                            after.charAt(after.length() - 1 - end))
+        {
+            end++;
+        }
+        return new StringDelta(start, before.substring(start, before.length() - end),
+                               after.substring(start, after.length() - end));
+    };
+
+    static final Differ<byte[]> BYTES = (before, after) -> {
+        int start = 0;
+        int max = Math.min(before.length, after.length);
+        while (start < max && before[start] == after[start]) {
+            start++;
+        }
+        int end = 0;
+        max -= start;
+        while (end < max && before[before.length - 1 - end] == after[after.length - 1 - end]) {
+            end++;
+        }
+        return new BytesDelta(start, Arrays.copyOfRange(before, start, before.length - end),
+                              Arrays.copyOfRange(after, start, after.length - end));
+    };
+
+    static final Differ<List<Object>> LISTS = (before, after) -> {
+        int start = 0;
+        int max = Math.min(before.size(), after.size());
+        while (start < max && Objects.equals(before.get(start), after.get(start))) {
+            start++;
+        }
+        int end = 0;
+        max -= start;
+        while (end < max && Objects.equals(before.get(before.size() - 1 - end),
+                                           after.get(after.size() - 1 - end)))
+        {
+            end++;
+        }
+        return new ListDelta(start, new ArrayList<>(before.subList(start, before.size() - end)),
+                             new ArrayList<>(after.subList(start, after.size() - end)));
+    };
+
+    private Differs() {
+    }
+
+    private static final class StringDelta implements Differ.Delta<String> {
+
+        private final int start;
+        private final String removed;
+        private final String inserted;
+
+        StringDelta(int start, String removed, String inserted) {
+            this.start = start;
+            this.removed = removed;
+            this.inserted = inserted;
+        }
+
+        @NotNull
+        @Override
+        public String apply(@NotNull String before) {
+            return replace(before, removed.length(), inserted);
+        }
+
+        @NotNull
+        @Override
+        public String revert(@NotNull String after) {
+            return replace(after, inserted.length(), removed);
+        }
+
+        private String replace(String value, int length, String with) {
+            return new StringBuilder(value.length() - length + with.length())
+              .append(value, 0, start)
+              .append(with)
+              .append(value, start + length, value.length())
+              .toString();
+        }
+
+        @Override
+        public long getEstimatedSize() {
+            return DELTA_OVERHEAD + 2L * (removed.length() + inserted.length());
+        }
+    }
+
+    private static final class BytesDelta implements Differ.Delta<byte[]> {
+
+        private final int start;
+        private final byte[] removed;
+        private final byte[] inserted;
+
+        BytesDelta(int start, byte[] removed, byte[] inserted) {
+            this.start = start;
+            this.removed = removed;
+            this.inserted = inserted;
+        }
+
+        @NotNull
+        @Override
+        public byte[] apply(@NotNull byte[] before) {
+            return replace(before, removed.length, inserted);
+        }
+
+        @NotNull
+        @Override
+        public byte[] revert(@NotNull byte[] after) {
+            return replace(after, inserted.length, removed);
+        }
+
+        private byte[] replace(byte[] value, int length, byte[] with) {
+            byte[] result = new byte[value.length - length + with.length];
+            System.arraycopy(value, 0, result, 0, start);
+            System.arraycopy(with, 0, result, start, with.length);
+            System.arraycopy(value, start + length, result, start + with.length,
+                             value.length - start - length);
+            return result;
+        }
+
+        @Override
+        public long getEstimatedSize() {
+            return DELTA_OVERHEAD + removed.length + inserted.length;
+        }
+    }
+
+    private static final class ListDelta implements Differ.Delta<List<Object>> {
+
+        private static final long REFERENCE_SIZE = 8;
+
+        private final int start;
+        private final List<Object> removed;
+        private final List<Object> inserted;
+
+        ListDelta(int start, List<Object> removed, List<Object> inserted) {
+            this.start = start;
+            this.removed = removed;
+            this.inserted = inserted;
+        }
+
+        @NotNull
+        @Override
+        public List<Object> apply(@NotNull List<Object> before) {
+            return replace(before, removed.size(), inserted);
+        }
+
+        @NotNull
+        @Override
+        public List<Object> revert(@NotNull List<Object> after) {
+            return replace(after, inserted.size(), removed);
+        }
+
+        private List<Object> replace(List<Object> value, int length, List<Object> with) {
+            List<Object> result = new ArrayList<>(value.size() - length + with.size());
+            result.addAll(value.subList(0, start));
+            result.addAll(with);
+            result.addAll(value.subList(start + length, value.size()));
+            return result;
+        }
+
+        /**
+         * Counts only the references held, since the elements may well be
+         * shared with the list itself
+         */
+        @Override
+        public long getEstimatedSize() {
+            return DELTA_OVERHEAD + REFERENCE_SIZE * (removed.size() + inserted.size());
+        }
+    }
+}
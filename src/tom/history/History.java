@@ -1,18 +1,36 @@
 package tom.history;
 
-import javafx.scene.control.Button;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
+import tom.history.HistoryMetrics.Operation;
 
-import java.util.concurrent.LinkedBlockingDeque;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.function.Supplier;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
 /**
- * tom.history.History is a singleton class used to interface with Undo and Redo using
- * the {@link Action} interface. Getting the instance of tom.history.History uses {@link #getInstance()}
- * and is the only way to interface with the tom.history.History class since the constructor is
- * private and there are no other static methods
+ * tom.history.History is a class used to interface with Undo and Redo using
+ * the {@link Action} interface. A program with a single undo stack can use the
+ * default instance returned by {@link #getInstance()}. A program with many
+ * independent documents can instead create one tom.history.History per document
+ * with {@link #History()}, or look them up by key in a {@link HistoryRegistry}.
+ * Every instance has its own lock so actions on different documents never wait
+ * for one another
  * <p>
  * To use this class, is meant to be very simple. It is not the strongest or most
  * complex implementation of Undo and Redo, but it is capable. First you must
@@ -41,33 +59,53 @@ import java.util.concurrent.locks.ReentrantLock;
  * which functions basically exactly like the undo method but in reverse. The
  * redo stack is cleared whenever an action is registered.
  * <p>
- * Finally, you can use {@link #registerUndoButton(Button)} and {@link #registerRedoButton(Button)}
- * methods to register with the tom.history.History class. This allows the history class
- * to maintain the state of these buttons in accordance with the size of the undo stack
- * and redo stack. It is not necessary that you use these methods or give the class buttons
- * This function is independent of all other functions and it is safe to ignore these
- * two methods and use the tom.history.History class in the same way as you would with the buttons
- * If you do use these methods then unod and redo will be disabled and enabled
- * according to when such actions are available to the user
+ * Since actions can differ wildly in how much memory they hold, the stacks can
+ * also be bounded by an approximate number of bytes using {@link #setMemoryBudget(long)}.
+ * Each action reports its own size through {@link Action#getEstimatedSize()}
+ * and when their total goes over the budget actions are dropped from the far
+ * end of the redo stack and then from the most chronologically distant end of
+ * the undo stack. {@link #getRetainedSize()} returns the current total.
+ * <p>
+ * Finally, the undo and redo buttons of a JavaFX user interface can be kept
+ * enabled and disabled according to when such actions are available to the
+ * user. This lives in the separate fx module, so that tom.history.History itself
+ * does not depend on JavaFX and programs without a user interface do not load
+ * it. {@code FxHistory.of(history)} in the {@code tom.history.fx} package
+ * returns an object with {@code registerUndoButton} and {@code registerRedoButton}
+ * methods and read only properties for the sizes of the stacks, kept up to date
+ * through {@link #getEvents()}. It is not necessary to use it, and the
+ * tom.history.History class works in the same way with or without buttons.
+ * The {@link #registerUndoButton(Object)} and {@link #registerRedoButton(Object)}
+ * methods of earlier versions remain, deprecated, and forward to it when the
+ * fx module is on the class path.
  * <p>
  * Implementation note: While the data type collecting actions for undo and redo
- * is described as a stack it is actually implemented as a Double Ended Queue
- * (deque) in order to implement undo/redo size limits in an efficient way.
- * However, for all intents and purposes it is treated like a stack except for that.
+ * is described as two stacks it is actually implemented as a single circular
+ * array shared by both (see {@link ActionRing}). Undoing and redoing only move
+ * a cursor within the array and the oldest entries can be dropped from either
+ * end in constant time. When a limit is set the array grows as actions are
+ * stored until it has room for the limit, after which a bounded
+ * tom.history.History does not allocate while it is used.
+ * However, for all intents and purposes it is treated like two stacks.
  * <p>
  * Note also that tom.history.History is designed to be thread safe. Calling it from many threads
  * is acceptable as it has locking mechanisms in place.
  */
 public class History {
 
+    private static final int EXPIRY_BATCH = 256;
+
     private static volatile History instance;
     private static Lock instanceLock = new ReentrantLock();
 
     /**
-     * Return the singleton instance of tom.history.History used throughout the life time
+     * Return the default instance of tom.history.History used throughout the life time
      * of the program. Thread safe method only locks if the instance is null
+     * <p>
+     * The default instance is completely separate from any instance created
+     * with {@link #History()} or by a {@link HistoryRegistry}
      *
-     * @return the singleton tom.history.History instance
+     * @return the default tom.history.History instance
      */
     public static History getInstance() {
         if (instance == null) {
@@ -84,13 +122,52 @@ public class History {
         return instance;
     }
     private int limit = -1;
-    private LinkedBlockingDeque<Action> undoDeque = new LinkedBlockingDeque<>();
-    private LinkedBlockingDeque<Action> redoDeque = new LinkedBlockingDeque<>();
-    private Lock lock = new ReentrantLock();
-    private Button undoButton;
-    private Button redoButton;
+    private long memoryBudget = -1;
+    private long coalesceWindow;
+    private long maxAge;
+    private long expiresAt;
+    private long spilledTime;
+    private long lastRegistered;
+    private Action coalesceTarget;
+    private HistoryJournal journal;
+    private SpillTier spill;
+    private UndoTree tree;
+    private PropertyLane lane;
+    private HashMap<Object, ScopeIndex> scopes;
+    private boolean undoneInScope;
+    private HistoryIndex historyIndex;
+    private long base;
+    private Action unjournaled;
+    private volatile long retainedSize;
+    private int softDepth = -1;
+    private volatile long reclaimedCount;
+    private volatile long publishedSizes;
+    private volatile Action publishedTop;
+    private final ActionRing ring = new ActionRing();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition idle = lock.newCondition();
+    private Thread actionThread;
+    private volatile HistoryMetrics metrics;
+    private volatile WorkloadRecorder recorder;
+    private long performed;
+    private volatile HistoryEventPublisher events;
+    private long eventSequence;
+    private boolean eventsQueued;
+    private boolean holdTimed;
+    private boolean batching;
+    private long lockedAt;
+    private CompletableFuture<Boolean> asyncTail = CompletableFuture.completedFuture(true);
+    private volatile Executor executor;
+    private final ThreadLocal<Transaction> transaction = new ThreadLocal<>();
 
-    private History() {
+    /**
+     * Creates a new, empty tom.history.History with no limit and no memory budget.
+     * Use this to give each document its own undo and redo stacks instead of
+     * sharing the default instance returned by {@link #getInstance()}
+     *
+     * @see HistoryRegistry
+     */
+    public History() {
     }
 
     /**
@@ -108,209 +185,2738 @@ public class History {
     }
 
     /**
-     * Sets the limit on the maximum number of undos and redo actions to store
+     * Sets the limit on the maximum number of undos and redo actions to store.
+     * Room for the actions is allocated as they are stored, up to
+     * {@code limit} undos and {@code limit} redos, after which a bounded
+     * history allocates nothing more. If more actions than that are already
+     * stored the oldest undos and the farthest redos are dropped
      *
      * @param limit the limit of the number of undos and redos to store
      * @see #getLimit()
      */
     public void setLimit(int limit) {
-        if (limit == 0) {
+        if (limit == 0 || limit < -1) {
             throw new IllegalArgumentException("Limit for History must be " +
                                                "either greater than 0 or -1 " +
                                                "for no limit");
         }
-        this.limit = limit;
+        lockIdle();
+        try {
+            this.limit = limit;
+            int before = undoCount();
+            int redoBefore = ring.redoSize();
+            while (limit > 0 && undoCount() > limit && spilled() > 0) {
+                spill.dropOldest();
+            }
+            while (limit > 0 && ring.undoSize() > limit) {
+                evictOldest();
+            }
+            while (limit > 0 && ring.redoSize() > limit) {
+                evictFarthestRedo();
+            }
+            ring.setLimit(limit > 0 ? limit : -1);
+            base += before - undoCount();
+            evicted(before - undoCount() + redoBefore - ring.redoSize());
+            enforceMemoryBudget();
+            publishState();
+            recorded(WorkloadRecorder.Call.SET_LIMIT, limit, 0);
+        } finally {
+            unlock();
+        }
     }
 
     /**
-     * Registers the button passed as the undo button of the program. By passing
-     * this method a {@link Button} instance it will disable and enable that
-     * button in accordance with the availability of the undo function within
-     * the tom.history.History class itself. So, if there are no actions to undo, then
-     * the undo button would be disabled and otherwise it would be enabled
+     * Return the approximate number of bytes that the stored actions are
+     * allowed to retain or -1 if no memory budget has been set
      *
-     * @param button the button to be treated as the undo button by the tom.history.History
-     *               class
+     * @return the memory budget in bytes or -1 if there is no budget
+     * @see #setMemoryBudget(long)
      */
-    public void registerUndoButton(@Nullable Button button) {
-        undoButton = button;
+    public long getMemoryBudget() {
+        return memoryBudget;
     }
 
     /**
-     * Registers a button as the redo button. Performs the same tasks as
-     * {@link #registerUndoButton(Button)}
+     * Sets the approximate number of bytes that all stored undo and redo
+     * actions together may retain, as reported by {@link Action#getEstimatedSize()}.
+     * Whenever the total is over the budget actions are dropped starting with
+     * the farthest redo and then the oldest undo. The action that would be
+     * undone next and the action that would be redone next are never dropped
+     * so the budget may be exceeded by at most those two actions.
+     * <p>
+     * The budget works alongside {@link #setLimit(int)} and whichever is reached
+     * first causes actions to be dropped
+     *
+     * @param bytes the memory budget in bytes or -1 for no budget
+     */
+    public void setMemoryBudget(long bytes) {
+        if (bytes == 0 || bytes < -1) {
+            throw new IllegalArgumentException("Memory budget for History " +
+                                               "must be either greater than " +
+                                               "0 or -1 for no budget");
+        }
+        lockIdle();
+        try {
+            this.memoryBudget = bytes;
+            enforceMemoryBudget();
+            publishState();
+        } finally {
+            unlock();
+        }
+    }
+
+    /**
+     * Returns the sum of {@link Action#getEstimatedSize()} over all actions
+     * currently stored for undo and redo. The total is kept up to date as
+     * actions are registered, undone, redone and dropped so this method does
+     * not lock and does not visit any actions
+     *
+     * @return the estimated number of bytes retained by the stored actions
+     */
+    public long getRetainedSize() {
+        return retainedSize;
+    }
+
+    /**
+     * Returns how many of the most recent undo-able actions are held strongly
+     * or -1 if every action is
      *
-     * @param button
-     * @see #registerUndoButton(Button)
+     * @return the soft depth or -1
+     * @see #setSoftDepth(int)
      */
-    public void registerRedoButton(@Nullable Button button) {
-        redoButton = button;
+    public int getSoftDepth() {
+        return softDepth;
     }
 
     /**
-     * Stores the action in the stack of actions collecting all undo-able actions
-     * and then calls the {@link Action#execute()} method of the action.
+     * Lets the garbage collector reclaim stored actions when memory runs low.
+     * Every action that can be redone and every undo-able action more than
+     * {@code depth} actions from the most recent one is then held through a
+     * {@link java.lang.ref.SoftReference}, which the JVM clears before it runs
+     * out of memory. An action is held strongly again when it comes within
+     * the depth through undoing or is redone, as long as it has not been
+     * reclaimed by then.
      * <p>
-     * Note that this method calls {@link Lock#lock()} and will wait for all
-     * other threads to not be undoing, redoing, or registering an action before
-     * it registers the action
+     * When {@link #undo()} or {@link #redo()} reaches an action that has been
+     * reclaimed, that action and every action beyond it, which can no longer
+     * be reached, are dropped and the call returns false as if there were
+     * nothing more to undo or redo. {@link #getReclaimedCount()} counts the
+     * actions lost this way. Until then {@link #canUndo()} and {@link #canRedo()}
+     * may still report actions that turn out to have been reclaimed.
+     * <p>
+     * The depth is -1 by default, holding every action strongly
      *
-     * @param action the action that will be registered and executed
-     * @see #registerAction(Action)
+     * @param depth the number of most recent undo-able actions to always
+     *              hold, at least 1, or -1 to hold every action
      */
-    public void registerActionAndExecute(@NotNull Action action) {
-        lock.lock();
+    public void setSoftDepth(int depth) {
+        if (depth == 0 || depth < -1) {
+            throw new IllegalArgumentException("Soft depth for History must be " +
+                                               "either greater than 0 or -1 " +
+                                               "to hold every action");
+        }
+        lockIdle();
         try {
-            registerAction(action);
-            action.execute();
-            updateButtonsForExecute();
+            softDepth = depth;
+            ring.setSoftDepth(depth);
         } finally {
-            lock.unlock();
+            unlock();
         }
     }
 
     /**
-     * Use this function to execute an action that has just been registered
-     * If you choose to use the {@link #registerAction(Action)} method instead
-     * of the {@link #registerActionAndExecute(Action)} method, you can call this
-     * method after to execute the <strong>most recently registered action</strong>
+     * Clears the actions held softly, as the garbage collector would when
+     * memory runs low. Only used by the tests of reclaimed actions
      */
-    public void executeMostRecentAction() {
-        lock.lock();
+    void reclaimSoftActions() {
+        lockIdle();
         try {
-            undoDeque.peekFirst().execute();
-            updateButtonsForExecute();
+            ring.clearSoftReferences();
         } finally {
-            lock.unlock();
+            unlock();
         }
     }
 
-    private void updateButtonsForExecute() {
-        if (redoButton != null) {
-            redoButton.setDisable(true);
-            redoDeque.clear();
+    /**
+     * Returns the number of actions dropped because the garbage collector
+     * had reclaimed them or an action before them
+     *
+     * @return the number of actions lost to the garbage collector
+     * @see #setSoftDepth(int)
+     */
+    public long getReclaimedCount() {
+        return reclaimedCount;
+    }
+
+    /**
+     * Returns the {@link Executor} used to run the actions of asynchronous
+     * operations such as {@link #undoAsync()}
+     *
+     * @return the executor used for asynchronous operations
+     * @see #setExecutor(Executor)
+     */
+    @NotNull
+    public Executor getExecutor() {
+        Executor e = executor;
+        return e != null ? e : DefaultExecutor.INSTANCE;
+    }
+
+    /**
+     * Sets the {@link Executor} used to run the actions of asynchronous
+     * operations. By default a virtual thread is started for each operation
+     * when the running JVM supports virtual threads and otherwise a shared pool
+     * of daemon threads is used. Passing null restores the default.
+     * <p>
+     * Asynchronous operations are carried out one at a time in the order they
+     * were requested, without holding the lock while the action runs. While
+     * one is running, other calls that change the history wait for its action
+     * to return, even if the operation has timed out or been cancelled, while
+     * methods that only read the history, such as {@link #getRetainedSize()},
+     * do not wait
+     *
+     * @param executor the executor to use or null for the default
+     */
+    public void setExecutor(@Nullable Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Returns the recorder writing the calls made on this tom.history.History
+     * to a trace or null if none is attached
+     *
+     * @return the attached recorder or null
+     * @see #setRecorder(WorkloadRecorder)
+     */
+    @Nullable
+    public WorkloadRecorder getRecorder() {
+        return recorder;
+    }
+
+    /**
+     * Attaches a recorder that writes every call to {@link #registerAction(Action)},
+     * {@link #registerActionAndExecute(Action)}, {@link #undo()}, {@link #redo()}
+     * and {@link #setLimit(int)} to a trace, starting with the current limit,
+     * or detaches the current one. Other changes are recorded as the calls
+     * with the same effect, or stop the recording where there are none, as
+     * described in {@link WorkloadRecorder}. Detaching does not close the
+     * recorder
+     *
+     * @param recorder the recorder to attach or null to detach the current one
+     */
+    public void setRecorder(@Nullable WorkloadRecorder recorder) {
+        lockIdle();
+        try {
+            this.recorder = recorder;
+            recorded(WorkloadRecorder.Call.SET_LIMIT, limit, 0);
+        } finally {
+            unlock();
         }
-        if (undoButton != null) {
-            if (!undoDeque.isEmpty()) {
-                undoButton.setDisable(false);
-            }
+    }
+
+    /**
+     * Returns the metrics collecting timings from this tom.history.History or
+     * null if none are attached
+     *
+     * @return the attached metrics or null
+     * @see #setMetrics(HistoryMetrics)
+     */
+    @Nullable
+    public HistoryMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Attaches metrics that from now on time every execute, undo and redo and
+     * the lock, and count the actions dropped, or detaches the current ones if
+     * null is given. Without metrics, the default, nothing is timed
+     *
+     * @param metrics the metrics to attach or null to detach the current ones
+     * @see HistoryMetrics
+     */
+    public void setMetrics(@Nullable HistoryMetrics metrics) {
+        lockIdle();
+        try {
+            this.metrics = metrics;
+            publishState();
+        } finally {
+            unlock();
         }
     }
 
     /**
-     * Stores the action in the stack of action collecting all the undo-able
-     * actions
+     * Returns the journal recording this tom.history.History or null if there is none
+     *
+     * @return the attached journal or null
+     * @see #setJournal(HistoryJournal)
+     */
+    @Nullable
+    public HistoryJournal getJournal() {
+        return journal;
+    }
+
+    /**
+     * Attaches a journal that records every registration, undo and redo from
+     * now on, or detaches the current journal if null is given. Attaching a
+     * journal that already has records rebuilds the undo and redo stacks from
+     * them, without executing, undoing or redoing any of the actions, so a
+     * journal can only be attached while the stacks are empty. Since the limit
+     * and memory budget are applied while rebuilding they should be set first.
      * <p>
-     * Note that this method calls {@link Lock#lock()} and will wait for all
-     * other threads to not be undoing, redoing, or registering an action before
-     * it registers the action
+     * If the journal holds many more records than there are actions left in
+     * the stacks it is rewritten to hold only what is needed to rebuild them.
+     * <p>
+     * Actions registered with {@link #registerAction(Action)} are written to the
+     * journal once they are executed or the next change is made, so that
+     * whatever they captured while executing is included.
+     * <p>
+     * A record is written after its action has run, so if it cannot be
+     * written, for example because the disk is full, the change still goes
+     * ahead. The journal is then detached, since it no longer matches the
+     * stacks, and the failure is passed to the uncaught exception handler of
+     * the thread that made the change
      *
-     * @param action the action to be stored
-     * @see #registerActionAndExecute(Action)
+     * @param journal the journal to attach or null to detach the current one
+     * @throws IOException           if the journal cannot be read or rewritten
+     * @throws IllegalStateException if a journal is attached while the stacks
+     *                               are not empty
      */
-    public void registerAction(@NotNull Action action) {
-        lock.lock();
+    public void setJournal(@Nullable HistoryJournal journal) throws IOException {
+        lockIdle();
         try {
-            if (limit > 0 && undoDeque.size() >= limit) {
-                undoDeque.removeLast();
+            writeUnjournaled();
+            if (journal == null) {
+                this.journal = null;
+                return;
             }
-            undoDeque.push(action);
-            redoDeque.clear();
-            if (redoButton != null) {
-                redoButton.setDisable(true);
+            if (undoCount() != 0 || ring.redoSize() != 0) {
+                throw new IllegalStateException("A journal can only be attached " +
+                                                "to an empty History");
+            }
+            checkNoLane("a journal");
+            this.journal = null;
+            journal.replay(new HistoryJournal.Replay() {
+                @Override
+                public void register(Action action) {
+                    push(action);
+                }
+
+                @Override
+                public void absorb(Action action) {
+                    Action top = ring.peekUndo();
+                    if (top != null) {
+                        top.absorb(action);
+                        ring.remeasureUndoTop();
+                    }
+                }
+
+                @Override
+                public void undo() {
+                    if (ring.undoSize() != 0) {
+                        finishUndo();
+                    }
+                }
+
+                @Override
+                public void redo() {
+                    if (ring.redoSize() != 0) {
+                        finishRedo();
+                    }
+                }
+
+                @Override
+                public void clearRedo() {
+                    History.this.clearRedo();
+                    scopes = null;
+                }
+
+                @Override
+                public void appendRedo(Action action) {
+                    ring.appendRedo(action);
+                    if (historyIndex != null) {
+                        indexAction(base + undoCount() + ring.redoSize() - 1, action,
+                                    System.currentTimeMillis());
+                    }
+                }
+            });
+            enforceMemoryBudget();
+            int stored = ring.undoSize() + ring.redoSize();
+            if (spilled() == 0 && journal.getRecordCount() > 2L * stored + 1024) {
+                Action[] actions = new Action[stored];
+                boolean complete = true;
+                for (int i = 0; i < stored; i++) {
+                    actions[i] = ring.get(i);
+                    complete &= actions[i] != null;
+                }
+                if (complete) {
+                    journal.compact(actions, ring.redoSize());
+                }
             }
+            this.journal = journal;
+            publishState();
         } finally {
-            lock.unlock();
+            unlock();
         }
     }
 
     /**
-     * This method retrieves the most recently registered {@link Action} that
-     * has not already been undone by this method and calles the {@link Action#undo()}
-     * method on it
-     * <p>
-     * Note that this method calls {@link Lock#lock()} and will wait for all
-     * other threads to not be undoing, redoing, or registering an action before
-     * it registers the action
+     * Returns the spill tier holding older actions or null if there is none
      *
-     * @return true if the undo was called or false if there was nothing to undo,
-     * that is if the undo stack was empty
+     * @return the attached spill tier or null
+     * @see #setSpillTier(SpillTier)
      */
-    public boolean undo() {
-        lock.lock();
+    @Nullable
+    public SpillTier getSpillTier() {
+        return spill;
+    }
+
+    /**
+     * Attaches a {@link SpillTier} so that only its {@link SpillTier#getHotSize() hot size}
+     * of the most recent undo-able actions are kept in memory and older ones
+     * are moved to its file, or detaches the current one if null is given.
+     * Actions over the memory budget are also moved to the file rather than
+     * dropped. Any actions already in memory beyond the hot size are moved
+     * straight away, and detaching a spill tier reads all of its actions back
+     * into memory. The limit, if set, still applies to all undo-able actions
+     * whether they are in memory or not
+     *
+     * @param tier the spill tier to attach or null to detach the current one
+     */
+    public void setSpillTier(@Nullable SpillTier tier) {
+        lockIdle();
         try {
-            if (undoDeque.isEmpty()) {
-                return false;
-            } else {
-                Action a = undoDeque.pop();
-                a.undo();
-                if (limit > 0 && redoDeque.size() >= limit) {
-                    redoDeque.removeLast();
-                }
-                redoDeque.push(a);
-                updateButtonsForUndo();
-                return true;
+            if (tier != null) {
+                checkNoLane("a spill tier");
+                checkNoScopedUndo("a spill tier");
             }
+            while (spilled() > 0) {
+                spill.faultInto(ring);
+            }
+            spill = tier;
+            spillOverflow();
+            enforceMemoryBudget();
+            publishState();
         } finally {
-            lock.unlock();
+            unlock();
+        }
+    }
+
+    private int spilled() {
+        return spill == null ? 0 : spill.size();
+    }
+
+    private int undoCount() {
+        return ring.undoSize() + spilled();
+    }
+
+    private Action undoTop() {
+        if (ring.undoSize() == 0 && spilled() > 0) {
+            spill.faultInto(ring);
+        }
+        return ring.peekUndo();
+    }
+
+    private void dropOldestUndo() {
+        base++;
+        evicted(1);
+        if (spilled() > 0) {
+            spill.dropOldest();
+        } else {
+            evictOldest();
+        }
+    }
+
+    /**
+     * Removes the oldest undo-able action from the ring, dropping the row it
+     * stands for if it is the marker of the {@link PropertyLane}
+     */
+    private Action evictOldest() {
+        Action a = ring.evictOldest();
+        if (isLaneRow(a)) {
+            lane.dropOldest();
+        }
+        return a;
+    }
+
+    private void evictFarthestRedo() {
+        if (isLaneRow(ring.evictFarthestRedo())) {
+            lane.dropFarthestRedo();
+        }
+    }
+
+    private void clearRedo() {
+        ring.clearRedo();
+        if (lane != null) {
+            lane.clearRedo();
+        }
+    }
+
+    private boolean isLaneRow(Action a) {
+        return lane != null && a == lane.marker;
+    }
+
+    private void spillOverflow() {
+        if (spill != null) {
+            while (ring.undoSize() > spill.getHotSize()) {
+                spillOldest();
+            }
+        }
+    }
+
+    /**
+     * Moves the oldest undo-able action in memory to the spill tier. If it
+     * has been reclaimed the actions already in the spill tier can no longer
+     * be reached and are dropped along with it
+     */
+    private void spillOldest() {
+        spilledTime = ring.getTime(0);
+        Action oldest = evictOldest();
+        if (oldest != null) {
+            spill.push(oldest);
+            return;
+        }
+        int lost = spilled() + 1;
+        while (spilled() > 0) {
+            spill.dropOldest();
         }
+        reclaimed(lost);
     }
 
-    private void updateButtonsForUndo() {
-        if (undoDeque.isEmpty()) {
-            if (undoButton != null) {
-                undoButton.setDisable(true);
+    /**
+     * Returns the action {@link #undo()} would undo next or null if there is
+     * none. If it has been reclaimed the whole undo stack, which can no longer
+     * be reached, is dropped and null is returned
+     */
+    private Action nextUndo() {
+        if (undoCount() == 0) {
+            return null;
+        }
+        Action a = undoTop();
+        if (a == null) {
+            int lost = undoCount();
+            while (spilled() > 0) {
+                spill.dropOldest();
+            }
+            while (ring.undoSize() > 0) {
+                evictOldest();
             }
+            reclaimed(lost);
+            enforceMemoryBudget();
+            publishState();
+        }
+        return a;
+    }
+
+    /**
+     * Returns the action {@link #redo()} would redo next, dropping the whole
+     * redo stack and returning null if it has been reclaimed
+     */
+    private Action nextRedo() {
+        if (ring.redoSize() == 0) {
+            return null;
         }
-        if (redoButton != null) {
-            redoButton.setDisable(false);
+        Action a = ring.peekRedo();
+        if (a == null) {
+            int lost = ring.redoSize();
+            clearRedo();
+            reclaimedCount += lost;
+            evicted(lost);
+            enforceMemoryBudget();
+            publishState();
         }
+        return a;
     }
 
     /**
-     * This method retrieves the most recently undone {@link Action} that
-     * has not already been redone by this method and calles the {@link Action#redo()}
-     * method on it. Note that an action must be undone by calling
-     * {@link #undo()} first. Note also, that any and everytime a new action
-     * is registered using either {@link #registerAction(Action)} or
-     * {@link #registerActionAndExecute(Action)} all actions saved for redoing are
-     * cleared. That is the redo stack is cleared by calling {@link LinkedBlockingDeque#clear()}
-     * <p>
-     * Note that this method calls {@link Lock#lock()} and will wait for all
-     * other threads to not be undoing, redoing, or registering an action before
-     * it registers the action
-     *
-     * @return true if the redo was called or false if there was nothing to undo,
-     * that is if the undo stack was empty
+     * Returns the action {@link #undo()} would undo next, like {@link #nextUndo()},
+     * stepping over the places of actions undone by
+     * {@link #undoInScope(Object)} on the way
      */
-    public boolean redo() {
-        lock.lock();
+    private Action nextLiveUndo() {
+        Action a = nextUndo();
+        if (!(a instanceof ScopeIndex.Undone)) {
+            return a;
+        }
+        do {
+            stepBack();
+            a = nextUndo();
+        } while (a instanceof ScopeIndex.Undone);
+        if (a == null) {
+            enforceMemoryBudget();
+            publishState();
+        }
+        return a;
+    }
+
+    /**
+     * Returns the action {@link #redo()} would redo next, stepping over the
+     * places of actions undone by {@link #undoInScope(Object)}
+     */
+    private Action nextLiveRedo() {
+        Action a = nextRedo();
+        if (!(a instanceof ScopeIndex.Undone)) {
+            return a;
+        }
+        do {
+            stepForward();
+            a = nextRedo();
+        } while (a instanceof ScopeIndex.Undone);
+        if (a == null) {
+            enforceMemoryBudget();
+            publishState();
+        }
+        return a;
+    }
+
+    private void reclaimed(int count) {
+        base += count;
+        reclaimedCount += count;
+        evicted(count);
+    }
+
+    private void writeUnjournaled() {
+        Action a = unjournaled;
+        if (a != null) {
+            unjournaled = null;
+            journal(HistoryJournal.REGISTER, a);
+        }
+    }
+
+    /**
+     * Appends a record to the journal, if one is attached. The action the
+     * record is about has already run, so if the record cannot be written the
+     * stacks still have to follow it: the journal is detached and the failure
+     * is passed to the uncaught exception handler of the calling thread
+     */
+    private void journal(byte type, Action action) {
+        HistoryJournal j = journal;
+        if (j == null) {
+            return;
+        }
         try {
-            if (redoDeque.isEmpty()) {
-                return false;
-            } else {
-                Action a = redoDeque.pop();
-                a.redo();
-                if (limit > 0 && undoDeque.size() >= limit) {
-                    undoDeque.removeLast();
+            j.append(type, action);
+        } catch (RuntimeException e) {
+            journal = null;
+            unjournaled = null;
+            Thread current = Thread.currentThread();
+            current.getUncaughtExceptionHandler().uncaughtException(current, e);
+        }
+    }
+
+    private void enforceMemoryBudget() {
+        if (batching) {
+            return;
+        }
+        if (memoryBudget > 0) {
+            while (totalRetained() > memoryBudget && tree != null && tree.dropOldest()) {
+                // branches go first
+            }
+            while (totalRetained() > memoryBudget && ring.redoSize() > 1) {
+                evictFarthestRedo();
+                evicted(1);
+            }
+            while (totalRetained() > memoryBudget && ring.undoSize() > 1) {
+                if (spill != null) {
+                    spillOldest();
+                } else {
+                    evictOldest();
+                    base++;
+                    evicted(1);
                 }
-                undoDeque.push(a);
-                updateButtonsForRedo();
-                return true;
             }
+        }
+        if (tree != null) {
+            tree.prune(base, base + undoCount() + ring.redoSize());
+            tree.enforceLimit(limit);
+        }
+        retainedSize = totalRetained();
+    }
+
+    private long totalRetained() {
+        return tree == null ? ring.retainedSize() : ring.retainedSize() + tree.retained;
+    }
+
+    /**
+     * Returns whether undone actions are kept as branches when a new action
+     * is registered
+     *
+     * @return true if this tom.history.History keeps an undo tree
+     * @see #setBranching(boolean)
+     */
+    public boolean isBranching() {
+        lock.lock();
+        try {
+            return tree != null;
         } finally {
-            lock.unlock();
+            unlock();
         }
     }
 
-    private void updateButtonsForRedo() {
-        if (redoDeque.isEmpty()) {
-            if (redoButton != null) {
-                redoButton.setDisable(true);
+    /**
+     * Turns the undo tree on or off. While it is on, registering an action
+     * when there are actions to redo stores those actions as a {@link Branch}
+     * splitting off at the current point instead of dropping them. Only the
+     * actions after the split are stored, so the tree takes no more memory
+     * than the distinct actions in it. Turning the tree off drops every branch.
+     * <p>
+     * The branches count towards the limit and memory budget. At most
+     * {@code limit} actions are kept in branches in total, with the branches
+     * splitting off earliest dropped first. When over the memory budget
+     * branches are dropped before any undo or redo actions. A branch is also
+     * dropped once the action it split off from is dropped.
+     * <p>
+     * Only the current path is recorded by a {@link HistoryJournal} and
+     * moved to a {@link SpillTier}, the branches are kept in memory. A journal
+     * records a {@link #switchBranch(Branch) switch} as the actions of the
+     * branch becoming the ones to redo
+     *
+     * @param branching true to keep undone actions as branches
+     */
+    public void setBranching(boolean branching) {
+        lockIdle();
+        try {
+            if (branching && tree == null) {
+                checkNoLane("an undo tree");
+                tree = new UndoTree(this);
+            } else if (!branching && tree != null) {
+                tree.clear();
+                tree = null;
             }
+            enforceMemoryBudget();
+        } finally {
+            unlock();
+        }
+    }
+
+    /**
+     * Returns the branches that split off from the current path, that is from
+     * any of the actions that can be undone or redone right now or from the
+     * point before all of them. Branches that split off from other branches
+     * are found through {@link Branch#getChildren()}
+     *
+     * @return a copy of the list of branches, empty if not branching
+     */
+    @NotNull
+    public List<Branch> getBranches() {
+        lock.lock();
+        try {
+            return tree == null ? new ArrayList<>() : new ArrayList<>(tree.roots);
+        } finally {
+            unlock();
         }
-        if (undoButton != null) {
-            undoButton.setDisable(false);
+    }
+
+    /**
+     * Switches to another branch of the undo tree. If the branch splits off
+     * from another branch, that one is switched to first. Switching moves
+     * back, undoing or redoing, to the point where the branch splits off and
+     * then makes the actions of the branch the ones to redo, keeping the
+     * actions that were there before as a new branch. So after switching,
+     * {@link #redo()} redoes the first action of the branch. The cost is the
+     * number of actions undone and redone on the way, that is the depth of
+     * the branch point, rather than the size of the tree
+     *
+     * @param branch the branch to switch to
+     * @throws IllegalArgumentException if the branch is not alive or belongs
+     *                                  to another tom.history.History
+     */
+    public void switchBranch(@NotNull Branch branch) {
+        checkNoTransaction();
+        lockIdle();
+        try {
+            if (branch.owner != this || !branch.alive || tree == null) {
+                throw new IllegalArgumentException("Branch is no longer part of " +
+                                                   "this History");
+            }
+            Deque<Branch> path = new ArrayDeque<>();
+            for (Branch b = branch; b != null; b = b.parent) {
+                path.push(b);
+            }
+            for (Branch b : path) {
+                moveTo((int) (b.forkDepth - base));
+                if (!b.alive) {
+                    throw new IllegalStateException("Branch was dropped to stay " +
+                                                    "within the memory budget");
+                }
+                tree.swapIn(b, ring, base + undoCount(), limit);
+                scopes = null;
+                unrecordable();
+                event(HistoryEvent.Type.BRANCH, null, ring.redoSize());
+                if (journal != null) {
+                    writeUnjournaled();
+                    journal(HistoryJournal.CLEAR_REDO, null);
+                    for (Action a : b.actions) {
+                        journal(HistoryJournal.APPEND_REDO, a);
+                    }
+                }
+                if (historyIndex != null) {
+                    long now = System.currentTimeMillis();
+                    for (int i = 0; i < ring.redoSize(); i++) {
+                        indexAction(base + undoCount() + i, ring.get(ring.undoSize() + i), now);
+                    }
+                }
+            }
+        } finally {
+            enforceMemoryBudget();
+            publishState();
+            unlock();
+        }
+    }
+
+    /**
+     * Returns the publisher of the events of this tom.history.History, creating
+     * it the first time. Subscribers receive an event for every action
+     * registered, absorbed, undone, redone or dropped from then on
+     *
+     * @return the event publisher
+     */
+    @NotNull
+    public HistoryEventPublisher getEvents() {
+        HistoryEventPublisher p = events;
+        if (p == null) {
+            lock.lock();
+            try {
+                p = events;
+                if (p == null) {
+                    p = new HistoryEventPublisher(this);
+                    events = p;
+                }
+            } finally {
+                unlock();
+            }
+        }
+        return p;
+    }
+
+    /**
+     * Registers the button passed as the undo button of the program, so that
+     * it is disabled while there is nothing to undo. This now lives in
+     * {@code FxHistory} in the separate fx module and this method only
+     * forwards to {@code FxHistory.of(this).registerUndoButton(button)},
+     * loading it by name so that this class does not depend on JavaFX. It
+     * takes an {@link Object} for the same reason, so code compiled against
+     * the version that took a {@code Button} must be compiled again
+     *
+     * @param button the {@code javafx.scene.control.Button} to be treated as
+     *               the undo button, or null to release the current one
+     * @throws IllegalStateException    if the fx module is not on the class path
+     * @throws IllegalArgumentException if the object is not a {@code Button}
+     * @deprecated use {@code FxHistory.of(history).registerUndoButton(button)}
+     */
+    @Deprecated
+    public void registerUndoButton(@Nullable Object button) {
+        forwardToFx("registerUndoButton", button);
+    }
+
+    /**
+     * Registers a button as the redo button. Performs the same tasks as
+     * {@link #registerUndoButton(Object)}
+     *
+     * @param button the {@code javafx.scene.control.Button} to be treated as
+     *               the redo button, or null to release the current one
+     * @throws IllegalStateException    if the fx module is not on the class path
+     * @throws IllegalArgumentException if the object is not a {@code Button}
+     * @see #registerUndoButton(Object)
+     * @deprecated use {@code FxHistory.of(history).registerRedoButton(button)}
+     */
+    @Deprecated
+    public void registerRedoButton(@Nullable Object button) {
+        forwardToFx("registerRedoButton", button);
+    }
+
+    private void forwardToFx(String method, Object button) {
+        try {
+            Class<?> fxType = Class.forName("tom.history.fx.FxHistory");
+            // the Button class is only named through the method, since loading
+            // it by name would initialise it and JavaFX with it
+            Method register = null;
+            for (Method m : fxType.getMethods()) {
+                if (m.getName().equals(method) && m.getParameterCount() == 1) {
+                    register = m;
+                }
+            }
+            if (register == null) {
+                throw new NoSuchMethodException("FxHistory." + method);
+            }
+            if (button != null && !register.getParameterTypes()[0].isInstance(button)) {
+                throw new IllegalArgumentException("Expected a Button but got " +
+                                                   button.getClass().getName());
+            }
+            Object fx = fxType.getMethod("of", History.class).invoke(null, this);
+            register.invoke(fx, button);
+        } catch (ClassNotFoundException | NoSuchMethodException e) {
+            throw new IllegalStateException("The buttons of a History are " +
+                                            "registered through FxHistory, " +
+                                            "which needs the fx module on the " +
+                                            "class path", e);
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException("Cannot call FxHistory." + method, e);
+        } catch (InvocationTargetException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException("FxHistory." + method + " failed", cause);
+        }
+    }
+
+    /**
+     * Returns whether the actions are indexed for {@link #findByType(Object, long, long)},
+     * {@link #findByLabel(String, long, long)} and {@link #findBetween(long, long)}
+     *
+     * @return true if this tom.history.History keeps indexes of its actions
+     */
+    public boolean isIndexed() {
+        lock.lock();
+        try {
+            return historyIndex != null;
+        } finally {
+            unlock();
+        }
+    }
+
+    /**
+     * Turns the indexes used by the queries on or off. While they are on,
+     * each action registered is indexed by its {@link Action#getType() type}
+     * and {@link Action#getLabel() label} along with the time it was
+     * registered, and the indexes are trimmed as actions are dropped, which
+     * adds a small constant cost to every registration. The actions already
+     * stored when indexing is turned on are counted as registered then, as
+     * are the actions of a branch brought back by {@link #switchBranch(Branch)}.
+     * Actions in a {@link SpillTier} are never found
+     *
+     * @param indexed true to keep indexes of the actions, false to drop them
+     */
+    public void setIndexed(boolean indexed) {
+        lockIdle();
+        try {
+            if (!indexed) {
+                historyIndex = null;
+            } else if (historyIndex == null) {
+                historyIndex = new HistoryIndex();
+                long now = System.currentTimeMillis();
+                for (int i = 0; i < ring.undoSize() + ring.redoSize(); i++) {
+                    indexAction(base + spilled() + i, ring.get(i), now);
+                }
+            }
+        } finally {
+            unlock();
+        }
+    }
+
+    /**
+     * Returns the undo-able actions of the given type registered from
+     * {@code from} up to but not including {@code to}, oldest first. The time
+     * taken grows with the logarithm of the number of actions plus the
+     * number found, not with the size of the history
+     *
+     * @param type the {@link Action#getType() type} to look for
+     * @param from the earliest time of registration, in milliseconds since
+     *             the epoch, or {@link Long#MIN_VALUE}
+     * @param to   the time of registration to stop at, in milliseconds since
+     *             the epoch, or {@link Long#MAX_VALUE}
+     * @return the actions found
+     * @throws IllegalStateException if indexing is off
+     * @see #setIndexed(boolean)
+     */
+    @NotNull
+    public List<Action> findByType(@NotNull Object type, long from, long to) {
+        List<Action> found = new ArrayList<>();
+        lock.lock();
+        try {
+            checkIndexed().byType(type, base + spilled(), base + undoCount(), from, to,
+                                  place -> addFound(found, place));
+        } finally {
+            unlock();
+        }
+        return found;
+    }
+
+    /**
+     * Returns the undo-able actions whose {@link Action#getLabel() label}
+     * starts with the given prefix registered from {@code from} up to but not
+     * including {@code to}, oldest first. The time taken grows with the
+     * logarithm of the number of actions plus the number of labels and
+     * actions found
+     *
+     * @param prefix the start of the labels to look for, or "" for any label
+     * @param from   the earliest time of registration, in milliseconds since
+     *               the epoch, or {@link Long#MIN_VALUE}
+     * @param to     the time of registration to stop at, in milliseconds
+     *               since the epoch, or {@link Long#MAX_VALUE}
+     * @return the actions found
+     * @throws IllegalStateException if indexing is off
+     * @see #setIndexed(boolean)
+     */
+    @NotNull
+    public List<Action> findByLabel(@NotNull String prefix, long from, long to) {
+        List<Action> found = new ArrayList<>();
+        lock.lock();
+        try {
+            checkIndexed().byLabel(prefix, base + spilled(), base + undoCount(), from, to,
+                                   place -> addFound(found, place));
+        } finally {
+            unlock();
+        }
+        return found;
+    }
+
+    /**
+     * Returns the undo-able actions registered from {@code from} up to but not
+     * including {@code to}, oldest first. The time taken grows with the
+     * logarithm of the number of actions plus the number found
+     *
+     * @param from the earliest time of registration, in milliseconds since
+     *             the epoch, or {@link Long#MIN_VALUE}
+     * @param to   the time of registration to stop at, in milliseconds since
+     *             the epoch, or {@link Long#MAX_VALUE}
+     * @return the actions found
+     * @throws IllegalStateException if indexing is off
+     * @see #setIndexed(boolean)
+     */
+    @NotNull
+    public List<Action> findBetween(long from, long to) {
+        List<Action> found = new ArrayList<>();
+        lock.lock();
+        try {
+            checkIndexed().between(base + spilled(), base + undoCount(), from, to,
+                                   place -> addFound(found, place));
+        } finally {
+            unlock();
+        }
+        return found;
+    }
+
+    private HistoryIndex checkIndexed() {
+        if (historyIndex == null) {
+            throw new IllegalStateException("History is not indexed, call " +
+                                            "setIndexed(true) first");
+        }
+        historyIndex.trim(base + spilled());
+        return historyIndex;
+    }
+
+    /**
+     * Indexes the action at a place. The marker of the {@link PropertyLane}
+     * and actions that have been reclaimed are left out of the type and label
+     * indexes, and an action undone by {@link #undoInScope(Object)} is
+     * indexed as itself so that it is found again once it is redone
+     */
+    private void indexAction(long place, Action action, long time) {
+        if (action instanceof ScopeIndex.Undone) {
+            action = ((ScopeIndex.Undone) action).action;
+        }
+        if (action == null || isLaneRow(action)) {
+            historyIndex.add(place, null, null, time, base + spilled());
+        } else {
+            historyIndex.add(place, action.getType(), action.getLabel(), time, base + spilled());
+        }
+    }
+
+    /**
+     * Adds the action at a place to the results of a query unless it has been
+     * reclaimed or undone by {@link #undoInScope(Object)}
+     */
+    private void addFound(List<Action> found, long place) {
+        Action a = ring.get((int) (place - base - spilled()));
+        if (a != null && !(a instanceof ScopeIndex.Undone)) {
+            found.add(a);
+        }
+    }
+
+    /**
+     * Returns the {@link PropertyLane} of this tom.history.History, creating it
+     * the first time. Changes to numeric properties recorded through the lane
+     * are undone and redone along with the other actions but take only a few
+     * bytes each
+     *
+     * @return the property lane
+     * @throws IllegalStateException if a journal, a spill tier or the undo tree
+     *                               is in use, none of which can hold the rows
+     *                               of the lane
+     */
+    @NotNull
+    public PropertyLane getPropertyLane() {
+        lockIdle();
+        try {
+            if (lane == null) {
+                if (journal != null || spill != null || tree != null) {
+                    throw new IllegalStateException("A PropertyLane cannot be " +
+                                                    "used with a journal, a " +
+                                                    "spill tier or an undo tree");
+                }
+                lane = new PropertyLane(this);
+            }
+            return lane;
+        } finally {
+            unlock();
+        }
+    }
+
+    void recordPropertyChange(PropertyLane lane, int property, int target, byte kind,
+                              long oldValue, long newValue)
+    {
+        if (transaction.get() != null) {
+            throw new IllegalStateException("Property changes cannot be recorded " +
+                                            "while a transaction is open on " +
+                                            "this thread");
+        }
+        lockIdle();
+        try {
+            lane.check(property, target, kind);
+            coalesceTarget = null;
+            push(lane.marker);
+            lane.append(property, target, oldValue, newValue);
+            perform(lane.marker, Operation.EXECUTE);
+            finishExecute();
+        } finally {
+            unlock();
+        }
+    }
+
+    private void checkNoLane(String feature) {
+        if (lane != null) {
+            throw new IllegalStateException("A History with a PropertyLane " +
+                                            "cannot have " + feature);
+        }
+    }
+
+    int positionOf(long depth) {
+        return withLock(() -> (int) (depth - base));
+    }
+
+    <T> T withLock(Supplier<T> reader) {
+        lock.lock();
+        try {
+            return reader.get();
+        } finally {
+            unlock();
+        }
+    }
+
+    /**
+     * Returns whether there is an action to undo. This method does not lock,
+     * so it can be polled from any number of threads without slowing down
+     * the threads changing the history. The answer is as of the last change
+     * that finished and may already be out of date while another thread is
+     * changing the history
+     *
+     * @return true if {@link #undo()} would undo an action
+     */
+    public boolean canUndo() {
+        return publishedSizes >>> 32 != 0;
+    }
+
+    /**
+     * Returns whether there is an action to redo. Like {@link #canUndo()}
+     * this does not lock
+     *
+     * @return true if {@link #redo()} would redo an action
+     */
+    public boolean canRedo() {
+        return (int) publishedSizes != 0;
+    }
+
+    /**
+     * Returns the number of actions that can be undone, including any moved
+     * to a {@link SpillTier}. Like {@link #canUndo()} this does not lock. Both
+     * sizes are published at once, but a call to this method followed by a
+     * call to {@link #redoSize()} may still see the state before and after
+     * a change
+     *
+     * @return the size of the undo stack
+     */
+    public int undoSize() {
+        return (int) (publishedSizes >>> 32);
+    }
+
+    /**
+     * Returns the number of actions that can be redone. Like {@link #canUndo()}
+     * this does not lock
+     *
+     * @return the size of the redo stack
+     */
+    public int redoSize() {
+        return (int) publishedSizes;
+    }
+
+    /**
+     * Returns the action that {@link #undo()} would undo next without undoing
+     * it, or null if there is nothing to undo. Like {@link #canUndo()} this
+     * does not lock. The action may be running or being undone on another
+     * thread, so it should only be looked at. It is also null if the action
+     * has been reclaimed, see {@link #setSoftDepth(int)}
+     *
+     * @return the most recent undo-able action or null
+     */
+    @Nullable
+    public Action peekUndo() {
+        return publishedTop;
+    }
+
+    /**
+     * Publishes the current sizes of the stacks and the action on top of the
+     * undo stack for the methods that read them without locking. Called at
+     * the end of every change, or once at the end of a batch
+     */
+    private void publishState() {
+        if (batching) {
+            return;
+        }
+        int undo = undoCount();
+        int redo = ring.redoSize();
+        Action top = undo == 0 ? null : undoTop();
+        for (int i = ring.undoSize() - 2; top instanceof ScopeIndex.Undone; i--) {
+            top = i < 0 ? null : ring.get(i);
+        }
+        publishedTop = top;
+        publishedSizes = (long) undo << 32 | redo;
+        HistoryMetrics m = metrics;
+        if (m != null) {
+            m.depths(undoCount(), ring.redoSize());
+        }
+    }
+
+    /**
+     * Calls the {@link Action#execute()} method of the action and then stores
+     * the action in the stack of actions collecting all undo-able actions.
+     * This is the same order whether or not the action is coalesced and as
+     * {@link #registerActionAndExecuteAsync(Action)}, so if execute throws the
+     * action is not registered and the history, including its redo stack, is
+     * unchanged.
+     * <p>
+     * Note that this method calls {@link Lock#lock()} and will wait for all
+     * other threads to not be undoing, redoing, or registering an action before
+     * it registers the action
+     *
+     * @param action the action that will be registered and executed
+     * @see #registerAction(Action)
+     */
+    public void registerActionAndExecute(@NotNull Action action) {
+        Transaction tx = transaction.get();
+        if (tx != null) {
+            action.execute();
+            tx.actions.add(action);
+            return;
+        }
+        lockIdle();
+        try {
+            perform(action, Operation.EXECUTE);
+            if (coalesceWindow > 0) {
+                pushOrAbsorb(action);
+            } else {
+                push(action);
+            }
+            finishExecute();
+            if (recorder != null) {
+                recorded(WorkloadRecorder.Call.EXECUTE, performed, action.getEstimatedSize());
+            }
+        } finally {
+            unlock();
+        }
+    }
+
+    /**
+     * Returns the coalescing window in nanoseconds or 0 if coalescing is off
+     *
+     * @return the coalescing window in nanoseconds
+     * @see #setCoalesceWindow(long, TimeUnit)
+     */
+    public long getCoalesceWindow() {
+        return coalesceWindow;
+    }
+
+    /**
+     * Sets how close together actions must be for {@link #registerActionAndExecute(Action)}
+     * to try merging them. When an action is registered and executed within
+     * the window of the previous one, and nothing has been undone or redone in
+     * between, {@link Action#absorb(Action)} is called on the most recent
+     * action with the new one. If it returns true the new action is not
+     * stored. The window is measured from the previous registration, so a
+     * steady stream of actions keeps being merged until there is a pause
+     * longer than the window.
+     * <p>
+     * {@link #registerActionAndExecute(Action)} always executes the action
+     * before storing it, so the most recent action can look at the result. A
+     * window of 0 turns coalescing off, which is the default
+     *
+     * @param window the largest gap between two actions that may be merged
+     * @param unit   the unit of the window
+     */
+    public void setCoalesceWindow(long window, @NotNull TimeUnit unit) {
+        if (window < 0) {
+            throw new IllegalArgumentException("Coalesce window for History " +
+                                               "must not be negative");
+        }
+        lockIdle();
+        try {
+            coalesceWindow = unit.toNanos(window);
+            coalesceTarget = null;
+        } finally {
+            unlock();
+        }
+    }
+
+    /**
+     * Returns the age in nanoseconds at which actions are dropped or 0 if
+     * actions never expire
+     *
+     * @return the maximum age in nanoseconds
+     * @see #setMaxAge(long, TimeUnit)
+     */
+    public long getMaxAge() {
+        return maxAge;
+    }
+
+    /**
+     * Sets how long after being registered an action is dropped. Expired
+     * actions are dropped from the most chronologically distant end of the
+     * undo stack, as with the limit, so the undo stack ends up holding only the
+     * actions registered within the maximum age. Once the next action to redo
+     * has expired the whole redo stack is dropped, since the actions after it
+     * could not be redone without it. An action merged by {@link Action#absorb(Action)}
+     * takes the age of the action that absorbed it.
+     * <p>
+     * Actions are dropped by a background thread that checks each tom.history.History
+     * when its oldest action is due to expire, so they may be kept for up to
+     * a tenth of a second longer, or longer still while an action is running.
+     * Actions in a {@link SpillTier} expire with the most recent action moved
+     * to it, and the actions already stored when the maximum age is first set
+     * are counted as registered then. A maximum age of 0 turns expiry off,
+     * which is the default
+     *
+     * @param age  the age at which actions are dropped
+     * @param unit the unit of the age
+     */
+    public void setMaxAge(long age, @NotNull TimeUnit unit) {
+        if (age < 0) {
+            throw new IllegalArgumentException("Maximum age for History " +
+                                               "must not be negative");
+        }
+        lockIdle();
+        try {
+            long nanos = unit.toNanos(age);
+            if (nanos > 0 && maxAge == 0) {
+                spilledTime = TimingWheel.now();
+                ring.keepTimes(spilledTime);
+            } else if (nanos == 0) {
+                ring.keepTimes(0);
+            }
+            maxAge = nanos;
+            expiresAt = 0;
+            long next = nextExpiry();
+            if (next != 0) {
+                scheduleExpiry(next);
+            }
+        } finally {
+            unlock();
+        }
+    }
+
+    /**
+     * Drops the actions that have expired and schedules the next call for
+     * when the oldest remaining action will expire. Called by the {@link TimingWheel}
+     * thread. The lock is taken for at most {@link #EXPIRY_BATCH} actions at
+     * a time, and if another thread holds it or an action is running the call
+     * is tried again on the next tick rather than waiting
+     *
+     * @param deadline the time this call was scheduled for, so that calls
+     *                 scheduled before the maximum age changed are ignored
+     */
+    void expire(long deadline) {
+        boolean more = true;
+        while (more) {
+            if (!lock.tryLock()) {
+                TimingWheel.INSTANCE.schedule(this, deadline);
+                return;
+            }
+            try {
+                if (deadline != expiresAt || maxAge == 0) {
+                    return;
+                }
+                if (actionThread != null) {
+                    TimingWheel.INSTANCE.schedule(this, deadline);
+                    return;
+                }
+                more = expireBatch();
+                if (!more) {
+                    expiresAt = 0;
+                    long next = nextExpiry();
+                    if (next != 0) {
+                        scheduleExpiry(next);
+                    }
+                }
+            } finally {
+                unlock();
+            }
+        }
+    }
+
+    /**
+     * Drops up to {@link #EXPIRY_BATCH} expired actions, oldest first, and
+     * then the redo stack if the next action to redo has expired
+     *
+     * @return true if the batch was full and more actions may have expired
+     */
+    private boolean expireBatch() {
+        long now = TimingWheel.now();
+        long cutoff = now - maxAge;
+        int dropped = 0;
+        while (dropped < EXPIRY_BATCH && spilled() > 0 && spilledTime <= cutoff) {
+            spill.dropOldest();
+            dropped++;
+        }
+        while (dropped < EXPIRY_BATCH && spilled() == 0 && ring.undoSize() > 0 &&
+               isExpired(cutoff, now))
+        {
+            evictOldest();
+            dropped++;
+        }
+        base += dropped;
+        int cleared = 0;
+        if (dropped < EXPIRY_BATCH && undoCount() == 0 && ring.redoSize() > 0 &&
+            isExpired(cutoff, now))
+        {
+            cleared = ring.redoSize();
+            clearRedo();
+        }
+        evicted(dropped + cleared);
+        if (dropped + cleared > 0) {
+            enforceMemoryBudget();
+            publishState();
+        }
+        return dropped == EXPIRY_BATCH;
+    }
+
+    /**
+     * Returns whether the oldest action in the ring has expired. An action
+     * whose time is not known is given the current time
+     */
+    private boolean isExpired(long cutoff, long now) {
+        long time = ring.getTime(0);
+        if (time == 0) {
+            ring.setTime(0, now);
+            return false;
+        }
+        return time <= cutoff;
+    }
+
+    /**
+     * Returns the time at which the oldest action will expire or 0 if there
+     * are no actions or no maximum age
+     */
+    private long nextExpiry() {
+        if (maxAge == 0) {
+            return 0;
+        }
+        long oldest;
+        if (spilled() > 0) {
+            oldest = spilledTime;
+        } else if (ring.undoSize() + ring.redoSize() > 0) {
+            oldest = ring.getTime(0);
+        } else {
+            return 0;
+        }
+        return (oldest == 0 ? TimingWheel.now() : oldest) + maxAge;
+    }
+
+    /**
+     * Makes sure {@link #expire(long)} will be called no later than the given
+     * time. Only the earliest call scheduled is kept, any other is ignored
+     * when it comes due
+     */
+    private void scheduleExpiry(long deadline) {
+        if (expiresAt == 0 || deadline < expiresAt) {
+            expiresAt = deadline;
+            TimingWheel.INSTANCE.schedule(this, deadline);
+        }
+    }
+
+    private void pushOrAbsorb(Action action) {
+        long now = System.nanoTime();
+        Action top = ring.peekUndo();
+        boolean absorbed = top != null && top == coalesceTarget &&
+                           now - lastRegistered <= coalesceWindow &&
+                           top.absorb(action);
+        lastRegistered = now;
+        if (absorbed) {
+            clearRedo();
+            event(HistoryEvent.Type.ABSORB, action, 1);
+            unrecordable();
+            if (journal != null) {
+                writeUnjournaled();
+                journal(HistoryJournal.ABSORB, action);
+            }
+        } else {
+            push(action);
+            coalesceTarget = action;
+        }
+    }
+
+    /**
+     * Use this function to execute an action that has just been registered
+     * If you choose to use the {@link #registerAction(Action)} method instead
+     * of the {@link #registerActionAndExecute(Action)} method, you can call this
+     * method after to execute the <strong>most recently registered action</strong>
+     */
+    public void executeMostRecentAction() {
+        Transaction tx = transaction.get();
+        if (tx != null) {
+            tx.actions.get(tx.actions.size() - 1).execute();
+            return;
+        }
+        lockIdle();
+        try {
+            perform(ring.peekUndo(), Operation.EXECUTE);
+            finishExecute();
+        } finally {
+            unlock();
+        }
+    }
+
+    private void finishExecute() {
+        writeUnjournaled();
+        ring.remeasureUndoTop();
+        enforceMemoryBudget();
+        publishState();
+    }
+
+    /**
+     * Stores the action in the stack of action collecting all the undo-able
+     * actions
+     * <p>
+     * Note that this method calls {@link Lock#lock()} and will wait for all
+     * other threads to not be undoing, redoing, or registering an action before
+     * it registers the action
+     *
+     * @param action the action to be stored
+     * @see #registerActionAndExecute(Action)
+     */
+    public void registerAction(@NotNull Action action) {
+        Transaction tx = transaction.get();
+        if (tx != null) {
+            tx.actions.add(action);
+            return;
+        }
+        lockIdle();
+        try {
+            push(action);
+            if (recorder != null) {
+                recorded(WorkloadRecorder.Call.REGISTER, 0, action.getEstimatedSize());
+            }
+        } finally {
+            unlock();
+        }
+    }
+
+    private void push(Action action) {
+        writeUnjournaled();
+        if (journal != null) {
+            unjournaled = action;
+        }
+        if (tree != null) {
+            tree.stash(ring, base + undoCount(), limit);
+        }
+        clearRedo();
+        if (limit > 0 && undoCount() >= limit) {
+            dropOldestUndo();
+        }
+        ring.push(action);
+        if (historyIndex != null) {
+            indexAction(base + undoCount() - 1, action, System.currentTimeMillis());
+        }
+        if (maxAge > 0) {
+            long now = TimingWheel.now();
+            ring.setTime(ring.undoSize() - 1, now);
+            scheduleExpiry(now + maxAge);
+        }
+        indexScope(action, true);
+        event(HistoryEvent.Type.REGISTER, action, 1);
+        spillOverflow();
+        enforceMemoryBudget();
+        publishState();
+    }
+
+    /**
+     * Stores all the given actions as a single entry in the stack of undo-able
+     * actions, so that one call to {@link #undo()} undoes all of them in
+     * reverse order and one call to {@link #redo()} redoes them all in order.
+     * Like {@link #registerAction(Action)} this does not execute the actions.
+     * <p>
+     * The lock is taken once, and old actions are dropped and the buttons are
+     * updated once, no matter how many actions are given. If a transaction
+     * is open on this thread the actions are added to the transaction instead
+     *
+     * @param actions the actions to be stored, in the order they were executed
+     * @see CompoundAction
+     */
+    public void registerAll(@NotNull Collection<? extends Action> actions) {
+        if (actions.isEmpty()) {
+            return;
+        }
+        Transaction tx = transaction.get();
+        if (tx != null) {
+            tx.actions.addAll(actions);
+            return;
+        }
+        Action entry = actions.size() == 1 ? actions.iterator().next()
+                                           : new CompoundAction(actions);
+        lockIdle();
+        try {
+            push(entry);
+            finishExecute();
+            if (recorder != null) {
+                recorded(WorkloadRecorder.Call.REGISTER, 0, entry.getEstimatedSize());
+            }
+        } finally {
+            unlock();
+        }
+    }
+
+    /**
+     * Opens a transaction on the calling thread. Until the matching call to
+     * {@link #commit()} or {@link #rollback()}, actions registered by this
+     * thread are collected by the transaction instead of being stored. Actions
+     * passed to {@link #registerActionAndExecute(Action)} are still executed
+     * straight away but without taking the lock. Other threads are not
+     * affected by the transaction.
+     * <p>
+     * Transactions can be nested. Committing an inner transaction adds its
+     * actions to the outer one and rolling it back only undoes the actions
+     * registered since it began.
+     * <p>
+     * Calling {@link #undo()} or {@link #redo()} while this thread has a
+     * transaction open throws an {@link IllegalStateException}
+     */
+    public void beginTransaction() {
+        Transaction tx = transaction.get();
+        if (tx == null) {
+            tx = new Transaction();
+            transaction.set(tx);
+        }
+        tx.begin();
+    }
+
+    /**
+     * Closes the innermost transaction opened on this thread by {@link #beginTransaction()}.
+     * When the outermost transaction is committed all of the actions it collected
+     * are stored as a single {@link CompoundAction} entry in one step. Nothing is
+     * stored if no actions were registered
+     *
+     * @throws IllegalStateException if there is no open transaction on this thread
+     */
+    public void commit() {
+        Transaction tx = currentTransaction();
+        if (tx.end() > 0) {
+            return;
+        }
+        transaction.remove();
+        registerAll(tx.actions);
+    }
+
+    /**
+     * Closes the innermost transaction opened on this thread by {@link #beginTransaction()}
+     * and calls {@link Action#undo()} on every action registered since it
+     * began, most recent first. These actions are then forgotten. Actions
+     * registered with {@link #registerAction(Action)} are undone as well, so
+     * they are expected to have been executed by the time of the rollback
+     *
+     * @throws IllegalStateException if there is no open transaction on this thread
+     */
+    public void rollback() {
+        Transaction tx = currentTransaction();
+        int mark = tx.marks[tx.depth - 1];
+        if (tx.end() == 0) {
+            transaction.remove();
+        }
+        List<Action> rolledBack = tx.actions.subList(mark, tx.actions.size());
+        for (int i = rolledBack.size() - 1; i >= 0; i--) {
+            rolledBack.get(i).undo();
+        }
+        rolledBack.clear();
+    }
+
+    /**
+     * Returns whether the calling thread has a transaction open on this
+     * tom.history.History
+     *
+     * @return true if there is an open transaction on this thread
+     * @see #beginTransaction()
+     */
+    public boolean isInTransaction() {
+        return transaction.get() != null;
+    }
+
+    private Transaction currentTransaction() {
+        Transaction tx = transaction.get();
+        if (tx == null) {
+            throw new IllegalStateException("No transaction is open on this " +
+                                            "thread");
+        }
+        return tx;
+    }
+
+    private void checkNoTransaction() {
+        if (transaction.get() != null) {
+            throw new IllegalStateException("Cannot undo or redo while a " +
+                                            "transaction is open on this " +
+                                            "thread");
+        }
+    }
+
+    /**
+     * This method retrieves the most recently registered {@link Action} that
+     * has not already been undone by this method and calles the {@link Action#undo()}
+     * method on it
+     * <p>
+     * Note that this method calls {@link Lock#lock()} and will wait for all
+     * other threads to not be undoing, redoing, or registering an action before
+     * it registers the action
+     *
+     * @return true if the undo was called or false if there was nothing to undo,
+     * that is if the undo stack was empty
+     */
+    public boolean undo() {
+        checkNoTransaction();
+        lockIdle();
+        try {
+            Action a = nextLiveUndo();
+            if (a == null) {
+                recorded(WorkloadRecorder.Call.UNDO, 0, 0);
+                return false;
+            }
+            perform(a, Operation.UNDO);
+            finishUndo();
+            recorded(WorkloadRecorder.Call.UNDO, performed, 0);
+            return true;
+        } finally {
+            unlock();
+        }
+    }
+
+    private void finishUndo() {
+        stepBack();
+        enforceMemoryBudget();
+        publishState();
+    }
+
+    private void stepBack() {
+        if (journal != null) {
+            writeUnjournaled();
+            journal(HistoryJournal.UNDO, null);
+        }
+        coalesceTarget = null;
+        Action a = ring.stepBack();
+        if (isLaneRow(a)) {
+            lane.stepBack();
+        }
+        if (!(a instanceof ScopeIndex.Undone)) {
+            event(HistoryEvent.Type.UNDO, a, 1);
+        }
+        if (limit > 0 && ring.redoSize() > limit) {
+            evictFarthestRedo();
+            evicted(1);
+        }
+    }
+
+    /**
+     * This method retrieves the most recently undone {@link Action} that
+     * has not already been redone by this method and calles the {@link Action#redo()}
+     * method on it. Note that an action must be undone by calling
+     * {@link #undo()} first. Note also, that any and everytime a new action
+     * is registered using either {@link #registerAction(Action)} or
+     * {@link #registerActionAndExecute(Action)} all actions saved for redoing are
+     * cleared. That is the redo side of the {@link ActionRing} is cleared
+     * <p>
+     * Note that this method calls {@link Lock#lock()} and will wait for all
+     * other threads to not be undoing, redoing, or registering an action before
+     * it registers the action
+     *
+     * @return true if the redo was called or false if there was nothing to undo,
+     * that is if the undo stack was empty
+     */
+    public boolean redo() {
+        checkNoTransaction();
+        lockIdle();
+        try {
+            Action a = nextLiveRedo();
+            if (a == null) {
+                recorded(WorkloadRecorder.Call.REDO, 0, 0);
+                return false;
+            }
+            perform(a, Operation.REDO);
+            finishRedo();
+            recorded(WorkloadRecorder.Call.REDO, performed, 0);
+            return true;
+        } finally {
+            unlock();
+        }
+    }
+
+    private void finishRedo() {
+        stepForward();
+        // back over the places undo() stepped over on its way to this action
+        while (ring.peekRedo() instanceof ScopeIndex.Undone) {
+            stepForward();
+        }
+        enforceMemoryBudget();
+        publishState();
+    }
+
+    private void stepForward() {
+        if (journal != null) {
+            writeUnjournaled();
+            journal(HistoryJournal.REDO, null);
+        }
+        coalesceTarget = null;
+        Action a = ring.stepForward();
+        if (isLaneRow(a)) {
+            lane.stepForward();
+        }
+        indexScope(a, false);
+        if (!(a instanceof ScopeIndex.Undone)) {
+            event(HistoryEvent.Type.REDO, a, 1);
+        }
+        if (limit > 0 && undoCount() > limit) {
+            dropOldestUndo();
+        }
+        spillOverflow();
+    }
+
+    /**
+     * Undoes the most recent undo-able action whose {@link Action#getScope()}
+     * equals the given scope, leaving the later actions of other scopes done.
+     * The action is found through an index kept for each scope, so the cost
+     * does not grow with the number of actions or scopes in the history. The
+     * index is built the first time this method or
+     * {@link #redoInScope(Object)} is called, and kept up to date from then on.
+     * <p>
+     * The undone action keeps its place in the stacks. {@link #undo()} and
+     * {@link #redo()} step over it, but it still counts towards the limit and
+     * the sizes returned by {@link #undoSize()} and {@link #redoSize()} until
+     * it is dropped. The action must be able to undo itself while the later
+     * actions of other scopes stay done, which is usually the case when each
+     * scope changes its own state
+     *
+     * @param scope the scope to undo an action of
+     * @return true if an action was undone or false if the scope has no
+     * undo-able action
+     * @throws IllegalStateException if a journal or a spill tier is in use or
+     *                               if a transaction is open on this thread
+     */
+    public boolean undoInScope(@NotNull Object scope) {
+        checkNoTransaction();
+        lockIdle();
+        try {
+            checkScopedUndo();
+            ScopeIndex index = scopeIndex(scope);
+            long place = lastInScope(index, scope);
+            if (place < 0) {
+                return false;
+            }
+            int offset = (int) (place - base);
+            Action a = ring.get(offset);
+            perform(a, Operation.UNDO);
+            index.removeLast();
+            ScopeIndex.Undone undone = new ScopeIndex.Undone(a, place);
+            ring.set(offset, undone);
+            index.pushUndone(undone);
+            undoneInScope = true;
+            unrecordable();
+            event(HistoryEvent.Type.UNDO, a, 1);
+            if (a == coalesceTarget) {
+                coalesceTarget = null;
+            }
+            enforceMemoryBudget();
+            publishState();
+            return true;
+        } finally {
+            unlock();
+        }
+    }
+
+    /**
+     * Redoes the action of the given scope most recently undone by
+     * {@link #undoInScope(Object)}, putting it back in its place. Registering
+     * another action of the same scope means the actions of that scope undone
+     * before it can no longer be redone, just as registering any action clears
+     * the redo stack. An action whose place has been undone past by
+     * {@link #undo()} can only be redone once that place has been redone again
+     *
+     * @param scope the scope to redo an action of
+     * @return true if an action was redone or false if there was none to redo
+     * @throws IllegalStateException if a journal or a spill tier is in use or
+     *                               if a transaction is open on this thread
+     */
+    public boolean redoInScope(@NotNull Object scope) {
+        checkNoTransaction();
+        lockIdle();
+        try {
+            checkScopedUndo();
+            ScopeIndex index = scopeIndex(scope);
+            ScopeIndex.Undone undone;
+            while ((undone = index.peekUndone()) != null) {
+                long offset = undone.place - base;
+                if (offset >= 0 && offset < undoCount() + ring.redoSize() &&
+                    ring.get((int) offset) == undone)
+                {
+                    break;
+                }
+                index.popUndone();
+            }
+            if (undone == null || undone.place - base >= undoCount()) {
+                return false;
+            }
+            perform(undone.action, Operation.REDO);
+            index.popUndone();
+            ring.set((int) (undone.place - base), undone.action);
+            index.insert(undone.place);
+            event(HistoryEvent.Type.REDO, undone.action, 1);
+            unrecordable();
+            enforceMemoryBudget();
+            publishState();
+            return true;
+        } finally {
+            unlock();
+        }
+    }
+
+    /**
+     * Returns the index of a scope, building the indexes of every scope from
+     * the undo-able actions the first time one is needed
+     */
+    private ScopeIndex scopeIndex(Object scope) {
+        if (scopes == null) {
+            scopes = new HashMap<>();
+            for (int i = 0; i < ring.undoSize(); i++) {
+                Action a = ring.get(i);
+                Object s = a == null ? null : a.getScope();
+                if (s != null) {
+                    scopes.computeIfAbsent(s, k -> new ScopeIndex()).add(base + i, base);
+                }
+            }
+        }
+        return scopes.computeIfAbsent(scope, k -> new ScopeIndex());
+    }
+
+    /**
+     * Adds an action that has just become the most recent undo-able action to
+     * the index of its scope, if the indexes are in use. A newly registered
+     * action also means the actions of its scope undone by
+     * {@link #undoInScope(Object)} can no longer be redone
+     */
+    private void indexScope(Action action, boolean registered) {
+        if (scopes == null || action == null) {
+            return;
+        }
+        Object scope = action.getScope();
+        if (scope != null) {
+            ScopeIndex index = scopes.computeIfAbsent(scope, k -> new ScopeIndex());
+            index.add(base + undoCount() - 1, base);
+            if (registered) {
+                index.clearUndone();
+            }
+        }
+    }
+
+    /**
+     * Returns the place of the most recent undo-able action of a scope or -1
+     * if there is none, removing places from the index that no longer hold an
+     * action of the scope. If that action has been reclaimed none of the
+     * older ones are undone either
+     */
+    private long lastInScope(ScopeIndex index, Object scope) {
+        while (!index.isEmpty()) {
+            long place = index.last();
+            if (place >= base && place < base + undoCount()) {
+                Action a = ring.get((int) (place - base));
+                if (a == null) {
+                    index.clear();
+                    return -1;
+                }
+                if (scope.equals(a.getScope())) {
+                    return place;
+                }
+            }
+            index.removeLast();
+        }
+        return -1;
+    }
+
+    private void checkScopedUndo() {
+        if (journal != null || spill != null) {
+            throw new IllegalStateException("Actions cannot be undone by scope " +
+                                            "in a History with a journal or a " +
+                                            "spill tier");
+        }
+    }
+
+    private void checkNoScopedUndo(String feature) {
+        for (int i = 0; i < ring.undoSize() + ring.redoSize(); i++) {
+            if (ring.get(i) instanceof ScopeIndex.Undone) {
+                throw new IllegalStateException("A History with actions undone " +
+                                                "by scope cannot have " + feature);
+            }
+        }
+    }
+
+    /**
+     * Undoes up to {@code n} actions, most recent first, as if {@link #undo()}
+     * had been called {@code n} times but taking the lock and updating the
+     * buttons only once. Like {@link #undo()} it steps over the places of
+     * actions undone by {@link #undoInScope(Object)} without counting them.
+     * If one of the actions on the way is a {@link SnapshotAction}
+     * and restoring it is shorter than undoing every action before it, it is
+     * restored instead and only the actions after it are undone
+     *
+     * @param n the number of actions to undo
+     * @return the number of actions actually undone, which is less than
+     * {@code n} if the undo stack ran out first
+     * @see #jumpTo(int)
+     */
+    public int undo(int n) {
+        if (n < 0) {
+            throw new IllegalArgumentException("Cannot undo a negative number " +
+                                               "of actions");
+        }
+        checkNoTransaction();
+        lockIdle();
+        try {
+            int from = undoCount();
+            int target = from;
+            for (int k = 0; k < n && target > 0; ) {
+                target--;
+                if (!isUndoneInScope(target)) {
+                    k++;
+                }
+            }
+            long lost = reclaimedCount;
+            int to = moveTo(target);
+            int moved = from - to - (int) (reclaimedCount - lost);
+            // the places just moved over are now the first ones to redo
+            int undone = moved;
+            for (int i = 0; undoneInScope && i < moved; i++) {
+                if (ring.get(ring.undoSize() + i) instanceof ScopeIndex.Undone) {
+                    undone--;
+                }
+            }
+            return undone;
+        } finally {
+            unlock();
+        }
+    }
+
+    /**
+     * Redoes up to {@code n} actions, most recently undone first, as if
+     * {@link #redo()} had been called {@code n} times but taking the lock and
+     * updating the buttons only once. Like {@link #undo(int)} it does not
+     * count the places of actions undone by {@link #undoInScope(Object)}, and
+     * a {@link SnapshotAction} on the way may be restored instead of redoing
+     * every action before it
+     *
+     * @param n the number of actions to redo
+     * @return the number of actions actually redone, which is less than
+     * {@code n} if the redo stack ran out first
+     * @see #jumpTo(int)
+     */
+    public int redo(int n) {
+        if (n < 0) {
+            throw new IllegalArgumentException("Cannot redo a negative number " +
+                                               "of actions");
+        }
+        checkNoTransaction();
+        lockIdle();
+        try {
+            int from = undoCount();
+            int total = from + ring.redoSize();
+            int target = from;
+            for (int k = 0; k < n && target < total; target++) {
+                if (!isUndoneInScope(target)) {
+                    k++;
+                }
+            }
+            int to = moveTo(target);
+            return to - from - countUndoneInScope(from, to);
+        } finally {
+            unlock();
+        }
+    }
+
+    /**
+     * Undoes or redoes actions until exactly {@code index} actions can be
+     * undone. 0 undoes everything and the number of undo-able plus redo-able
+     * actions redoes everything. The lock is taken and the buttons updated
+     * only once. The places of actions undone by {@link #undoInScope(Object)}
+     * are not counted, so while there are any the index of the current place
+     * is less than {@link #undoSize()}, and finding the place to jump to takes
+     * time proportional to the size of the history.
+     * <p>
+     * Rather than undoing or redoing every action in between, the closest
+     * {@link SnapshotAction} to {@code index} is restored first if that means
+     * fewer actions have to be undone or redone, and the rest of the way is
+     * covered from there. If an action throws part of the way the history is
+     * left at the last action that succeeded
+     *
+     * @param index how many actions should be undo-able afterwards
+     * @throws IndexOutOfBoundsException if index is negative or more than the
+     *                                   number of undo-able and redo-able actions
+     */
+    public void jumpTo(int index) {
+        checkNoTransaction();
+        lockIdle();
+        try {
+            int total = undoCount() + ring.redoSize();
+            int actions = total - countUndoneInScope(0, total);
+            if (index < 0 || index > actions) {
+                throw new IndexOutOfBoundsException("Cannot jump to " + index +
+                                                    " in a History of " +
+                                                    actions + " actions");
+            }
+            int target = index;
+            if (actions != total) {
+                target = 0;
+                for (int k = 0; k < index; target++) {
+                    if (!isUndoneInScope(target)) {
+                        k++;
+                    }
+                }
+            }
+            moveTo(target);
+        } finally {
+            unlock();
+        }
+    }
+
+    /**
+     * Returns whether the place at the given offset from the oldest action
+     * holds an action undone by {@link #undoInScope(Object)}
+     */
+    private boolean isUndoneInScope(int offset) {
+        return undoneInScope && actionAt(offset) instanceof ScopeIndex.Undone;
+    }
+
+    /**
+     * Returns how many places from offset {@code from} up to {@code to} hold
+     * actions undone by {@link #undoInScope(Object)}
+     */
+    private int countUndoneInScope(int from, int to) {
+        int count = 0;
+        for (int i = from; undoneInScope && i < to; i++) {
+            if (actionAt(i) instanceof ScopeIndex.Undone) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private int moveTo(int target) {
+        try {
+            int current = undoCount();
+            int checkpoint = nearestCheckpoint(target, Math.abs(target - current));
+            Action snapshot = checkpoint >= 0 ? actionAt(checkpoint - 1) : null;
+            if (snapshot instanceof SnapshotAction) {
+                long start = System.nanoTime();
+                ((SnapshotAction) snapshot).restoreSnapshot();
+                // the restore is recorded as the first of the steps it saves
+                long cost = System.nanoTime() - start;
+                while (undoCount() > checkpoint) {
+                    Action a = undoTop();
+                    stepBack();
+                    recordedStep(WorkloadRecorder.Call.UNDO, a, cost);
+                    cost = 0;
+                }
+                while (undoCount() < checkpoint) {
+                    Action a = ring.peekRedo();
+                    stepForward();
+                    recordedStep(WorkloadRecorder.Call.REDO, a, cost);
+                    cost = 0;
+                }
+            }
+            while (undoCount() > target) {
+                Action a = nextUndo();
+                if (a == null) {
+                    break;
+                }
+                perform(a, Operation.UNDO);
+                stepBack();
+                recordedStep(WorkloadRecorder.Call.UNDO, a, performed);
+            }
+            while (undoCount() < target) {
+                Action a = nextRedo();
+                if (a == null) {
+                    break;
+                }
+                perform(a, Operation.REDO);
+                stepForward();
+                recordedStep(WorkloadRecorder.Call.REDO, a, performed);
+            }
+            return undoCount();
+        } finally {
+            enforceMemoryBudget();
+            publishState();
+        }
+    }
+
+    /**
+     * Finds the {@link SnapshotAction} that takes the fewest steps to get to
+     * the target from, looking no further than {@code distance} steps, which is
+     * what it costs to get there without one. Only actions in memory are
+     * considered
+     *
+     * @return the number of undo-able actions right after the checkpoint, or
+     * -1 if no checkpoint is closer than the distance
+     */
+    private int nearestCheckpoint(int target, int distance) {
+        int total = undoCount() + ring.redoSize();
+        for (int d = 0; d + 1 < distance; d++) {
+            if (target - d >= 1 && actionAt(target - d - 1) instanceof SnapshotAction) {
+                return target - d;
+            }
+            if (target + d <= total && target + d >= 1 &&
+                actionAt(target + d - 1) instanceof SnapshotAction)
+            {
+                return target + d;
+            }
+        }
+        return -1;
+    }
+
+    private Action actionAt(int offset) {
+        int inRing = offset - spilled();
+        return inRing >= 0 ? ring.get(inRing) : null;
+    }
+
+    /**
+     * Registers the action and executes it like {@link #registerActionAndExecute(Action)}
+     * but runs {@link Action#execute()} on the {@link #getExecutor() executor}
+     * without holding the lock. The action is only registered once execute
+     * returns, so if it throws or is cancelled before it starts the history is
+     * unchanged
+     *
+     * @param action the action that will be executed and registered
+     * @return a future completed with true once the action has been executed
+     * and registered, or completed exceptionally if execute threw
+     * @see #registerActionAndExecuteAsync(Action, long, TimeUnit)
+     */
+    @NotNull
+    public CompletableFuture<Boolean> registerActionAndExecuteAsync(@NotNull Action action) {
+        return submit(new AsyncOperation(Operation.EXECUTE, action), 0, null);
+    }
+
+    /**
+     * Like {@link #registerActionAndExecuteAsync(Action)} but gives up if the
+     * action has not finished executing within the timeout. Giving up fails the
+     * future and interrupts the thread running the action, but cannot stop an
+     * action that ignores the interrupt. The history stays locked until the
+     * action returns, and if it then returns normally it is registered after
+     * all
+     *
+     * @param action  the action that will be executed and registered
+     * @param timeout how long to wait from now before giving up
+     * @param unit    the unit of the timeout
+     * @return a future completed with true once the action has been executed
+     * and registered, or completed exceptionally with a
+     * {@link java.util.concurrent.TimeoutException} if it took too long
+     */
+    @NotNull
+    public CompletableFuture<Boolean> registerActionAndExecuteAsync(@NotNull Action action,
+                                                                    long timeout,
+                                                                    @NotNull TimeUnit unit) {
+        return submit(new AsyncOperation(Operation.EXECUTE, action), timeout, unit);
+    }
+
+    /**
+     * Undoes the most recent action like {@link #undo()} but runs {@link Action#undo()}
+     * on the {@link #getExecutor() executor} without holding the lock. The
+     * action is only moved to the redo stack once its undo method returns, so
+     * if it throws or is cancelled before it starts it can still be undone
+     * afterwards
+     *
+     * @return a future completed with true once the action has been undone or
+     * with false if there was nothing to undo
+     * @see #undoAsync(long, TimeUnit)
+     */
+    @NotNull
+    public CompletableFuture<Boolean> undoAsync() {
+        return submit(new AsyncOperation(Operation.UNDO, null), 0, null);
+    }
+
+    /**
+     * Like {@link #undoAsync()} but gives up if the action has not finished
+     * undoing within the timeout. Giving up fails the future and interrupts the
+     * thread running the action, but cannot stop an action that ignores the
+     * interrupt. The history stays locked until the action returns. An action
+     * that then throws is left on the undo stack, while one that returns
+     * normally is moved to the redo stack after all
+     *
+     * @param timeout how long to wait from now before giving up
+     * @param unit    the unit of the timeout
+     * @return a future completed with true once the action has been undone,
+     * false if there was nothing to undo, or completed exceptionally with a
+     * {@link java.util.concurrent.TimeoutException} if it took too long
+     */
+    @NotNull
+    public CompletableFuture<Boolean> undoAsync(long timeout, @NotNull TimeUnit unit) {
+        return submit(new AsyncOperation(Operation.UNDO, null), timeout, unit);
+    }
+
+    /**
+     * Redoes the most recently undone action like {@link #redo()} but runs
+     * {@link Action#redo()} on the {@link #getExecutor() executor} without
+     * holding the lock. The action is only moved back to the undo stack once
+     * its redo method returns
+     *
+     * @return a future completed with true once the action has been redone or
+     * with false if there was nothing to redo
+     * @see #redoAsync(long, TimeUnit)
+     */
+    @NotNull
+    public CompletableFuture<Boolean> redoAsync() {
+        return submit(new AsyncOperation(Operation.REDO, null), 0, null);
+    }
+
+    /**
+     * Like {@link #redoAsync()} but gives up if the action has not finished
+     * redoing within the timeout. Giving up fails the future and interrupts the
+     * thread running the action, but cannot stop an action that ignores the
+     * interrupt. The history stays locked until the action returns. An action
+     * that then throws is left on the redo stack, while one that returns
+     * normally is moved to the undo stack after all
+     *
+     * @param timeout how long to wait from now before giving up
+     * @param unit    the unit of the timeout
+     * @return a future completed with true once the action has been redone,
+     * false if there was nothing to redo, or completed exceptionally with a
+     * {@link java.util.concurrent.TimeoutException} if it took too long
+     */
+    @NotNull
+    public CompletableFuture<Boolean> redoAsync(long timeout, @NotNull TimeUnit unit) {
+        return submit(new AsyncOperation(Operation.REDO, null), timeout, unit);
+    }
+
+    private CompletableFuture<Boolean> submit(AsyncOperation op, long timeout, TimeUnit unit) {
+        Executor e = getExecutor();
+        CompletableFuture<Boolean> previous;
+        lock.lock();
+        try {
+            previous = asyncTail;
+            asyncTail = op.done;
+        } finally {
+            unlock();
+        }
+        if (unit != null) {
+            op.result.orTimeout(timeout, unit);
+        }
+        op.result.whenCompleteAsync((r, t) -> {
+            if (t != null) {
+                op.abandon();
+            }
+        }, e);
+        previous.whenComplete((r, t) -> {
+            try {
+                e.execute(op);
+            } catch (RejectedExecutionException ex) {
+                op.result.completeExceptionally(ex);
+                op.abandon();
+            }
+        });
+        return op.result;
+    }
+
+    /**
+     * Carries out a batch of operations submitted to a {@link HistorySequencer}
+     * while holding the lock once. The memory budget is applied and the state
+     * published only after the last one. The result or failure of each
+     * operation is stored in it
+     *
+     * @param ops   the operations, in the order they were submitted
+     * @param count the number of operations in the batch
+     */
+    void applyBatch(HistorySequencer.Op[] ops, int count) {
+        lockIdle();
+        try {
+            batching = true;
+            for (int i = 0; i < count; i++) {
+                HistorySequencer.Op op = ops[i];
+                try {
+                    op.result = apply(op);
+                } catch (Throwable t) {
+                    op.failure = t;
+                }
+            }
+        } finally {
+            batching = false;
+            try {
+                enforceMemoryBudget();
+                publishState();
+            } finally {
+                unlock();
+            }
+        }
+    }
+
+    private boolean apply(HistorySequencer.Op op) {
+        switch (op.kind) {
+            case HistorySequencer.Op.REGISTER:
+                push(op.action);
+                if (recorder != null) {
+                    recorded(WorkloadRecorder.Call.REGISTER, 0, op.action.getEstimatedSize());
+                }
+                return true;
+            case HistorySequencer.Op.EXECUTE:
+                perform(op.action, Operation.EXECUTE);
+                if (coalesceWindow > 0) {
+                    pushOrAbsorb(op.action);
+                } else {
+                    push(op.action);
+                }
+                finishExecute();
+                if (recorder != null) {
+                    recorded(WorkloadRecorder.Call.EXECUTE, performed,
+                             op.action.getEstimatedSize());
+                }
+                return true;
+            case HistorySequencer.Op.UNDO: {
+                Action a = nextLiveUndo();
+                if (a == null) {
+                    recorded(WorkloadRecorder.Call.UNDO, 0, 0);
+                    return false;
+                }
+                perform(a, Operation.UNDO);
+                finishUndo();
+                recorded(WorkloadRecorder.Call.UNDO, performed, 0);
+                return true;
+            }
+            default: {
+                Action a = nextLiveRedo();
+                if (a == null) {
+                    recorded(WorkloadRecorder.Call.REDO, 0, 0);
+                    return false;
+                }
+                perform(a, Operation.REDO);
+                finishRedo();
+                recorded(WorkloadRecorder.Call.REDO, performed, 0);
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Locks the lock and then waits, if necessary, for an action being run by
+     * an asynchronous operation to return, even if the operation has timed out
+     * or been cancelled. The thread running that action does not wait so an
+     * action may still register other actions on the same tom.history.History
+     */
+    private void lockIdle() {
+        HistoryMetrics m = metrics;
+        long start = m == null ? 0 : System.nanoTime();
+        lock.lock();
+        while (actionThread != null && actionThread != Thread.currentThread()) {
+            idle.awaitUninterruptibly();
+        }
+        if (m != null && lock.getHoldCount() == 1) {
+            lockedAt = System.nanoTime();
+            holdTimed = true;
+            m.lockWaited(lockedAt - start);
+        }
+    }
+
+    /**
+     * Unlocks the lock, recording how long it was held if {@link #lockIdle()}
+     * started timing it
+     */
+    private void unlock() {
+        if (holdTimed && lock.getHoldCount() == 1) {
+            holdTimed = false;
+            HistoryMetrics m = metrics;
+            if (m != null) {
+                m.lockHeld(System.nanoTime() - lockedAt);
+            }
+        }
+        boolean flush = eventsQueued && lock.getHoldCount() == 1;
+        if (flush) {
+            eventsQueued = false;
+        }
+        lock.unlock();
+        if (flush) {
+            events.flush();
+        }
+    }
+
+    /**
+     * Queues an event for the subscribers of {@link #getEvents()}, if there
+     * are any. The thread that queued it hands it over once it has released
+     * the lock, so threads that only read the history never wait for a
+     * subscriber
+     */
+    private void event(HistoryEvent.Type type, Action action, int count) {
+        HistoryEventPublisher p = events;
+        if (p != null && p.hasSubscribers()) {
+            p.queue(new HistoryEvent(type, action, count, ++eventSequence,
+                                     undoCount(), ring.redoSize()));
+            eventsQueued = true;
+        }
+    }
+
+    /**
+     * Calls execute, undo or redo on the action, timing the call if metrics
+     * or a recorder are attached
+     */
+    private void perform(Action action, Operation operation) {
+        HistoryMetrics m = metrics;
+        if (m == null && recorder == null) {
+            call(action, operation);
+            return;
+        }
+        Object event = m == null ? null : m.beginOperation();
+        long start = System.nanoTime();
+        try {
+            call(action, operation);
+        } finally {
+            performed = System.nanoTime() - start;
+            if (m != null) {
+                m.endOperation(operation, action, performed, event);
+            }
+        }
+    }
+
+    /**
+     * Writes a call to the attached recorder, if there is one. Called while
+     * holding the lock so that the calls are recorded in the order they were
+     * carried out
+     */
+    private void recorded(WorkloadRecorder.Call call, long cost, long size) {
+        WorkloadRecorder r = recorder;
+        if (r != null) {
+            r.record(call, cost, size);
+        }
+    }
+
+    /**
+     * Records one step of {@link #undo(int)}, {@link #redo(int)} or
+     * {@link #jumpTo(int)} as the call to {@link #undo()} or {@link #redo()}
+     * that does the same. Stepping over the place of an action undone by
+     * {@link #undoInScope(Object)} does nothing, as such places are only ever
+     * made after recording has stopped
+     */
+    private void recordedStep(WorkloadRecorder.Call call, Action action, long cost) {
+        if (recorder != null && !(action instanceof ScopeIndex.Undone)) {
+            recorded(call, cost, 0);
+        }
+    }
+
+    /**
+     * Stops the attached recorder, if there is one, at a change that the calls
+     * of a trace cannot repeat
+     */
+    private void unrecordable() {
+        WorkloadRecorder r = recorder;
+        if (r != null) {
+            r.stop();
+        }
+    }
+
+    private static void call(Action action, Operation operation) {
+        switch (operation) {
+            case EXECUTE:
+                action.execute();
+                break;
+            case UNDO:
+                action.undo();
+                break;
+            default:
+                action.redo();
+                break;
+        }
+    }
+
+    private void evicted(int count) {
+        HistoryMetrics m = metrics;
+        if (m != null && count > 0) {
+            m.evicted(count);
+        }
+        if (count > 0) {
+            event(HistoryEvent.Type.EVICT, null, count);
+        }
+    }
+
+    /**
+     * A single asynchronous undo, redo or execute. Its future is completed
+     * exactly once, either by the thread that ran the action when it returns
+     * or by {@link #abandon()} when the future fails, times out or is
+     * cancelled. The history only changes when the action has run and
+     * returned normally, whether or not the future was given up on by then
+     */
+    private final class AsyncOperation implements Runnable {
+
+        final Operation kind;
+        final CompletableFuture<Boolean> result = new CompletableFuture<>();
+        final CompletableFuture<Boolean> done = new CompletableFuture<>();
+        Action action;
+        Thread worker;
+        boolean settled;
+        long cost;
+
+        AsyncOperation(Operation kind, Action action) {
+            this.kind = kind;
+            this.action = action;
+        }
+
+        @Override
+        public void run() {
+            lockIdle();
+            try {
+                if (settled) {
+                    return;
+                }
+                if (kind == Operation.UNDO) {
+                    action = nextLiveUndo();
+                } else if (kind == Operation.REDO) {
+                    action = nextLiveRedo();
+                }
+                if (action == null) {
+                    settled = true;
+                    recorded(kind == Operation.UNDO ? WorkloadRecorder.Call.UNDO
+                                                    : WorkloadRecorder.Call.REDO, 0, 0);
+                    result.complete(false);
+                    done.complete(true);
+                    return;
+                }
+                worker = Thread.currentThread();
+                actionThread = worker;
+            } finally {
+                unlock();
+            }
+
+            Throwable failure = null;
+            try {
+                perform(action, kind);
+                cost = performed;
+            } catch (Throwable t) {
+                failure = t;
+            }
+
+            boolean won;
+            lock.lock();
+            try {
+                // the action has run even if the future was given up on, so
+                // the history has to follow it
+                actionThread = null;
+                idle.signalAll();
+                if (failure == null) {
+                    commit();
+                }
+                won = !settled;
+                settled = true;
+                if (!won) {
+                    // abandon() may have interrupted us after the action returned
+                    Thread.interrupted();
+                }
+            } finally {
+                unlock();
+            }
+            if (won) {
+                if (failure == null) {
+                    result.complete(true);
+                } else {
+                    result.completeExceptionally(failure);
+                }
+            }
+            done.complete(true);
+        }
+
+        private void commit() {
+            if (kind == Operation.EXECUTE) {
+                if (coalesceWindow > 0) {
+                    pushOrAbsorb(action);
+                } else {
+                    push(action);
+                }
+                finishExecute();
+                if (recorder != null) {
+                    recorded(WorkloadRecorder.Call.EXECUTE, cost, action.getEstimatedSize());
+                }
+            } else if (kind == Operation.UNDO) {
+                finishUndo();
+                recorded(WorkloadRecorder.Call.UNDO, cost, 0);
+            } else {
+                finishRedo();
+                recorded(WorkloadRecorder.Call.REDO, cost, 0);
+            }
+        }
+
+        /**
+         * Gives up on the operation once its future has failed. An action that
+         * is already running is interrupted but keeps the history to itself
+         * until it returns, when {@link #run()} settles the history as usual
+         */
+        void abandon() {
+            boolean running;
+            lock.lock();
+            try {
+                if (settled) {
+                    return;
+                }
+                settled = true;
+                running = worker != null;
+                if (running) {
+                    worker.interrupt();
+                }
+            } finally {
+                unlock();
+            }
+            if (!running) {
+                done.complete(true);
+            }
+        }
+    }
+
+    /**
+     * The actions collected by the transactions open on one thread. Each
+     * nested transaction remembers where its actions start so that it can be
+     * rolled back on its own
+     */
+    private static final class Transaction {
+
+        final List<Action> actions = new ArrayList<>();
+        int[] marks = new int[4];
+        int depth;
+
+        void begin() {
+            if (depth == marks.length) {
+                int[] grown = new int[depth * 2];
+                System.arraycopy(marks, 0, grown, 0, depth);
+                marks = grown;
+            }
+            marks[depth++] = actions.size();
+        }
+
+        int end() {
+            return --depth;
+        }
+    }
+
+    /**
+     * Holds the executor used when none has been set with {@link #setExecutor(Executor)}
+     * so that it is only created if asynchronous operations are used
+     */
+    private static final class DefaultExecutor {
+
+        static final Executor INSTANCE = create();
+
+        private static Executor create() {
+            try {
+                return (Executor) Executors.class.getMethod("newVirtualThreadPerTaskExecutor")
+                                                 .invoke(null);
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                return Executors.newCachedThreadPool(r -> {
+                    Thread t = new Thread(r, "History-async");
+                    t.setDaemon(true);
+                    return t;
+                });
+            }
         }
     }
 }
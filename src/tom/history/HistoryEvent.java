@@ -0,0 +1,132 @@
+package tom.history;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * HistoryEvent describes one change to a {@link History}, as published by
+ * its {@link HistoryEventPublisher}. Events are numbered in the order the
+ * changes were made, so a subscriber that sees a gap in the numbers knows
+ * that events were dropped or conflated for it.
+ * <p>
+ * The sizes of the stacks are those right after the change. An event is
+ * delivered after the lock of the tom.history.History has been released, by
+ * which time other changes may already have been made.
+ */
+public final class HistoryEvent {
+
+    /**
+     * The kinds of change
+     */
+    public enum Type {
+        /**
+         * An action was registered, clearing the redo stack
+         */
+        REGISTER,
+        /**
+         * An action was merged into the most recent one by {@link Action#absorb(Action)}
+         */
+        ABSORB,
+        /**
+         * An action was undone
+         */
+        UNDO,
+        /**
+         * An action was redone
+         */
+        REDO,
+        /**
+         * Actions were dropped because of the limit or memory budget or were
+         * reclaimed by the garbage collector
+         */
+        EVICT,
+        /**
+         * The actions to redo were replaced by those of another branch by
+         * {@link History#switchBranch(Branch)}
+         */
+        BRANCH
+    }
+
+    private final Type type;
+    private final Action action;
+    private final int count;
+    private final long sequence;
+    private final int undoSize;
+    private final int redoSize;
+
+    HistoryEvent(Type type, Action action, int count, long sequence, int undoSize, int redoSize) {
+        this.type = type;
+        this.action = action;
+        this.count = count;
+        this.sequence = sequence;
+        this.undoSize = undoSize;
+        this.redoSize = redoSize;
+    }
+
+    /**
+     * Returns the kind of change
+     *
+     * @return the type of the event
+     */
+    @NotNull
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * Returns the action that was registered, absorbed, undone or redone
+     *
+     * @return the action or null for an {@link Type#EVICT} or {@link Type#BRANCH}
+     * event
+     */
+    @Nullable
+    public Action getAction() {
+        return action;
+    }
+
+    /**
+     * Returns the number of actions the change affected, which is only ever
+     * more than 1 for an {@link Type#EVICT} event or a {@link Type#BRANCH}
+     * event, where it is the number of actions of the branch
+     *
+     * @return the number of actions
+     */
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * Returns the number of this event. Each event of a tom.history.History is
+     * numbered one more than the one before it
+     *
+     * @return the sequence number
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * Returns the number of actions that could be undone right after the change
+     *
+     * @return the size of the undo stack
+     */
+    public int getUndoSize() {
+        return undoSize;
+    }
+
+    /**
+     * Returns the number of actions that could be redone right after the change
+     *
+     * @return the size of the redo stack
+     */
+    public int getRedoSize() {
+        return redoSize;
+    }
+
+    @Override
+    public String toString() {
+        return "HistoryEvent[" + sequence + " " + type + " " +
+               (action == null ? count : action) + ", undoSize=" + undoSize +
+               ", redoSize=" + redoSize + "]";
+    }
+}
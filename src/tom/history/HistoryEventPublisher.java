@@ -0,0 +1,373 @@
+package tom.history;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Flow;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * HistoryEventPublisher publishes a {@link HistoryEvent} for every action
+ * registered, absorbed, undone, redone or dropped by a {@link History}, for
+ * uses such as saving automatically, keeping an audit log or sending the
+ * changes to other copies of a document. The publisher of a tom.history.History
+ * is returned by {@link History#getEvents()}.
+ * <p>
+ * While the lock of the tom.history.History is held the events are only put
+ * on a queue. Once the thread that made the change releases the lock it hands
+ * the queued events to each subscriber's buffer, and the events are then
+ * delivered on the {@link History#getExecutor() executor} of the
+ * tom.history.History as each subscriber requests them. A slow subscriber therefore never holds up
+ * anything done under the lock. Each subscriber has a buffer of a fixed size
+ * and an {@link Overflow} policy for when it is full:
+ * <ul>
+ * <li>{@link Overflow#DROP} drops the new event</li>
+ * <li>{@link Overflow#CONFLATE} replaces the newest event in the buffer with
+ * the new one, so the subscriber always ends up seeing the latest state</li>
+ * <li>{@link Overflow#BLOCK} makes the thread handing over the events wait,
+ * after it has released the lock, until the subscriber has caught up. Threads
+ * making other changes meanwhile can still take the lock but wait in turn when
+ * they release it, so a subscriber that stops requesting stalls every
+ * writer</li>
+ * </ul>
+ * Subscribing with {@link #subscribe(Flow.Subscriber)} conflates; only
+ * subscribers that ask for it block.
+ * Every subscriber receives the events in the order the changes were made.
+ * Events are only created while there is at least one subscriber, so a
+ * tom.history.History that nobody subscribes to does no extra work.
+ */
+public final class HistoryEventPublisher implements Flow.Publisher<HistoryEvent> {
+
+    /**
+     * What to do with a new event when the buffer of a subscriber is full
+     */
+    public enum Overflow {
+        /**
+         * Drop the new event
+         */
+        DROP,
+        /**
+         * Replace the newest event in the buffer with the new one
+         */
+        CONFLATE,
+        /**
+         * Wait until the subscriber has taken an event from the buffer. A
+         * change made from within {@link Flow.Subscriber#onNext(Object)}
+         * does not wait, and the buffer grows instead. A slow subscriber
+         * then stalls every thread changing the tom.history.History, so this
+         * has to be asked for explicitly
+         */
+        BLOCK
+    }
+
+    private static final ThreadLocal<Boolean> delivering = new ThreadLocal<>();
+
+    private final ConcurrentLinkedQueue<HistoryEvent> queued = new ConcurrentLinkedQueue<>();
+    private final CopyOnWriteArrayList<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+    private final ReentrantLock handOver = new ReentrantLock();
+    private final History owner;
+    private volatile boolean closed;
+
+    HistoryEventPublisher(History owner) {
+        this.owner = owner;
+    }
+
+    /**
+     * Subscribes with a buffer of {@link Flow#defaultBufferSize()} events that
+     * conflates when full, so a subscriber that falls behind may miss events
+     * but always ends up with the latest state and never holds up the threads
+     * changing the tom.history.History. A subscriber that needs every event
+     * can ask for {@link Overflow#BLOCK} with
+     * {@link #subscribe(Flow.Subscriber, int, Overflow)}
+     *
+     * @param subscriber the subscriber
+     */
+    @Override
+    public void subscribe(@NotNull Flow.Subscriber<? super HistoryEvent> subscriber) {
+        subscribe(subscriber, Flow.defaultBufferSize(), Overflow.CONFLATE);
+    }
+
+    /**
+     * Subscribes with a buffer of the given size and policy. The subscriber
+     * receives the events of the changes made from now on. If the publisher
+     * has been closed it is completed straight away
+     *
+     * @param subscriber the subscriber
+     * @param bufferSize the most events held for the subscriber, at least 1
+     * @param overflow   what to do with a new event when the buffer is full
+     */
+    public void subscribe(@NotNull Flow.Subscriber<? super HistoryEvent> subscriber,
+                          int bufferSize, @NotNull Overflow overflow)
+    {
+        if (bufferSize < 1) {
+            throw new IllegalArgumentException("Buffer size of a subscriber " +
+                                               "must be at least 1");
+        }
+        Subscription s = new Subscription(subscriber, bufferSize, overflow);
+        subscriptions.add(s);
+        subscriber.onSubscribe(s);
+        if (closed) {
+            subscriptions.remove(s);
+            s.complete();
+        }
+    }
+
+    /**
+     * Returns whether anyone is subscribed
+     *
+     * @return true if there is at least one subscriber that has not cancelled
+     */
+    public boolean hasSubscribers() {
+        return !subscriptions.isEmpty();
+    }
+
+    /**
+     * Hands over the events still queued and then completes every subscriber
+     * once it has received the events in its buffer. Events of later changes
+     * are not published
+     */
+    public void close() {
+        closed = true;
+        flush();
+        for (Subscription s : subscriptions) {
+            s.complete();
+        }
+        subscriptions.clear();
+    }
+
+    /**
+     * Queues an event. Called while holding the lock of the tom.history.History
+     */
+    void queue(HistoryEvent event) {
+        if (!closed) {
+            queued.offer(event);
+        }
+    }
+
+    /**
+     * Hands the queued events to the subscribers. Called after the lock of the
+     * tom.history.History has been released. Only one thread hands over events
+     * at a time so every subscriber gets them in order. A thread delivering
+     * events does not wait for that, and leaves its own events to whichever
+     * thread is handing over
+     */
+    void flush() {
+        while (!queued.isEmpty()) {
+            boolean nested = delivering.get() != null;
+            if (nested) {
+                if (!handOver.tryLock()) {
+                    return;
+                }
+            } else {
+                handOver.lock();
+            }
+            try {
+                for (HistoryEvent e; (e = queued.poll()) != null; ) {
+                    for (Subscription s : subscriptions) {
+                        s.offer(e, !nested);
+                    }
+                }
+            } finally {
+                handOver.unlock();
+            }
+        }
+    }
+
+    /**
+     * The buffer and demand of one subscriber. Events are delivered by a task
+     * on the executor that is running only while there are both events and
+     * demand
+     */
+    private final class Subscription implements Flow.Subscription, Runnable {
+
+        private final Flow.Subscriber<? super HistoryEvent> subscriber;
+        private final Overflow overflow;
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition notFull = lock.newCondition();
+        private HistoryEvent[] buffer;
+        private final int capacity;
+        private int head;
+        private int count;
+        private long demand;
+        private boolean running;
+        private boolean cancelled;
+        private boolean completed;
+        private Throwable error;
+
+        Subscription(Flow.Subscriber<? super HistoryEvent> subscriber, int capacity,
+                     Overflow overflow)
+        {
+            this.subscriber = subscriber;
+            this.capacity = capacity;
+            this.overflow = overflow;
+            this.buffer = new HistoryEvent[Math.min(capacity, 64)];
+        }
+
+        void offer(HistoryEvent event, boolean mayBlock) {
+            boolean start;
+            lock.lock();
+            try {
+                if (count >= capacity && overflow == Overflow.BLOCK && mayBlock) {
+                    while (count >= capacity && !cancelled && !completed) {
+                        notFull.awaitUninterruptibly();
+                    }
+                }
+                if (cancelled || completed) {
+                    return;
+                }
+                if (count >= capacity && overflow == Overflow.DROP) {
+                    return;
+                }
+                if (count >= capacity && overflow == Overflow.CONFLATE) {
+                    buffer[index(count - 1)] = event;
+                    return;
+                }
+                if (count == buffer.length) {
+                    grow();
+                }
+                buffer[index(count++)] = event;
+                start = startIfReady();
+            } finally {
+                lock.unlock();
+            }
+            if (start) {
+                owner.getExecutor().execute(this);
+            }
+        }
+
+        void complete() {
+            boolean start;
+            lock.lock();
+            try {
+                completed = true;
+                notFull.signalAll();
+                start = startIfReady();
+            } finally {
+                lock.unlock();
+            }
+            if (start) {
+                owner.getExecutor().execute(this);
+            }
+        }
+
+        @Override
+        public void request(long n) {
+            boolean start;
+            lock.lock();
+            try {
+                if (n <= 0) {
+                    error = new IllegalArgumentException("Subscriber requested " + n +
+                                                         " events, the number must " +
+                                                         "be positive");
+                } else {
+                    demand = demand + n < 0 ? Long.MAX_VALUE : demand + n;
+                }
+                start = startIfReady();
+            } finally {
+                lock.unlock();
+            }
+            if (start) {
+                owner.getExecutor().execute(this);
+            }
+        }
+
+        @Override
+        public void cancel() {
+            lock.lock();
+            try {
+                cancelled = true;
+                Arrays.fill(buffer, null);
+                count = 0;
+                notFull.signalAll();
+            } finally {
+                lock.unlock();
+            }
+            subscriptions.remove(this);
+        }
+
+        /**
+         * Delivers events for as long as there is demand, then completes the
+         * subscriber if the publisher has been closed and the buffer is empty
+         */
+        @Override
+        public void run() {
+            delivering.set(Boolean.TRUE);
+            try {
+                while (true) {
+                    HistoryEvent e = null;
+                    Throwable failure = null;
+                    lock.lock();
+                    try {
+                        if (cancelled) {
+                            return;
+                        }
+                        if (error != null) {
+                            failure = error;
+                            cancelled = true;
+                        } else if (count > 0 && demand > 0) {
+                            e = buffer[head];
+                            buffer[head] = null;
+                            head = head + 1 == buffer.length ? 0 : head + 1;
+                            count--;
+                            demand--;
+                            notFull.signal();
+                        } else if (count == 0 && completed) {
+                            cancelled = true;
+                        } else {
+                            running = false;
+                            return;
+                        }
+                    } finally {
+                        lock.unlock();
+                    }
+                    if (failure != null) {
+                        subscriptions.remove(this);
+                        subscriber.onError(failure);
+                        return;
+                    }
+                    if (e == null) {
+                        subscriber.onComplete();
+                        return;
+                    }
+                    try {
+                        subscriber.onNext(e);
+                    } catch (Throwable t) {
+                        cancel();
+                        return;
+                    }
+                }
+            } finally {
+                delivering.remove();
+            }
+        }
+
+        /**
+         * Marks the delivery task as running if there is something for it to
+         * do and it is not already running. Called while holding the lock
+         */
+        private boolean startIfReady() {
+            if (running || cancelled) {
+                return false;
+            }
+            running = error != null || (count > 0 && demand > 0) || (count == 0 && completed);
+            return running;
+        }
+
+        private void grow() {
+            HistoryEvent[] grown = new HistoryEvent[buffer.length * 2];
+            for (int n = 0; n < count; n++) {
+                grown[n] = buffer[index(n)];
+            }
+            buffer = grown;
+            head = 0;
+        }
+
+        private int index(int offset) {
+            int i = head + offset;
+            return i >= buffer.length ? i - buffer.length : i;
+        }
+    }
+}
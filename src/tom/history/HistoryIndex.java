@@ -0,0 +1,273 @@
+package tom.history;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.LongConsumer;
+
+/**
+ * HistoryIndex keeps the indexes behind the queries of an indexed {@link History}.
+ * Indexing is turned on with {@link History#setIndexed(boolean)} to show and
+ * search the history, for example for every change of color in the last five
+ * minutes, through {@link History#findByType(Object, long, long)},
+ * {@link History#findByLabel(String, long, long)} and
+ * {@link History#findBetween(long, long)}.
+ * <p>
+ * For every action it keeps, by place, the time it was registered along with
+ * its {@link Action#getType() type} and {@link Action#getLabel() label}, and
+ * for each type and each label it keeps the places of the actions that have
+ * it, in ascending order.
+ * <p>
+ * Places are absolute, counted from the first action ever registered, as in
+ * {@link ScopeIndex}. Times never go down as places go up, so a range of
+ * times is found in the list of every action, or of the actions of one type
+ * or label, with a binary search. A query therefore takes time proportional
+ * to the logarithm of the number of actions plus the number of actions found.
+ * <p>
+ * Entries are added in order as actions are registered. An entry at or after
+ * the place of a new action refers to an action whose redo was cleared and
+ * is removed first, and the entries older than the oldest action are trimmed
+ * at the same time, each from the end of the lists it is in. Undoing and
+ * redoing change nothing here, since {@link History} only asks for the
+ * places of the undo-able actions. Every entry is added and removed at most
+ * once.
+ * <p>
+ * This class is not thread safe. {@link History} guards every call with its
+ * own lock.
+ */
+final class HistoryIndex {
+
+    private long[] times = new long[16];
+    private Object[] types = new Object[16];
+    private String[] labels = new String[16];
+    private long first;
+    private int start;
+    private int end;
+    private long lastTime = Long.MIN_VALUE;
+    private final Map<Object, Places> byType = new HashMap<>();
+    private final TreeMap<String, Places> byLabel = new TreeMap<>();
+
+    /**
+     * Adds the entry of an action that has just been pushed
+     *
+     * @param place  the place of the action
+     * @param type   the type of the action or null to leave it out of the
+     *               type index
+     * @param label  the label of the action or null to leave it out of the
+     *               label index
+     * @param time   the time the action was registered, raised to the time of
+     *               the entry before it if that is later
+     * @param oldest the place of the oldest action in the history
+     */
+    void add(long place, Object type, String label, long time, long oldest) {
+        truncate(place);
+        trim(oldest);
+        if (start == end || first + (end - start) != place) {
+            clear();
+            first = place;
+        }
+        if (end == times.length) {
+            grow();
+        }
+        lastTime = Math.max(lastTime, time);
+        times[end] = lastTime;
+        types[end] = type;
+        labels[end] = label;
+        end++;
+        if (type != null) {
+            byType.computeIfAbsent(type, k -> new Places()).add(place);
+        }
+        if (label != null) {
+            byLabel.computeIfAbsent(label, k -> new Places()).add(place);
+        }
+    }
+
+    /**
+     * Removes the entries at or after a place
+     *
+     * @param place the first place to remove
+     */
+    void truncate(long place) {
+        while (end > start && first + (end - start) > place) {
+            end--;
+            if (types[end] != null) {
+                Places p = byType.get(types[end]);
+                p.removeLast();
+                if (p.isEmpty()) {
+                    byType.remove(types[end]);
+                }
+            }
+            if (labels[end] != null) {
+                Places p = byLabel.get(labels[end]);
+                p.removeLast();
+                if (p.isEmpty()) {
+                    byLabel.remove(labels[end]);
+                }
+            }
+            types[end] = null;
+            labels[end] = null;
+        }
+    }
+
+    /**
+     * Removes the entries before a place
+     *
+     * @param oldest the place of the oldest action in the history
+     */
+    void trim(long oldest) {
+        while (start < end && first < oldest) {
+            if (types[start] != null) {
+                Places p = byType.get(types[start]);
+                p.removeFirst();
+                if (p.isEmpty()) {
+                    byType.remove(types[start]);
+                }
+            }
+            if (labels[start] != null) {
+                Places p = byLabel.get(labels[start]);
+                p.removeFirst();
+                if (p.isEmpty()) {
+                    byLabel.remove(labels[start]);
+                }
+            }
+            types[start] = null;
+            labels[start] = null;
+            start++;
+            first++;
+        }
+    }
+
+    /**
+     * Passes the places from {@code from} up to {@code to} of the actions
+     * registered in the given range of time, in ascending order
+     *
+     * @param from  the first place to look at
+     * @param to    the place after the last one to look at
+     * @param after the earliest time to find, inclusive
+     * @param until the latest time to find, exclusive
+     * @param out   receives the places found
+     */
+    void between(long from, long to, long after, long until, LongConsumer out) {
+        int lo = (int) Math.max(start, Math.min(end, start + (from - first)));
+        int hi = (int) Math.max(start, Math.min(end, start + (to - first)));
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (times[mid] < after) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        hi = (int) Math.max(start, Math.min(end, start + (to - first)));
+        for (int i = lo; i < hi && times[i] < until; i++) {
+            out.accept(first + (i - start));
+        }
+    }
+
+    /**
+     * Passes the places of the actions of one type, as for
+     * {@link #between(long, long, long, long, LongConsumer)}
+     */
+    void byType(Object type, long from, long to, long after, long until, LongConsumer out) {
+        Places p = byType.get(type);
+        if (p != null) {
+            scan(p, from, to, after, until, out);
+        }
+    }
+
+    /**
+     * Passes the places of the actions whose label starts with a prefix, as
+     * for {@link #between(long, long, long, long, LongConsumer)}. The places
+     * of each matching label are already in order, so only the places found
+     * are sorted to merge them
+     */
+    void byLabel(String prefix, long from, long to, long after, long until, LongConsumer out) {
+        Places found = new Places();
+        for (Map.Entry<String, Places> e : byLabel.tailMap(prefix).entrySet()) {
+            if (!e.getKey().startsWith(prefix)) {
+                break;
+            }
+            scan(e.getValue(), from, to, after, until, found::add);
+        }
+        Arrays.sort(found.places, found.start, found.end);
+        for (int i = found.start; i < found.end; i++) {
+            out.accept(found.places[i]);
+        }
+    }
+
+    private void scan(Places p, long from, long to, long after, long until, LongConsumer out) {
+        int lo = p.start;
+        int hi = p.end;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            long place = p.places[mid];
+            if (place < from || time(place) < after) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        for (int i = lo; i < p.end; i++) {
+            long place = p.places[i];
+            if (place >= to || time(place) >= until) {
+                break;
+            }
+            out.accept(place);
+        }
+    }
+
+    private long time(long place) {
+        return times[(int) (start + (place - first))];
+    }
+
+    private void clear() {
+        Arrays.fill(types, start, end, null);
+        Arrays.fill(labels, start, end, null);
+        start = end = 0;
+        byType.clear();
+        byLabel.clear();
+    }
+
+    private void grow() {
+        int size = end - start;
+        int capacity = Math.max(size * 2, 16);
+        times = Arrays.copyOfRange(times, start, start + capacity);
+        types = Arrays.copyOfRange(types, start, start + capacity);
+        labels = Arrays.copyOfRange(labels, start, start + capacity);
+        start = 0;
+        end = size;
+    }
+
+    /**
+     * The places of the actions with one type or label, in ascending order
+     */
+    private static final class Places {
+
+        long[] places = new long[4];
+        int start;
+        int end;
+
+        void add(long place) {
+            if (end == places.length) {
+                int size = end - start;
+                places = Arrays.copyOfRange(places, start, start + Math.max(size * 2, 4));
+                start = 0;
+                end = size;
+            }
+            places[end++] = place;
+        }
+
+        void removeFirst() {
+            start++;
+        }
+
+        void removeLast() {
+            end--;
+        }
+
+        boolean isEmpty() {
+            return start == end;
+        }
+    }
+}
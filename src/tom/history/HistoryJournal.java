@@ -0,0 +1,408 @@
+package tom.history;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.zip.CRC32;
+
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * HistoryJournal records every change made to a {@link History} in an append
+ * only file so that the undo and redo stacks survive a crash. Attach a journal
+ * with {@link History#setJournal(HistoryJournal)}; any records already in the
+ * file are replayed to rebuild the stacks and from then on each registration,
+ * undo and redo is appended to the file, as is each switch to another
+ * {@link Branch} of a branching history, as the new actions to redo.
+ * <p>
+ * The file is written through a memory mapping, so appending a record is a
+ * copy into memory and is safe from a crash of the program as soon as it
+ * returns. Writing the mapped pages to the disk itself, which protects against
+ * the whole machine going down, is done by a background thread that flushes
+ * all records appended since its last flush at once (group commit) every
+ * {@link #setFlushInterval(long, TimeUnit) flush interval}. {@link #flush()}
+ * does the same straight away.
+ * <p>
+ * Each record is a length, a CRC32 checksum and the record itself. Replaying
+ * reads the file sequentially and stops at the first record whose length or
+ * checksum is wrong, which is where a crash interrupted a write, so a torn
+ * record at the end of the file is dropped rather than corrupting the history.
+ * Actions are converted to bytes by the {@link ActionSerializer} given to the
+ * constructor.
+ * <p>
+ * Replaying only rebuilds the stacks. It does not execute, undo or redo any
+ * of the actions, since the state they changed is expected to be restored by
+ * the program itself, for instance by reopening the saved document.
+ */
+public class HistoryJournal implements Closeable {
+
+    static final byte REGISTER = 1;
+    static final byte ABSORB = 2;
+    static final byte UNDO = 3;
+    static final byte REDO = 4;
+    static final byte CLEAR_REDO = 5;
+    static final byte APPEND_REDO = 6;
+
+    private static final int MAGIC = 0x48495354;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+    private static final int RECORD_HEADER_SIZE = 8;
+    private static final int REGION_SIZE = 64 << 20;
+
+    private final Path file;
+    private final ActionCodec codec;
+    private final CRC32 crc = new CRC32();
+    private FileChannel channel;
+    private volatile MappedByteBuffer region;
+    private long regionStart;
+    private long position = -1;
+    private long records;
+    private volatile boolean dirty;
+    private volatile boolean closed;
+    private volatile long flushInterval = TimeUnit.MILLISECONDS.toNanos(10);
+    private Thread flusher;
+
+    /**
+     * Opens the journal at the given file, creating the file if it does not
+     * exist. Nothing is read until the journal is attached to a {@link History}
+     *
+     * @param file       the journal file
+     * @param serializer used to write and read the actions in the journal
+     * @throws IOException if the file cannot be opened
+     */
+    public HistoryJournal(@NotNull Path file, @NotNull ActionSerializer serializer)
+      throws IOException
+    {
+        this.file = file;
+        this.codec = new ActionCodec(serializer);
+        this.channel = FileChannel.open(file, READ, WRITE, CREATE);
+    }
+
+    /**
+     * Returns how long appended records may wait before the background
+     * thread writes them to disk
+     *
+     * @return the flush interval in nanoseconds
+     */
+    public long getFlushInterval() {
+        return flushInterval;
+    }
+
+    /**
+     * Sets how long appended records may wait before the background thread
+     * writes them to disk. A longer interval writes more records per flush.
+     * The default is 10 milliseconds
+     *
+     * @param interval the flush interval, greater than 0
+     * @param unit     the unit of the interval
+     */
+    public void setFlushInterval(long interval, @NotNull TimeUnit unit) {
+        if (interval <= 0) {
+            throw new IllegalArgumentException("Flush interval must be " +
+                                               "greater than 0");
+        }
+        flushInterval = unit.toNanos(interval);
+    }
+
+    /**
+     * Returns the number of records in the journal
+     *
+     * @return the number of records read and appended so far
+     */
+    public long getRecordCount() {
+        return records;
+    }
+
+    /**
+     * Writes every record appended so far to disk and waits for the write to
+     * complete
+     */
+    public synchronized void flush() {
+        dirty = false;
+        MappedByteBuffer r = region;
+        if (r != null) {
+            r.force();
+        }
+    }
+
+    /**
+     * Flushes and closes the journal. The file is trimmed to the end of the
+     * last record
+     *
+     * @throws IOException if the file cannot be trimmed or closed
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        if (flusher != null) {
+            LockSupport.unpark(flusher);
+        }
+        flush();
+        synchronized (this) {
+            region = null;
+            if (position >= 0) {
+                channel.truncate(position);
+            }
+            channel.close();
+        }
+    }
+
+    /**
+     * Receives the records of a journal as it is replayed
+     */
+    interface Replay {
+
+        void register(Action action);
+
+        void absorb(Action action);
+
+        void undo();
+
+        void redo();
+
+        void clearRedo();
+
+        void appendRedo(Action action);
+    }
+
+    /**
+     * Reads the journal from the start, passing each valid record to the
+     * replay, and prepares the journal for appending after the last valid
+     * record. Anything after that record is cut off
+     *
+     * @param replay receives the records or null to only find the end
+     * @throws IOException if the file cannot be read or is not a journal
+     */
+    void replay(Replay replay) throws IOException {
+        long size = channel.size();
+        records = 0;
+        if (size < HEADER_SIZE) {
+            position = 0;
+            ensureWritable(HEADER_SIZE);
+            region.putInt(MAGIC).putInt(VERSION);
+            position = HEADER_SIZE;
+            return;
+        }
+        Reader reader = new Reader(size);
+        if (reader.readInt(0) != MAGIC || reader.readInt(4) != VERSION) {
+            throw new IOException(file + " is not a history journal");
+        }
+        byte[] scratch = new byte[256];
+        long pos = HEADER_SIZE;
+        while (reader.available(pos, RECORD_HEADER_SIZE)) {
+            int length = reader.readInt(pos);
+            int checksum = reader.readInt(pos + 4);
+            if (length <= 0 || !reader.available(pos + RECORD_HEADER_SIZE, length)) {
+                break;
+            }
+            if (scratch.length < length) {
+                scratch = new byte[Math.max(length, scratch.length * 2)];
+            }
+            reader.read(pos + RECORD_HEADER_SIZE, scratch, length);
+            crc.reset();
+            crc.update(scratch, 0, length);
+            if ((int) crc.getValue() != checksum) {
+                break;
+            }
+            if (replay != null) {
+                switch (scratch[0]) {
+                    case REGISTER:
+                        replay.register(codec.read(scratch, 1, length - 1));
+                        break;
+                    case ABSORB:
+                        replay.absorb(codec.read(scratch, 1, length - 1));
+                        break;
+                    case UNDO:
+                        replay.undo();
+                        break;
+                    case REDO:
+                        replay.redo();
+                        break;
+                    case CLEAR_REDO:
+                        replay.clearRedo();
+                        break;
+                    case APPEND_REDO:
+                        replay.appendRedo(codec.read(scratch, 1, length - 1));
+                        break;
+                    default:
+                        throw new IOException("Unknown record type " + scratch[0] +
+                                              " in " + file);
+                }
+            }
+            pos += RECORD_HEADER_SIZE + length;
+            records++;
+        }
+        position = pos;
+        if (pos < size) {
+            channel.truncate(pos);
+        }
+    }
+
+    /**
+     * Appends a record. Called by {@link History} while holding its lock so
+     * there is never more than one thread appending
+     *
+     * @param type   the type of record
+     * @param action the action of a register, absorb or append redo record,
+     *               otherwise null
+     */
+    void append(byte type, Action action) {
+        try {
+            if (position < 0) {
+                replay(null);
+            }
+            int length = encode(type, action);
+            ensureWritable(RECORD_HEADER_SIZE + length);
+            region.putInt(length)
+                  .putInt((int) crc.getValue())
+                  .put(codec.buffer(), 0, length);
+            position += RECORD_HEADER_SIZE + length;
+            records++;
+            dirty = true;
+            if (flusher == null) {
+                startFlusher();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Replaces the journal with one that registers the given actions and then
+     * undoes the last {@code redoCount} of them, which rebuilds the same
+     * stacks with the fewest records. The new journal is written to a
+     * separate file that then replaces the old one, so a crash part way
+     * through leaves the old journal intact
+     *
+     * @param actions   every stored action from the oldest undo to the farthest redo
+     * @param redoCount how many of the actions are on the redo side
+     * @throws IOException if the new journal cannot be written
+     */
+    void compact(Action[] actions, int redoCount) throws IOException {
+        Path temp = file.resolveSibling(file.getFileName() + ".compact");
+        long count = 0;
+        long size = HEADER_SIZE;
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+          Files.newOutputStream(temp, WRITE, CREATE, TRUNCATE_EXISTING), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            for (Action a : actions) {
+                size += writeRecord(out, REGISTER, a);
+                count++;
+            }
+            for (int i = 0; i < redoCount; i++) {
+                size += writeRecord(out, UNDO, null);
+                count++;
+            }
+        }
+        try (FileChannel c = FileChannel.open(temp, WRITE)) {
+            c.force(true);
+        }
+        synchronized (this) {
+            region = null;
+            channel.close();
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING,
+                       StandardCopyOption.ATOMIC_MOVE);
+            channel = FileChannel.open(file, READ, WRITE);
+        }
+        position = size;
+        records = count;
+    }
+
+    private int writeRecord(DataOutputStream out, byte type, Action action) throws IOException {
+        int length = encode(type, action);
+        out.writeInt(length);
+        out.writeInt((int) crc.getValue());
+        out.write(codec.buffer(), 0, length);
+        return RECORD_HEADER_SIZE + length;
+    }
+
+    private int encode(byte type, Action action) throws IOException {
+        codec.begin().writeByte(type);
+        if (action != null) {
+            codec.write(action);
+        }
+        crc.reset();
+        crc.update(codec.buffer(), 0, codec.size());
+        return codec.size();
+    }
+
+    private void ensureWritable(int length) throws IOException {
+        MappedByteBuffer r = region;
+        if (r == null || position + length > regionStart + r.capacity()) {
+            synchronized (this) {
+                if (r != null) {
+                    r.force();
+                }
+                regionStart = position;
+                region = channel.map(FileChannel.MapMode.READ_WRITE, position,
+                                     Math.max(REGION_SIZE, length));
+            }
+        }
+    }
+
+    private synchronized void startFlusher() {
+        flusher = new Thread(() -> {
+            while (!closed) {
+                LockSupport.parkNanos(this, flushInterval);
+                if (dirty && !closed) {
+                    flush();
+                }
+            }
+        }, "HistoryJournal-flush");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    /**
+     * Reads a file through read only mappings of up to {@link #REGION_SIZE}
+     * bytes, mapping a new region whenever a read goes past the current one
+     */
+    private final class Reader {
+
+        private final long size;
+        private MappedByteBuffer in;
+        private long start;
+
+        Reader(long size) {
+            this.size = size;
+        }
+
+        boolean available(long pos, int length) {
+            return pos + length <= size;
+        }
+
+        int readInt(long pos) throws IOException {
+            map(pos, 4);
+            return in.getInt((int) (pos - start));
+        }
+
+        void read(long pos, byte[] into, int length) throws IOException {
+            map(pos, length);
+            in.position((int) (pos - start));
+            in.get(into, 0, length);
+        }
+
+        private void map(long pos, int length) throws IOException {
+            if (in == null || pos < start || pos + length > start + in.capacity()) {
+                start = pos;
+                in = channel.map(FileChannel.MapMode.READ_ONLY, pos,
+                                 Math.min(size - pos, Math.max(REGION_SIZE, length)));
+            }
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package tom.history;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * HistoryMetrics collects timings from a {@link History} it is attached to
+ * with {@link History#setMetrics(HistoryMetrics)}. While attached it records
+ * <ul>
+ * <li>how long each {@link Action#execute()}, {@link Action#undo()} and
+ * {@link Action#redo()} call took, in a separate {@link LatencyHistogram}
+ * for each class of action</li>
+ * <li>how long threads waited to take the lock of the tom.history.History,
+ * including waiting for an asynchronous action to finish, and how long they
+ * held it</li>
+ * <li>the current number of actions that can be undone and redone</li>
+ * <li>how many actions were dropped because of the limit or memory budget
+ * or reclaimed by the garbage collector</li>
+ * </ul>
+ * When the jdk.jfr module is available a {@code tom.history.Operation} JFR
+ * event is also committed for every execute, undo and redo, which shows up in
+ * a flight recording that enables it.
+ * <p>
+ * A tom.history.History without metrics, the default, only checks a single
+ * field to find that there is nothing to record, so the instrumentation can be
+ * left in place and switched on when needed. Only the lock of operations that
+ * change the history is timed. A metrics object is meant to be attached to a
+ * single tom.history.History at a time, otherwise the depths are those of
+ * whichever changed last.
+ */
+public final class HistoryMetrics {
+
+    /**
+     * The calls on an {@link Action} that are timed
+     */
+    public enum Operation {
+        EXECUTE, UNDO, REDO
+    }
+
+    private static final boolean JFR = isJfrPresent();
+
+    private final ConcurrentHashMap<Class<?>, LatencyHistogram[]> latencies =
+      new ConcurrentHashMap<>();
+    private final LatencyHistogram lockWait = new LatencyHistogram();
+    private final LatencyHistogram lockHold = new LatencyHistogram();
+    private final LongAdder evictions = new LongAdder();
+    private volatile int undoDepth;
+    private volatile int redoDepth;
+
+    /**
+     * Returns every class of action that has been timed so far
+     *
+     * @return a copy of the set of action classes
+     */
+    @NotNull
+    public Set<Class<?>> getActionClasses() {
+        return new HashSet<>(latencies.keySet());
+    }
+
+    /**
+     * Returns the durations of one kind of call on one class of action
+     *
+     * @param actionClass the class of the actions
+     * @param operation   the call on the actions
+     * @return the histogram of durations or null if no action of that class
+     * has been timed
+     */
+    @Nullable
+    public LatencyHistogram getLatency(@NotNull Class<?> actionClass,
+                                       @NotNull Operation operation)
+    {
+        LatencyHistogram[] byOperation = latencies.get(actionClass);
+        return byOperation == null ? null : byOperation[operation.ordinal()];
+    }
+
+    /**
+     * Returns how long threads waited to take the lock before changing the
+     * history
+     *
+     * @return the histogram of lock wait times
+     */
+    @NotNull
+    public LatencyHistogram getLockWait() {
+        return lockWait;
+    }
+
+    /**
+     * Returns how long the lock was held by each change to the history,
+     * including running the action for the operations that run it under the
+     * lock
+     *
+     * @return the histogram of lock hold times
+     */
+    @NotNull
+    public LatencyHistogram getLockHold() {
+        return lockHold;
+    }
+
+    /**
+     * Returns the number of actions dropped because of the limit or the
+     * memory budget, or because they were reclaimed by the garbage collector.
+     * Actions moved to a {@link SpillTier} are not dropped, and neither are
+     * redo actions cleared by registering a new action
+     *
+     * @return the number of actions dropped
+     */
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    /**
+     * Returns the number of actions that could be undone after the last change
+     *
+     * @return the size of the undo stack
+     */
+    public int getUndoDepth() {
+        return undoDepth;
+    }
+
+    /**
+     * Returns the number of actions that could be redone after the last change
+     *
+     * @return the size of the redo stack
+     */
+    public int getRedoDepth() {
+        return redoDepth;
+    }
+
+    @Override
+    public String toString() {
+        return "HistoryMetrics[undoDepth=" + undoDepth + ", redoDepth=" +
+               redoDepth + ", evictions=" + evictions.sum() + ", lockWait=(" +
+               lockWait + "), lockHold=(" + lockHold + ")]";
+    }
+
+    Object beginOperation() {
+        return JFR ? OperationEvent.start() : null;
+    }
+
+    void endOperation(Operation operation, Action action, long nanos, Object event) {
+        LatencyHistogram[] byOperation = latencies.get(action.getClass());
+        if (byOperation == null) {
+            byOperation = latencies.computeIfAbsent(action.getClass(), c -> {
+                LatencyHistogram[] histograms = new LatencyHistogram[Operation.values().length];
+                for (int i = 0; i < histograms.length; i++) {
+                    histograms[i] = new LatencyHistogram();
+                }
+                return histograms;
+            });
+        }
+        byOperation[operation.ordinal()].record(nanos);
+        if (event != null) {
+            OperationEvent.finish(event, operation, action, undoDepth, redoDepth);
+        }
+    }
+
+    void lockWaited(long nanos) {
+        lockWait.record(nanos);
+    }
+
+    void lockHeld(long nanos) {
+        lockHold.record(nanos);
+    }
+
+    void evicted(int count) {
+        evictions.add(count);
+    }
+
+    void depths(int undo, int redo) {
+        undoDepth = undo;
+        redoDepth = redo;
+    }
+
+    private static boolean isJfrPresent() {
+        return ModuleLayer.boot().findModule("jdk.jfr").isPresent();
+    }
+}
@@ -0,0 +1,104 @@
+package tom.history;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Consumer;
+
+/**
+ * HistoryRegistry maps keys, such as documents or document ids, to their own
+ * {@link History} instances. Each History has its own lock so edits to one
+ * document never wait on edits to another and the registry itself never locks
+ * when looking up a History that already exists.
+ * <p>
+ * A History is created the first time its key is passed to {@link #get(Object)}
+ * and stays in the registry until it is {@link #remove(Object) removed}. The
+ * registry can be given a {@link Consumer} that configures every new History,
+ * for example to give them all the same limit:
+ * <p>
+ * {@code HistoryRegistry<Document> histories = new HistoryRegistry<>(h -> h.setLimit(100));}
+ * <p>
+ * Keys are compared with {@link Object#equals(Object)} and must not change
+ * while they are registered.
+ *
+ * @param <K> the type of key used to identify each History
+ */
+public class HistoryRegistry<K> {
+
+    private final ConcurrentMap<K, History> histories = new ConcurrentHashMap<>();
+    private final Consumer<History> initializer;
+
+    /**
+     * Creates an empty registry whose histories have no limit and no memory
+     * budget
+     */
+    public HistoryRegistry() {
+        this(h -> { });
+    }
+
+    /**
+     * Creates an empty registry that passes every new {@link History} to the
+     * given initializer before it is returned by {@link #get(Object)}
+     *
+     * @param initializer called once for each History created by this registry
+     */
+    public HistoryRegistry(@NotNull Consumer<History> initializer) {
+        this.initializer = initializer;
+    }
+
+    /**
+     * Returns the {@link History} for the given key, creating it if it does
+     * not exist yet. Looking up an existing History does not lock
+     *
+     * @param key the key identifying the History
+     * @return the History for the key
+     */
+    @NotNull
+    public History get(@NotNull K key) {
+        History history = histories.get(key);
+        if (history != null) {
+            return history;
+        }
+        return histories.computeIfAbsent(key, k -> {
+            History created = new History();
+            initializer.accept(created);
+            return created;
+        });
+    }
+
+    /**
+     * Returns the {@link History} for the given key or null if there is none.
+     * Unlike {@link #get(Object)} this never creates a History
+     *
+     * @param key the key identifying the History
+     * @return the History for the key or null if it has not been created
+     */
+    @Nullable
+    public History find(@NotNull K key) {
+        return histories.get(key);
+    }
+
+    /**
+     * Removes the {@link History} for the given key, for instance when its
+     * document is closed. The removed History is returned and still works but
+     * a later call to {@link #get(Object)} with the same key creates a new one
+     *
+     * @param key the key identifying the History
+     * @return the removed History or null if there was none
+     */
+    @Nullable
+    public History remove(@NotNull K key) {
+        return histories.remove(key);
+    }
+
+    /**
+     * Returns the number of histories currently in the registry
+     *
+     * @return the number of registered histories
+     */
+    public int size() {
+        return histories.size();
+    }
+}
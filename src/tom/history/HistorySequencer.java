@@ -0,0 +1,226 @@
+package tom.history;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * HistorySequencer lets many threads change a {@link History} without waiting
+ * for one another. Instead of taking the lock of the tom.history.History, each
+ * call puts the operation on a lock free queue and returns a
+ * {@link CompletableFuture} straight away. A single sequencer thread takes the
+ * operations off the queue in batches of up to {@link #getMaxBatch()} and
+ * carries out a whole batch while taking the lock once. The memory budget is
+ * applied and the state read by {@link History#canUndo()} and the other
+ * queries is published once per batch rather than once per operation.
+ * <p>
+ * Operations are carried out one at a time in the order they were put on the
+ * queue, so the operations submitted by one thread are always carried out in
+ * the order that thread submitted them. The futures are completed in the same
+ * order, after the lock has been released for the batch, and callbacks on
+ * them run on the sequencer thread unless an executor is given. Calls made
+ * directly on the tom.history.History are carried out between batches.
+ * <p>
+ * As with {@link History#registerActionAndExecuteAsync(Action)}, an action is
+ * only registered once it has executed, and an action that throws while it is
+ * executed, undone or redone leaves the history as it was and fails only its
+ * own future. The actions run on the sequencer thread while it holds the lock.
+ * <p>
+ * The sequencer thread is a daemon thread started by the constructor. It
+ * parks while the queue is empty and {@link #close()} stops it once the
+ * operations already submitted have been carried out.
+ */
+public final class HistorySequencer implements AutoCloseable {
+
+    private final History history;
+    private final ConcurrentLinkedQueue<Op> queue = new ConcurrentLinkedQueue<>();
+    private final Thread thread;
+    private volatile int maxBatch = 256;
+    private volatile boolean parked;
+    private volatile boolean closed;
+
+    /**
+     * Creates a sequencer for the given tom.history.History and starts its
+     * thread
+     *
+     * @param history the tom.history.History to change
+     */
+    public HistorySequencer(@NotNull History history) {
+        this.history = history;
+        this.thread = new Thread(this::run, "History-sequencer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Returns the most operations carried out while holding the lock once
+     *
+     * @return the largest batch
+     */
+    public int getMaxBatch() {
+        return maxBatch;
+    }
+
+    /**
+     * Sets the most operations carried out while holding the lock once. A
+     * larger batch does less work per operation but keeps other threads
+     * calling the tom.history.History directly waiting for longer. The default
+     * is 256
+     *
+     * @param maxBatch the largest batch, at least 1
+     */
+    public void setMaxBatch(int maxBatch) {
+        if (maxBatch < 1) {
+            throw new IllegalArgumentException("Batch size of a HistorySequencer " +
+                                               "must be at least 1");
+        }
+        this.maxBatch = maxBatch;
+    }
+
+    /**
+     * Submits an action to be executed and then registered, like
+     * {@link History#registerActionAndExecute(Action)}
+     *
+     * @param action the action to execute and register
+     * @return a future completed with true once the action has been executed
+     * and registered, or completed exceptionally if execute threw
+     */
+    @NotNull
+    public CompletableFuture<Boolean> registerActionAndExecute(@NotNull Action action) {
+        return submit(Op.EXECUTE, action);
+    }
+
+    /**
+     * Submits an action to be registered without executing it, like
+     * {@link History#registerAction(Action)}
+     *
+     * @param action the action to register
+     * @return a future completed with true once the action has been registered
+     */
+    @NotNull
+    public CompletableFuture<Boolean> registerAction(@NotNull Action action) {
+        return submit(Op.REGISTER, action);
+    }
+
+    /**
+     * Submits an undo, like {@link History#undo()}
+     *
+     * @return a future completed with true once an action has been undone or
+     * with false if there was nothing to undo at the time
+     */
+    @NotNull
+    public CompletableFuture<Boolean> undo() {
+        return submit(Op.UNDO, null);
+    }
+
+    /**
+     * Submits a redo, like {@link History#redo()}
+     *
+     * @return a future completed with true once an action has been redone or
+     * with false if there was nothing to redo at the time
+     */
+    @NotNull
+    public CompletableFuture<Boolean> redo() {
+        return submit(Op.REDO, null);
+    }
+
+    /**
+     * Stops the sequencer thread once every operation already submitted has
+     * been carried out, and waits for it to stop. Operations submitted after
+     * this fail with a {@link RejectedExecutionException}. If the calling
+     * thread is interrupted while waiting it stops waiting and keeps its
+     * interrupt status
+     */
+    @Override
+    public void close() {
+        closed = true;
+        LockSupport.unpark(thread);
+        if (Thread.currentThread() == thread) {
+            return;
+        }
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private CompletableFuture<Boolean> submit(int kind, Action action) {
+        Op op = new Op(kind, action);
+        if (!closed) {
+            queue.offer(op);
+            if (parked) {
+                LockSupport.unpark(thread);
+            }
+            // the sequencer may have stopped before seeing the operation
+            if (!closed || !queue.remove(op)) {
+                return op.future;
+            }
+        }
+        op.future.completeExceptionally(new RejectedExecutionException(
+          "HistorySequencer is closed"));
+        return op.future;
+    }
+
+    private void run() {
+        Op[] batch = new Op[maxBatch];
+        while (true) {
+            int max = maxBatch;
+            if (batch.length != max) {
+                batch = new Op[max];
+            }
+            int n = 0;
+            Op op;
+            while (n < max && (op = queue.poll()) != null) {
+                batch[n++] = op;
+            }
+            if (n == 0) {
+                if (closed) {
+                    break;
+                }
+                parked = true;
+                if (queue.isEmpty() && !closed) {
+                    LockSupport.park(this);
+                }
+                parked = false;
+                continue;
+            }
+            history.applyBatch(batch, n);
+            for (int i = 0; i < n; i++) {
+                Op done = batch[i];
+                batch[i] = null;
+                if (done.failure == null) {
+                    done.future.complete(done.result);
+                } else {
+                    done.future.completeExceptionally(done.failure);
+                }
+            }
+        }
+    }
+
+    /**
+     * One submitted operation. The result and failure are filled in by
+     * {@link History#applyBatch(Op[], int)} on the sequencer thread
+     */
+    static final class Op {
+
+        static final int REGISTER = 0;
+        static final int EXECUTE = 1;
+        static final int UNDO = 2;
+        static final int REDO = 3;
+
+        final int kind;
+        final Action action;
+        final CompletableFuture<Boolean> future = new CompletableFuture<>();
+        boolean result;
+        Throwable failure;
+
+        Op(int kind, Action action) {
+            this.kind = kind;
+            this.action = action;
+        }
+    }
+}
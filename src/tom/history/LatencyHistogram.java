@@ -0,0 +1,143 @@
+package tom.history;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * LatencyHistogram counts durations in nanoseconds into buckets of roughly
+ * equal relative width, so that it takes a fixed amount of memory however
+ * many durations are recorded. Durations below 16 nanoseconds get a bucket
+ * each and every power of two above that is split into 8 buckets, so a
+ * percentile read from the histogram is never more than 12.5% above the true
+ * value.
+ * <p>
+ * Recording is thread safe and does not lock. The values read from the
+ * histogram while other threads are recording may not all include the same
+ * durations.
+ */
+public final class LatencyHistogram {
+
+    private static final int LINEAR = 16;
+    private static final int SUB_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    private static final int BUCKETS = LINEAR + (63 - 4) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder total = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    LatencyHistogram() {
+    }
+
+    /**
+     * Returns the number of durations recorded
+     *
+     * @return the number of durations
+     */
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * Returns the sum of all durations recorded
+     *
+     * @return the total in nanoseconds
+     */
+    public long getTotalNanos() {
+        return total.sum();
+    }
+
+    /**
+     * Returns the mean of the durations recorded or 0 if there are none
+     *
+     * @return the mean in nanoseconds
+     */
+    public double getMeanNanos() {
+        long n = count.sum();
+        return n == 0 ? 0 : (double) total.sum() / n;
+    }
+
+    /**
+     * Returns the longest duration recorded or 0 if there are none
+     *
+     * @return the maximum in nanoseconds
+     */
+    public long getMaxNanos() {
+        return max.get();
+    }
+
+    /**
+     * Returns a duration that the given fraction of the recorded durations
+     * did not exceed, such as 0.99 for the 99th percentile. The value is the
+     * upper end of the bucket holding that percentile, and never more than
+     * the maximum
+     *
+     * @param fraction the percentile as a fraction from 0 to 1
+     * @return the percentile in nanoseconds or 0 if nothing was recorded
+     */
+    public long getPercentileNanos(double fraction) {
+        if (fraction < 0 || fraction > 1) {
+            throw new IllegalArgumentException("Percentile must be between " +
+                                               "0 and 1");
+        }
+        long n = count.sum();
+        if (n == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(fraction * n));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return Math.min(upperBound(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    /**
+     * Adds a duration to the histogram. Negative durations count as 0
+     *
+     * @param nanos the duration in nanoseconds
+     */
+    void record(long nanos) {
+        long value = Math.max(0, nanos);
+        counts.incrementAndGet(bucket(value));
+        count.increment();
+        total.add(value);
+        long m = max.get();
+        while (value > m && !max.compareAndSet(m, value)) {
+            m = max.get();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "count=" + getCount() +
+               " mean=" + Math.round(getMeanNanos()) + "ns" +
+               " p50=" + getPercentileNanos(0.5) + "ns" +
+               " p99=" + getPercentileNanos(0.99) + "ns" +
+               " max=" + getMaxNanos() + "ns";
+    }
+
+    private static int bucket(long value) {
+        if (value < LINEAR) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+        return LINEAR + (exponent - 4) * SUB_BUCKETS + sub;
+    }
+
+    private static long upperBound(int bucket) {
+        if (bucket < LINEAR) {
+            return bucket;
+        }
+        int exponent = (bucket - LINEAR) / SUB_BUCKETS + 4;
+        long sub = (bucket - LINEAR) % SUB_BUCKETS;
+        long width = 1L << (exponent - SUB_BITS);
+        return (1L << exponent) + (sub + 1) * width - 1;
+    }
+}
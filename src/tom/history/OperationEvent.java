@@ -0,0 +1,56 @@
+package tom.history;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * The JFR event committed by {@link HistoryMetrics} for every action executed,
+ * undone or redone. Only loaded when the jdk.jfr module is present, and only
+ * recorded when a flight recording has the event enabled
+ */
+@Name("tom.history.Operation")
+@Label("History Operation")
+@Category("History")
+@Description("An action executed, undone or redone by a History")
+@StackTrace(false)
+final class OperationEvent extends Event {
+
+    @Label("Operation")
+    String operation;
+
+    @Label("Action Class")
+    Class<?> actionClass;
+
+    @Label("Undo Depth")
+    int undoDepth;
+
+    @Label("Redo Depth")
+    int redoDepth;
+
+    static Object start() {
+        OperationEvent event = new OperationEvent();
+        if (!event.isEnabled()) {
+            return null;
+        }
+        event.begin();
+        return event;
+    }
+
+    static void finish(Object started, HistoryMetrics.Operation operation,
+                       Action action, int undoDepth, int redoDepth)
+    {
+        OperationEvent event = (OperationEvent) started;
+        event.end();
+        if (event.shouldCommit()) {
+            event.operation = operation.name();
+            event.actionClass = action.getClass();
+            event.undoDepth = undoDepth;
+            event.redoDepth = redoDepth;
+            event.commit();
+        }
+    }
+}
@@ -0,0 +1,344 @@
+package tom.history;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+
+/**
+ * PropertyLane stores changes of numeric properties, such as the width of a
+ * window or the size of a font, without creating an {@link Action} for each
+ * change. Every change is a row of four primitive columns: the property, the
+ * target object, the old value and the new value. Properties and targets are
+ * registered once and referred to by number afterwards, and each property
+ * has a setter that undo and redo call with the old or new value. A change
+ * costs about 24 bytes no matter how many are recorded.
+ * <p>
+ * The lane of a {@link History} is returned by {@link History#getPropertyLane()}.
+ * The changes recorded through it are undone and redone by the same
+ * {@link History#undo()} and {@link History#redo()} as every other action,
+ * in the order they were made, and count towards the limit and memory budget.
+ * <pre>{@code
+ * PropertyLane lane = history.getPropertyLane();
+ * int width = lane.addDoubleProperty((Stage s, double w) -> s.setWidth(w));
+ * int stage = lane.addTarget(primaryStage);
+ * lane.setDouble(width, stage, primaryStage.getWidth(), 640);
+ * }</pre>
+ * Rows live only in memory, so a tom.history.History with a lane cannot have a
+ * {@link HistoryJournal}, a {@link SpillTier} or an undo tree, and changes
+ * cannot be recorded in a transaction. Registered properties and targets are
+ * kept for as long as the lane.
+ * <p>
+ * Like the rest of tom.history.History the lane is thread safe. It is guarded by
+ * the lock of its tom.history.History.
+ */
+public final class PropertyLane {
+
+    /**
+     * Sets a double property of a target
+     *
+     * @param <T> the type of the target
+     */
+    @FunctionalInterface
+    public interface DoubleSetter<T> {
+
+        void set(T target, double value);
+    }
+
+    /**
+     * Sets a long property of a target
+     *
+     * @param <T> the type of the target
+     */
+    @FunctionalInterface
+    public interface LongSetter<T> {
+
+        void set(T target, long value);
+    }
+
+    /**
+     * Sets an int property of a target
+     *
+     * @param <T> the type of the target
+     */
+    @FunctionalInterface
+    public interface IntSetter<T> {
+
+        void set(T target, int value);
+    }
+
+    private static final byte DOUBLE = 0;
+    private static final byte LONG = 1;
+    private static final byte INT = 2;
+    private static final int DEFAULT_CAPACITY = 16;
+    private static final long ROW_SIZE = 24;
+
+    private final History owner;
+    final Action marker = new Marker();
+
+    private Object[] setters = new Object[8];
+    private byte[] kinds = new byte[8];
+    private int propertyCount;
+    private Object[] targetTable = new Object[8];
+    private int targetCount;
+
+    private int[] properties = new int[DEFAULT_CAPACITY];
+    private int[] targets = new int[DEFAULT_CAPACITY];
+    private long[] oldValues = new long[DEFAULT_CAPACITY];
+    private long[] newValues = new long[DEFAULT_CAPACITY];
+    private int head;
+    private int undoRows;
+    private int redoRows;
+
+    PropertyLane(History owner) {
+        this.owner = owner;
+    }
+
+    /**
+     * Registers a property holding a double
+     *
+     * @param setter sets the property of a target
+     * @param <T>    the type of the targets
+     * @return the number of the property to pass to {@link #setDouble(int, int, double, double)}
+     */
+    public <T> int addDoubleProperty(@NotNull DoubleSetter<T> setter) {
+        return addProperty(setter, DOUBLE);
+    }
+
+    /**
+     * Registers a property holding a long
+     *
+     * @param setter sets the property of a target
+     * @param <T>    the type of the targets
+     * @return the number of the property to pass to {@link #setLong(int, int, long, long)}
+     */
+    public <T> int addLongProperty(@NotNull LongSetter<T> setter) {
+        return addProperty(setter, LONG);
+    }
+
+    /**
+     * Registers a property holding an int
+     *
+     * @param setter sets the property of a target
+     * @param <T>    the type of the targets
+     * @return the number of the property to pass to {@link #setInt(int, int, int, int)}
+     */
+    public <T> int addIntProperty(@NotNull IntSetter<T> setter) {
+        return addProperty(setter, INT);
+    }
+
+    /**
+     * Registers an object whose properties will be changed. The object must
+     * be of the type expected by the setters of those properties
+     *
+     * @param target the object
+     * @return the number of the target to pass to the set methods
+     */
+    public int addTarget(@NotNull Object target) {
+        return owner.withLock(() -> {
+            if (targetCount == targetTable.length) {
+                targetTable = Arrays.copyOf(targetTable, targetCount * 2);
+            }
+            targetTable[targetCount] = target;
+            return targetCount++;
+        });
+    }
+
+    /**
+     * Sets a double property to a new value and records the change, like
+     * {@link History#registerActionAndExecute(Action)} does for an action
+     *
+     * @param property the number returned by {@link #addDoubleProperty(DoubleSetter)}
+     * @param target   the number returned by {@link #addTarget(Object)}
+     * @param oldValue the value to set when the change is undone
+     * @param newValue the value to set now and when the change is redone
+     */
+    public void setDouble(int property, int target, double oldValue, double newValue) {
+        owner.recordPropertyChange(this, property, target, DOUBLE,
+                                   Double.doubleToRawLongBits(oldValue),
+                                   Double.doubleToRawLongBits(newValue));
+    }
+
+    /**
+     * Sets a long property to a new value and records the change
+     *
+     * @param property the number returned by {@link #addLongProperty(LongSetter)}
+     * @param target   the number returned by {@link #addTarget(Object)}
+     * @param oldValue the value to set when the change is undone
+     * @param newValue the value to set now and when the change is redone
+     * @see #setDouble(int, int, double, double)
+     */
+    public void setLong(int property, int target, long oldValue, long newValue) {
+        owner.recordPropertyChange(this, property, target, LONG, oldValue, newValue);
+    }
+
+    /**
+     * Sets an int property to a new value and records the change
+     *
+     * @param property the number returned by {@link #addIntProperty(IntSetter)}
+     * @param target   the number returned by {@link #addTarget(Object)}
+     * @param oldValue the value to set when the change is undone
+     * @param newValue the value to set now and when the change is redone
+     * @see #setDouble(int, int, double, double)
+     */
+    public void setInt(int property, int target, int oldValue, int newValue) {
+        owner.recordPropertyChange(this, property, target, INT, oldValue, newValue);
+    }
+
+    /**
+     * Returns the number of changes stored, both undo-able and redo-able
+     *
+     * @return the number of rows in the lane
+     */
+    public int size() {
+        return owner.withLock(() -> undoRows + redoRows);
+    }
+
+    private int addProperty(Object setter, byte kind) {
+        return owner.withLock(() -> {
+            if (propertyCount == setters.length) {
+                setters = Arrays.copyOf(setters, propertyCount * 2);
+                kinds = Arrays.copyOf(kinds, propertyCount * 2);
+            }
+            setters[propertyCount] = setter;
+            kinds[propertyCount] = kind;
+            return propertyCount++;
+        });
+    }
+
+    /**
+     * Checks that a change refers to a registered property of the right
+     * kind and a registered target. Called while holding the lock
+     */
+    void check(int property, int target, byte kind) {
+        if (property < 0 || property >= propertyCount || kinds[property] != kind) {
+            throw new IllegalArgumentException("Property " + property + " is not " +
+                                               "a registered " + kindName(kind) +
+                                               " property");
+        }
+        if (target < 0 || target >= targetCount) {
+            throw new IllegalArgumentException("Target " + target + " is not " +
+                                               "registered");
+        }
+    }
+
+    /**
+     * Adds a row on top of the undo side. The redo side has always been
+     * cleared by then, since the marker has just been pushed
+     */
+    void append(int property, int target, long oldValue, long newValue) {
+        if (undoRows == properties.length) {
+            resize(properties.length * 2);
+        }
+        int i = index(undoRows);
+        properties[i] = property;
+        targets[i] = target;
+        oldValues[i] = oldValue;
+        newValues[i] = newValue;
+        undoRows++;
+    }
+
+    void stepBack() {
+        undoRows--;
+        redoRows++;
+    }
+
+    void stepForward() {
+        undoRows++;
+        redoRows--;
+    }
+
+    void dropOldest() {
+        head = head + 1 == properties.length ? 0 : head + 1;
+        undoRows--;
+    }
+
+    void dropFarthestRedo() {
+        redoRows--;
+    }
+
+    void clearRedo() {
+        redoRows = 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void apply(int row, boolean redo) {
+        int i = index(row);
+        int property = properties[i];
+        Object target = targetTable[targets[i]];
+        long value = redo ? newValues[i] : oldValues[i];
+        switch (kinds[property]) {
+            case DOUBLE:
+                ((DoubleSetter<Object>) setters[property]).set(target, Double.longBitsToDouble(value));
+                break;
+            case LONG:
+                ((LongSetter<Object>) setters[property]).set(target, value);
+                break;
+            default:
+                ((IntSetter<Object>) setters[property]).set(target, (int) value);
+                break;
+        }
+    }
+
+    private void resize(int capacity) {
+        int size = undoRows + redoRows;
+        int[] p = new int[capacity];
+        int[] t = new int[capacity];
+        long[] o = new long[capacity];
+        long[] n = new long[capacity];
+        for (int r = 0; r < size; r++) {
+            int i = index(r);
+            p[r] = properties[i];
+            t[r] = targets[i];
+            o[r] = oldValues[i];
+            n[r] = newValues[i];
+        }
+        properties = p;
+        targets = t;
+        oldValues = o;
+        newValues = n;
+        head = 0;
+    }
+
+    private int index(int row) {
+        int i = head + row;
+        return i >= properties.length ? i - properties.length : i;
+    }
+
+    private static String kindName(byte kind) {
+        return kind == DOUBLE ? "double" : kind == LONG ? "long" : "int";
+    }
+
+    /**
+     * Stands in the undo and redo stacks for every row of the lane. History
+     * keeps the rows in step with the places of the marker, so executing,
+     * undoing or redoing the marker always applies the row next to the
+     * cursor
+     */
+    private final class Marker implements Action {
+
+        @Override
+        public void execute() {
+            apply(undoRows - 1, true);
+        }
+
+        @Override
+        public void undo() {
+            apply(undoRows - 1, false);
+        }
+
+        @Override
+        public void redo() {
+            apply(undoRows, true);
+        }
+
+        @Override
+        public long getEstimatedSize() {
+            return ROW_SIZE;
+        }
+
+        @Override
+        public String toString() {
+            return "PropertyLane row";
+        }
+    }
+}
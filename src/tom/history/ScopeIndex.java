@@ -0,0 +1,162 @@
+package tom.history;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+/**
+ * When several users or panes share one {@link History}, actions can give
+ * their {@link Action#getScope() scope} and {@link History#undoInScope(Object)}
+ * and {@link History#redoInScope(Object)} then undo and redo the actions of
+ * one scope only.
+ * <p>
+ * ScopeIndex keeps, for one scope, the places in the {@link History} of the
+ * undo-able actions that belong to it, so that
+ * {@link History#undoInScope(Object)} finds the most recent one without
+ * looking at the actions of other scopes.
+ * <p>
+ * Places are absolute, counted from the first action ever registered, so they
+ * stay the same as older actions are dropped. They are kept in ascending
+ * order. The index is only added to as actions are registered or redone and
+ * is never told when an action is undone or dropped, so {@link History}
+ * checks the last place against the stacks before using it and removes it
+ * if it no longer holds an action of the scope. Places older than the oldest
+ * action are trimmed whenever a place is added, so every place is added and
+ * removed at most once.
+ * <p>
+ * Alongside the places the index keeps the actions of the scope undone by
+ * {@link History#undoInScope(Object)}, most recent last, which is what
+ * {@link History#redoInScope(Object)} redoes.
+ * <p>
+ * This class is not thread safe. {@link History} guards every call with its
+ * own lock.
+ */
+final class ScopeIndex {
+
+    private long[] places = new long[4];
+    private int start;
+    private int end;
+    private ArrayDeque<Undone> undone;
+
+    /**
+     * Adds the place of an action that has just become the most recent
+     * undo-able action of the scope. Any place at or after it refers to an
+     * action that has since been undone and is removed, as is any place
+     * before the oldest action
+     *
+     * @param place  the place of the action
+     * @param oldest the place of the oldest undo-able action
+     */
+    void add(long place, long oldest) {
+        while (end > start && places[end - 1] >= place) {
+            end--;
+        }
+        while (start < end && places[start] < oldest) {
+            start++;
+        }
+        if (end == places.length) {
+            grow();
+        }
+        places[end++] = place;
+    }
+
+    /**
+     * Puts back the place of an action redone by
+     * {@link History#redoInScope(Object)}, keeping the places in order
+     *
+     * @param place the place of the action
+     */
+    void insert(long place) {
+        if (end == places.length) {
+            grow();
+        }
+        int i = end;
+        while (i > start && places[i - 1] > place) {
+            places[i] = places[i - 1];
+            i--;
+        }
+        places[i] = place;
+        end++;
+    }
+
+    boolean isEmpty() {
+        return start == end;
+    }
+
+    long last() {
+        return places[end - 1];
+    }
+
+    void removeLast() {
+        end--;
+    }
+
+    void clear() {
+        start = end = 0;
+    }
+
+    void pushUndone(Undone action) {
+        if (undone == null) {
+            undone = new ArrayDeque<>();
+        }
+        undone.addLast(action);
+    }
+
+    Undone peekUndone() {
+        return undone == null ? null : undone.peekLast();
+    }
+
+    void popUndone() {
+        undone.removeLast();
+    }
+
+    void clearUndone() {
+        if (undone != null) {
+            undone.clear();
+        }
+    }
+
+    private void grow() {
+        int size = end - start;
+        places = Arrays.copyOfRange(places, start, start + Math.max(size * 2, 4));
+        start = 0;
+        end = size;
+    }
+
+    /**
+     * Takes the place of an action undone by {@link History#undoInScope(Object)}
+     * while the actions after it stay done. It does nothing when undone or
+     * redone so {@link History#undo()} and {@link History#redo()} step over it
+     */
+    static final class Undone implements Action {
+
+        final Action action;
+        final long place;
+
+        Undone(Action action, long place) {
+            this.action = action;
+            this.place = place;
+        }
+
+        @Override
+        public void execute() {
+        }
+
+        @Override
+        public void undo() {
+        }
+
+        @Override
+        public void redo() {
+        }
+
+        @Override
+        public long getEstimatedSize() {
+            return action.getEstimatedSize();
+        }
+
+        @Override
+        public String toString() {
+            return "Undone[" + action + "]";
+        }
+    }
+}
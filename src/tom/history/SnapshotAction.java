@@ -0,0 +1,27 @@
+package tom.history;
+
+/**
+ * SnapshotAction is an {@link Action} that also remembers the complete state
+ * of whatever it changes as it was right after it was executed, such as the
+ * whole text of a document rather than only the part that was edited. Such
+ * actions act as checkpoints for {@link History#jumpTo(int)}, {@link History#undo(int)}
+ * and {@link History#redo(int)}.
+ * <p>
+ * When moving many steps through the history, {@link History} looks for the
+ * SnapshotAction closest to where it is going. If going through it is shorter
+ * than undoing or redoing every action on the way, it calls {@link #restoreSnapshot()}
+ * to jump straight to that point and then only undoes or redoes the actions
+ * between the checkpoint and where it is going. The actions that are skipped
+ * are not called at all.
+ * <p>
+ * Since a snapshot can be large it usually makes sense for only some actions,
+ * say every hundredth, to implement this interface.
+ */
+public interface SnapshotAction extends Action {
+
+    /**
+     * Puts everything back to the state it was in right after this action
+     * was executed or redone, no matter what has been undone or redone since
+     */
+    void restoreSnapshot();
+}
@@ -0,0 +1,278 @@
+package tom.history;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * SpillTier lets a {@link History} keep only its most recent actions in
+ * memory and move older ones to a file. Attach one with {@link History#setSpillTier(SpillTier)}.
+ * Whenever more than {@link #getHotSize()} actions can be undone, or the
+ * {@link History#setMemoryBudget(long) memory budget} is exceeded, the oldest
+ * actions are written to the file instead of being dropped. When undoing
+ * reaches them they are read back in batches. The first undo past the actions
+ * held in memory reads back one action and each following read during the
+ * same run of undos reads back twice as many, up to {@link #getReadAhead()},
+ * so a long run of undos reads the file in large sequential blocks.
+ * <p>
+ * The file works as a stack. Actions are appended at the end when they are
+ * moved out of memory and read back from the end, and when the {@link History#setLimit(int) limit}
+ * drops an action the start of the file is skipped. Once the skipped start is
+ * at least {@link #COMPACT_SIZE} bytes and larger than the actions still in the
+ * file, those actions are copied to the start and the file is cut short. So
+ * the dropped start never grows much past the larger of the two, and no more
+ * bytes are copied than have been dropped. Each action is stored as
+ * its length, the bytes written by the {@link ActionSerializer} and the length
+ * again, so that it can be read going either way. Only the actions on the undo
+ * side are moved to the file.
+ * <p>
+ * The file is a cache for a single run of the program and is truncated when it
+ * is opened. Use a {@link HistoryJournal} to keep the history across runs.
+ * <p>
+ * This class is not thread safe. The {@link History} it is attached to calls it
+ * while holding its lock.
+ */
+public class SpillTier implements Closeable {
+
+    private static final int LENGTH_SIZE = 4;
+    private static final int BLOCK_SIZE = 64 << 10;
+
+    /**
+     * The number of bytes of dropped actions at the start of the file at
+     * which it can be compacted
+     */
+    static final long COMPACT_SIZE = 1 << 20;
+
+    private final FileChannel channel;
+    private final ActionCodec codec;
+    private final int hotSize;
+    private int readAhead = 64;
+    private int nextBatch = 1;
+    private long bottom;
+    private long top;
+    private int count;
+    private byte[] block = new byte[BLOCK_SIZE];
+
+    /**
+     * Creates a spill tier writing to the given file, which is created if
+     * needed and emptied if it already exists
+     *
+     * @param file       the file to hold the older actions
+     * @param serializer used to write the actions to the file and read them back
+     * @param hotSize    how many undo-able actions to keep in memory, at least 1
+     * @throws IOException if the file cannot be opened
+     */
+    public SpillTier(@NotNull Path file, @NotNull ActionSerializer serializer, int hotSize)
+      throws IOException
+    {
+        if (hotSize < 1) {
+            throw new IllegalArgumentException("Hot size of a SpillTier must " +
+                                               "be at least 1");
+        }
+        this.channel = FileChannel.open(file, READ, WRITE, CREATE, TRUNCATE_EXISTING);
+        this.codec = new ActionCodec(serializer);
+        this.hotSize = hotSize;
+    }
+
+    /**
+     * Returns how many undo-able actions are kept in memory before older ones
+     * are moved to the file
+     *
+     * @return the number of actions kept in memory
+     */
+    public int getHotSize() {
+        return hotSize;
+    }
+
+    /**
+     * Returns the largest number of actions read back from the file at once
+     *
+     * @return the maximum read ahead
+     */
+    public int getReadAhead() {
+        return readAhead;
+    }
+
+    /**
+     * Sets the largest number of actions read back from the file at once
+     * during a long run of undos. The default is 64
+     *
+     * @param readAhead the maximum read ahead, at least 1
+     */
+    public void setReadAhead(int readAhead) {
+        if (readAhead < 1) {
+            throw new IllegalArgumentException("Read ahead must be at least 1");
+        }
+        this.readAhead = readAhead;
+    }
+
+    /**
+     * Returns the number of actions currently held in the file
+     *
+     * @return the number of spilled actions
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Closes the file
+     *
+     * @throws IOException if the file cannot be closed
+     */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Appends an action that is newer than every action already in the file
+     * and starts the read ahead over, since a new action means the run of
+     * undos has ended
+     *
+     * @param action the action to move out of memory
+     */
+    void push(Action action) {
+        try {
+            DataOutputStream out = codec.begin();
+            out.writeInt(0);
+            codec.write(action);
+            int length = codec.size() - LENGTH_SIZE;
+            out.writeInt(length);
+            ByteBuffer record = ByteBuffer.wrap(codec.buffer(), 0, codec.size());
+            record.putInt(0, length);
+            writeFully(record, top);
+            top += record.limit();
+            count++;
+            nextBatch = 1;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Reads back the newest actions in the file and removes them from it. The
+     * number read is 1 on the first call after {@link #push(Action)} and
+     * doubles with each call after that, up to the read ahead
+     *
+     * @param ring where to put the actions, each one older than everything
+     *             already in the ring
+     */
+    void faultInto(ActionRing ring) {
+        int batch = Math.min(nextBatch, count);
+        nextBatch = Math.min(nextBatch * 2, readAhead);
+        try {
+            while (batch > 0) {
+                long available = top - bottom;
+                int want = (int) Math.min(available, block.length);
+                readFully(ByteBuffer.wrap(block, 0, want), top - want);
+                ByteBuffer view = ByteBuffer.wrap(block);
+                int end = want;
+                while (batch > 0 && end >= LENGTH_SIZE) {
+                    int length = view.getInt(end - LENGTH_SIZE);
+                    int start = end - LENGTH_SIZE * 2 - length;
+                    if (length < 0 || LENGTH_SIZE * 2L + length > available) {
+                        throw new IOException("Spill file is corrupt");
+                    }
+                    if (start < 0) {
+                        if (end == want) {
+                            // a single action larger than the block
+                            block = new byte[LENGTH_SIZE * 2 + length];
+                        }
+                        break;
+                    }
+                    ring.pushOldest(codec.read(block, start + LENGTH_SIZE, length));
+                    top -= end - start;
+                    end = start;
+                    count--;
+                    batch--;
+                }
+            }
+            if (count == 0) {
+                top = 0;
+                bottom = 0;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Drops the oldest action in the file without reading it back
+     */
+    void dropOldest() {
+        try {
+            ByteBuffer length = ByteBuffer.allocate(LENGTH_SIZE);
+            readFully(length, bottom);
+            bottom += LENGTH_SIZE * 2 + length.getInt(0);
+            count--;
+            if (count == 0) {
+                top = 0;
+                bottom = 0;
+                channel.truncate(0);
+            } else if (bottom >= COMPACT_SIZE && bottom >= top - bottom) {
+                compact();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Returns the length of the file, including any dropped actions at its
+     * start that have not been compacted away yet
+     *
+     * @return the length of the file in bytes
+     * @throws IOException if the file cannot be read
+     */
+    long fileSize() throws IOException {
+        return channel.size();
+    }
+
+    /**
+     * Moves the actions still in the file to its start and cuts off the rest.
+     * Only called when the dropped start is at least as large as what is
+     * left, so each block is read before anything is written over it
+     */
+    private void compact() throws IOException {
+        long live = top - bottom;
+        for (long done = 0; done < live; ) {
+            int n = (int) Math.min(block.length, live - done);
+            ByteBuffer buffer = ByteBuffer.wrap(block, 0, n);
+            readFully(buffer, bottom + done);
+            buffer.flip();
+            writeFully(buffer, done);
+            done += n;
+        }
+        channel.truncate(live);
+        top = live;
+        bottom = 0;
+    }
+
+    private void writeFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int n = channel.read(buffer, position);
+            if (n < 0) {
+                throw new IOException("Spill file ended unexpectedly");
+            }
+            position += n;
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package tom.history;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
+
+/**
+ * StateAction is an {@link Action} that changes some state by replacing its
+ * value with a new one, and that remembers the change through a {@link Differ}
+ * instead of keeping the old and new values. Undoing and redoing read the
+ * current value, rebuild the value before or after the change from it and
+ * set that. For a text that is appended to again and again only each appended
+ * part is stored, so the memory held by the history grows with the total size
+ * of the edits rather than with the size of the text times the number of
+ * edits.
+ * <p>
+ * For example, to append a line to the text of a label
+ * <pre>{@code
+ * History.getInstance().registerActionAndExecute(new StateAction<>(
+ *   label::getText, label::setText, Differ.strings(), text -> text + "\n" + line));
+ * }</pre>
+ * The change must return a new value rather than modify the one it is given,
+ * and between this action and the ones around it the state must only be
+ * changed through actions in the same history, since undoing relies on the
+ * current value being the one the change produced.
+ *
+ * @param <T> the type of the state
+ */
+public class StateAction<T> implements Action {
+
+    private final Supplier<T> getter;
+    private final Consumer<? super T> setter;
+    private final Differ<T> differ;
+    private final UnaryOperator<T> change;
+    private Differ.Delta<T> delta;
+
+    /**
+     * Creates an action that will change the state when it is executed
+     *
+     * @param getter reads the current value of the state
+     * @param setter sets the value of the state
+     * @param differ works out the change between the old and new values
+     * @param change returns the new value given the current one
+     */
+    public StateAction(@NotNull Supplier<T> getter, @NotNull Consumer<? super T> setter,
+                       @NotNull Differ<T> differ, @NotNull UnaryOperator<T> change)
+    {
+        this.getter = getter;
+        this.setter = setter;
+        this.differ = differ;
+        this.change = change;
+    }
+
+    /**
+     * Works out the new value from the current one, remembers the difference
+     * and sets the new value
+     */
+    @Override
+    public void execute() {
+        T before = getter.get();
+        T after = change.apply(before);
+        delta = differ.diff(before, after);
+        setter.accept(after);
+    }
+
+    /**
+     * Sets the value the state had before {@link #execute()}
+     */
+    @Override
+    public void undo() {
+        setter.accept(delta().revert(getter.get()));
+    }
+
+    /**
+     * Sets the value the state had after {@link #execute()}
+     */
+    @Override
+    public void redo() {
+        setter.accept(delta().apply(getter.get()));
+    }
+
+    /**
+     * Returns the size of the stored difference, or 0 before the action has
+     * been executed
+     *
+     * @return the estimated number of bytes retained by this action
+     */
+    @Override
+    public long getEstimatedSize() {
+        return delta == null ? 0 : delta.getEstimatedSize();
+    }
+
+    private Differ.Delta<T> delta() {
+        if (delta == null) {
+            throw new IllegalStateException("StateAction must be executed " +
+                                            "before it is undone or redone");
+        }
+        return delta;
+    }
+}
@@ -0,0 +1,163 @@
+package tom.history;
+
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * TimingWheel wakes up each {@link History} with a {@link History#setMaxAge(long, TimeUnit) maximum age}
+ * when its oldest action is due to expire. Every tom.history.History in the
+ * program shares the one wheel and its single daemon thread, which drops the
+ * expired actions a batch at a time, taking the lock of the
+ * tom.history.History only briefly for each batch.
+ * <p>
+ * It is a hashed timing wheel: a circular array of buckets, one per tick of
+ * {@link #TICK} nanoseconds. A wake up due in {@code n} ticks goes into bucket
+ * {@code (current + n) mod size} along with the number of whole turns of the
+ * wheel still to wait, so scheduling takes constant time and each tick only
+ * looks at the wake ups in one bucket however many are waiting. A wake up is
+ * never early and is at most one tick late.
+ * <p>
+ * Each tom.history.History has at most one wake up in the wheel at a time and
+ * is held through a {@link WeakReference}, so a tom.history.History that is no
+ * longer used is collected and its wake up is dropped when it comes due. The
+ * thread parks without a timeout while the wheel is empty.
+ */
+final class TimingWheel {
+
+    /**
+     * The length of one tick in nanoseconds
+     */
+    static final long TICK = TimeUnit.MILLISECONDS.toNanos(100);
+
+    static final TimingWheel INSTANCE = new TimingWheel();
+
+    private static final int SIZE = 512;
+    private static final long START = System.nanoTime();
+
+    private final ConcurrentLinkedQueue<Entry> added = new ConcurrentLinkedQueue<>();
+    private final Entry[] buckets = new Entry[SIZE];
+    private Thread thread;
+    private volatile boolean parked;
+    private int count;
+    private long tick;
+
+    private TimingWheel() {
+    }
+
+    /**
+     * Returns the time of the wheel, counted in nanoseconds from some fixed
+     * point. It is always greater than 0 so 0 can stand for no time at all
+     *
+     * @return the current time in nanoseconds
+     */
+    static long now() {
+        return System.nanoTime() - START + 1;
+    }
+
+    /**
+     * Schedules a call to {@link History#expire(long)} with the given
+     * deadline once the time of the wheel has reached it. A deadline that has
+     * already passed is called on the next tick
+     *
+     * @param history  the tom.history.History to wake up
+     * @param deadline the time of the wheel to wake it up at
+     */
+    void schedule(History history, long deadline) {
+        added.offer(new Entry(history, deadline));
+        Thread t;
+        synchronized (this) {
+            if (thread == null) {
+                thread = new Thread(this::run, "History-sweeper");
+                thread.setDaemon(true);
+                thread.start();
+            }
+            t = thread;
+        }
+        if (parked) {
+            LockSupport.unpark(t);
+        }
+    }
+
+    private void run() {
+        tick = now() / TICK;
+        while (true) {
+            transfer();
+            if (count == 0) {
+                parked = true;
+                if (added.isEmpty()) {
+                    LockSupport.park(this);
+                }
+                parked = false;
+                tick = Math.max(tick, now() / TICK);
+                continue;
+            }
+            long wait = (tick + 1) * TICK - now();
+            if (wait > 0) {
+                LockSupport.parkNanos(this, wait);
+                continue;
+            }
+            tick++;
+            fire(buckets[(int) (tick & (SIZE - 1))]);
+        }
+    }
+
+    /**
+     * Moves the wake ups scheduled since the last tick into their buckets
+     */
+    private void transfer() {
+        for (Entry e; (e = added.poll()) != null; ) {
+            long due = Math.max((e.deadline + TICK - 1) / TICK, tick + 1);
+            e.rounds = (due - tick - 1) / SIZE;
+            int b = (int) (due & (SIZE - 1));
+            e.next = buckets[b];
+            buckets[b] = e;
+            count++;
+        }
+    }
+
+    /**
+     * Calls every wake up in the bucket that has no turns left to wait and
+     * counts down the rest
+     */
+    private void fire(Entry first) {
+        int b = (int) (tick & (SIZE - 1));
+        Entry previous = null;
+        for (Entry e = first; e != null; e = e.next) {
+            if (e.rounds > 0) {
+                e.rounds--;
+                previous = e;
+                continue;
+            }
+            if (previous == null) {
+                buckets[b] = e.next;
+            } else {
+                previous.next = e.next;
+            }
+            count--;
+            History history = e.history.get();
+            if (history != null) {
+                try {
+                    history.expire(e.deadline);
+                } catch (RuntimeException | Error t) {
+                    Thread current = Thread.currentThread();
+                    current.getUncaughtExceptionHandler().uncaughtException(current, t);
+                }
+            }
+        }
+    }
+
+    private static final class Entry {
+
+        final WeakReference<History> history;
+        final long deadline;
+        long rounds;
+        Entry next;
+
+        Entry(History history, long deadline) {
+            this.history = new WeakReference<>(history);
+            this.deadline = deadline;
+        }
+    }
+}
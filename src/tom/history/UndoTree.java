@@ -0,0 +1,176 @@
+package tom.history;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * UndoTree keeps the {@link Branch}es of a {@link History} that is branching.
+ * It holds the branches that split off from the current path, which in turn
+ * hold their own children, along with the number of actions and the estimated
+ * size of all of them so that the limit and memory budget of the History can
+ * be applied to the whole tree.
+ * <p>
+ * Where a branch splits off is stored as an absolute depth, the number of
+ * actions registered before it along its path counting ones that have since
+ * been dropped from the oldest end. These depths do not change as the oldest
+ * actions are dropped or as the cursor moves, so nothing needs updating when
+ * that happens.
+ * <p>
+ * This class is not thread safe. {@link History} only calls it while holding
+ * its lock.
+ */
+final class UndoTree {
+
+    private final History owner;
+    final List<Branch> roots = new ArrayList<>();
+    long actions;
+    long retained;
+
+    UndoTree(History owner) {
+        this.owner = owner;
+    }
+
+    /**
+     * Stores the redo side of the ring as a branch splitting off at the given
+     * depth, which must be the depth of the cursor. Branches splitting off
+     * from any of those actions become its children. At most {@code limit}
+     * actions are kept, if there is a limit
+     *
+     * @param ring  the ring whose redo side to store, which is left unchanged
+     * @param depth the absolute depth of the cursor
+     * @param limit the limit of the History or -1 for none
+     */
+    void stash(ActionRing ring, long depth, int limit) {
+        int available = ring.redoSize();
+        if (available == 0) {
+            return;
+        }
+        int n = limit > 0 ? Math.min(available, limit) : available;
+        Action[] run = new Action[n];
+        for (int i = 0; i < n; i++) {
+            run[i] = ring.get(ring.undoSize() + i);
+            if (run[i] == null) {
+                // reclaimed, so the rest of the run cannot be redone either
+                run = Arrays.copyOf(run, i);
+                break;
+            }
+        }
+        if (run.length == 0) {
+            return;
+        }
+        Branch branch = new Branch(owner, run, depth);
+        for (Iterator<Branch> it = roots.iterator(); it.hasNext(); ) {
+            Branch b = it.next();
+            if (b.forkDepth > depth && b.forkDepth <= depth + available) {
+                it.remove();
+                if (b.forkDepth <= depth + n) {
+                    b.parent = branch;
+                    branch.children.add(b);
+                } else {
+                    drop(b);
+                }
+            }
+        }
+        roots.add(branch);
+        actions += n;
+        retained += branch.retained;
+    }
+
+    /**
+     * Makes a branch splitting off at the cursor the new redo side of the
+     * ring. Whatever was on the redo side is stored as a branch first. The
+     * children of the branch now split off from the current path
+     *
+     * @param branch the branch to bring back, splitting off at the cursor
+     * @param ring   the ring to put the actions into
+     * @param depth  the absolute depth of the cursor
+     * @param limit  the limit of the History or -1 for none
+     */
+    void swapIn(Branch branch, ActionRing ring, long depth, int limit) {
+        stash(ring, depth, limit);
+        ring.clearRedo();
+        roots.remove(branch);
+        branch.alive = false;
+        actions -= branch.actions.length;
+        retained -= branch.retained;
+        for (Branch child : branch.children) {
+            child.parent = null;
+            roots.add(child);
+        }
+        branch.children.clear();
+        for (Action a : branch.actions) {
+            ring.appendRedo(a);
+        }
+    }
+
+    /**
+     * Drops every branch that splits off outside of the current path, which
+     * happens when the actions it split off from have been dropped
+     *
+     * @param base the absolute depth of the oldest point that can be undone to
+     * @param end  the absolute depth after the farthest redo-able action
+     */
+    void prune(long base, long end) {
+        for (Iterator<Branch> it = roots.iterator(); it.hasNext(); ) {
+            Branch b = it.next();
+            if (b.forkDepth < base || b.forkDepth > end) {
+                it.remove();
+                drop(b);
+            }
+        }
+    }
+
+    /**
+     * Drops the branches splitting off the earliest until no more than
+     * {@code limit} actions are kept in branches
+     *
+     * @param limit the limit of the History or -1 for none
+     */
+    void enforceLimit(int limit) {
+        while (limit > 0 && actions > limit && dropOldest()) {
+            // keep dropping
+        }
+    }
+
+    /**
+     * Drops the branch that splits off the earliest along with its children
+     *
+     * @return false if there were no branches to drop
+     */
+    boolean dropOldest() {
+        if (roots.isEmpty()) {
+            return false;
+        }
+        Branch oldest = roots.get(0);
+        for (Branch b : roots) {
+            if (b.forkDepth < oldest.forkDepth) {
+                oldest = b;
+            }
+        }
+        roots.remove(oldest);
+        drop(oldest);
+        return true;
+    }
+
+    /**
+     * Drops every branch
+     */
+    void clear() {
+        for (Branch b : roots) {
+            drop(b);
+        }
+        roots.clear();
+    }
+
+    private void drop(Branch branch) {
+        branch.alive = false;
+        actions -= branch.actions.length;
+        retained -= branch.retained;
+        for (Branch child : branch.children) {
+            drop(child);
+        }
+        branch.children.clear();
+    }
+}
@@ -0,0 +1,232 @@
+package tom.history;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * WorkloadRecorder writes the calls made on a {@link History} to a trace file
+ * so that the same workload can be run again by a {@link WorkloadReplayer},
+ * for instance to reproduce a performance problem seen in the field or to
+ * use as a regression benchmark. Attach a recorder with
+ * {@link History#setRecorder(WorkloadRecorder)}.
+ * <p>
+ * While attached it records every call to {@link History#registerAction(Action)},
+ * {@link History#registerActionAndExecute(Action)}, {@link History#undo()},
+ * {@link History#redo()} and {@link History#setLimit(int)}, in the order the
+ * tom.history.History carried them out, along with when each call started,
+ * how long the action took to execute, undo or redo and the
+ * {@link Action#getEstimatedSize() estimated size} of each action
+ * registered. The actions themselves are not recorded. The limit in force is
+ * recorded when the recorder is attached. The other ways of changing the
+ * stacks are recorded as the calls that have the same effect:
+ * {@link History#undo(int)}, {@link History#redo(int)} and
+ * {@link History#jumpTo(int)} as one undo or redo per action, the
+ * asynchronous operations and those of a {@link HistorySequencer} as the
+ * matching call, and {@link History#registerAll(java.util.Collection)} and
+ * {@link History#commit()} as the registration of one action.
+ * <p>
+ * Some changes cannot be replayed by calls on a {@link History} of synthetic
+ * actions: undoing or redoing by scope, switching branch and an action
+ * absorbing another. When one of them is made the trace is marked as
+ * incomplete and nothing more is recorded, see {@link #isComplete()}.
+ * <p>
+ * The trace is compact: after a header, each call is a byte for the kind of
+ * call followed by its numbers as variable length integers, usually four to
+ * eight bytes a call in all. Calls are buffered and written by the thread
+ * making them, while it holds the lock of the tom.history.History. A
+ * tom.history.History without a recorder, the default, only checks a single
+ * field to find that there is nothing to record.
+ */
+public final class WorkloadRecorder implements Closeable {
+
+    /**
+     * The calls that are recorded
+     */
+    public enum Call {
+        REGISTER, EXECUTE, UNDO, REDO, SET_LIMIT
+    }
+
+    static final int MAGIC = 0x48574b4c;
+    static final int VERSION = 1;
+
+    /**
+     * Ends a trace that stopped being recorded before the recorder was closed
+     */
+    private static final int INCOMPLETE = 0xff;
+
+    private static final Call[] CALLS = Call.values();
+
+    private final DataOutputStream out;
+    private long last = -1;
+    private long records;
+    private boolean closed;
+    private boolean incomplete;
+
+    /**
+     * Creates the trace file, replacing any file already there
+     *
+     * @param file the trace file
+     * @throws IOException if the file cannot be created
+     */
+    public WorkloadRecorder(@NotNull Path file) throws IOException {
+        out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), 1 << 16));
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+    }
+
+    /**
+     * Returns the number of calls recorded
+     *
+     * @return the number of calls
+     */
+    public synchronized long getRecordCount() {
+        return records;
+    }
+
+    /**
+     * Returns whether every call made since the recorder was attached has
+     * been recorded. Once a change that cannot be replayed is made, the trace
+     * ends there and a {@link WorkloadReplayer} reports it as incomplete
+     *
+     * @return false if recording stopped early
+     */
+    public synchronized boolean isComplete() {
+        return !incomplete;
+    }
+
+    /**
+     * Writes the calls still buffered and closes the file. Calls made after
+     * this are not recorded
+     *
+     * @throws IOException if the file cannot be written or closed
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        closed = true;
+        out.close();
+    }
+
+    /**
+     * Records a call. Called by {@link History} while holding its lock
+     *
+     * @param call the kind of call
+     * @param cost how long the action took in nanoseconds, or the new
+     *             limit for {@link Call#SET_LIMIT}
+     * @param size the estimated size of the action registered, otherwise 0
+     */
+    synchronized void record(Call call, long cost, long size) {
+        if (closed || incomplete) {
+            return;
+        }
+        // the call is recorded once it has returned, so count back to its start
+        long now = System.nanoTime() - (call == Call.SET_LIMIT ? 0 : cost);
+        try {
+            out.writeByte(call.ordinal());
+            writeVarLong(out, last < 0 ? 0 : now - last);
+            if (call == Call.SET_LIMIT) {
+                writeVarLong(out, cost + 1);
+            } else if (call == Call.REGISTER) {
+                writeVarLong(out, size);
+            } else {
+                writeVarLong(out, cost);
+                if (call == Call.EXECUTE) {
+                    writeVarLong(out, size);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        last = now;
+        records++;
+    }
+
+    /**
+     * Stops recording because a change was made that the calls of a trace
+     * cannot repeat, and marks the end of the trace as incomplete. Called by
+     * {@link History} while holding its lock
+     */
+    synchronized void stop() {
+        if (closed || incomplete) {
+            return;
+        }
+        incomplete = true;
+        try {
+            out.writeByte(INCOMPLETE);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Reads the next call of a trace into {@code into}: the kind of call, the
+     * nanoseconds since the call before it, the cost or limit and the size
+     *
+     * @param in   the trace, after its header
+     * @param into receives the numbers of the call
+     * @return the kind of call or null at the end of the trace, in which case
+     * the first number is -1 if the trace was marked incomplete and 0 otherwise
+     * @throws IOException if the trace cannot be read or is damaged
+     */
+    static Call read(DataInputStream in, long[] into) throws IOException {
+        int kind = in.read();
+        if (kind < 0 || kind == INCOMPLETE) {
+            into[0] = kind < 0 ? 0 : -1;
+            return null;
+        }
+        if (kind >= CALLS.length) {
+            throw new IOException("Unknown call " + kind + " in trace");
+        }
+        Call call = CALLS[kind];
+        into[0] = readVarLong(in);
+        into[1] = 0;
+        into[2] = 0;
+        if (call == Call.SET_LIMIT) {
+            into[1] = readVarLong(in) - 1;
+        } else if (call == Call.REGISTER) {
+            into[2] = readVarLong(in);
+        } else {
+            into[1] = readVarLong(in);
+            if (call == Call.EXECUTE) {
+                into[2] = readVarLong(in);
+            }
+        }
+        return call;
+    }
+
+    /**
+     * Writes a value that is not negative seven bits at a time, lowest first,
+     * with the top bit of each byte set if more follow
+     */
+    private static void writeVarLong(DataOutputStream out, long value) throws IOException {
+        long v = Math.max(0, value);
+        while (v >= 0x80) {
+            out.writeByte((int) (v & 0x7f) | 0x80);
+            v >>>= 7;
+        }
+        out.writeByte((int) v);
+    }
+
+    private static long readVarLong(DataInputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.read();
+            if (b < 0) {
+                throw new EOFException("Trace ends in the middle of a call");
+            }
+            value |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed number in trace");
+    }
+}
@@ -0,0 +1,295 @@
+package tom.history;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * WorkloadReplayer runs a trace written by a {@link WorkloadRecorder} against
+ * a {@link History}, with synthetic actions standing in for the recorded
+ * ones, and reports how quickly the history got through it. It needs no user
+ * interface, so it can be run from a build as a regression benchmark:
+ * <pre>{@code
+ * java -cp history.jar tom.history.WorkloadReplayer trace.bin [--paced]
+ * }</pre>
+ * Each synthetic action holds an array of the recorded estimated size and
+ * reports that size, and spins for the recorded time whenever it is executed,
+ * undone or redone. The calls are made one at a time on the calling thread in
+ * the recorded order, so replaying the same trace always does the same work.
+ * <p>
+ * By default the calls are made as fast as possible, which measures
+ * throughput. With {@link #setPaced(boolean)} each call is instead made when
+ * it was recorded, relative to the start of the trace. The latency of a paced
+ * call is then measured from when it was meant to be made, so a call that
+ * has to wait for an earlier slow one counts that wait.
+ * <p>
+ * A trace that was marked incomplete by its recorder is replayed up to where
+ * recording stopped, and {@link Report#isComplete()} then returns false.
+ */
+public final class WorkloadReplayer {
+
+    private static final long SPIN = TimeUnit.MICROSECONDS.toNanos(50);
+
+    private final Path trace;
+    private boolean paced;
+    private long cost;
+
+    /**
+     * Creates a replayer of the given trace. Nothing is read until
+     * {@link #replay(History)} is called
+     *
+     * @param trace the trace file
+     */
+    public WorkloadReplayer(@NotNull Path trace) {
+        this.trace = trace;
+    }
+
+    /**
+     * Replays a trace on a new tom.history.History and prints the report
+     *
+     * @param args the trace file, optionally followed by {@code --paced}
+     * @throws IOException if the trace cannot be read
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0 || args.length > 2 ||
+            (args.length == 2 && !args[1].equals("--paced")))
+        {
+            System.err.println("Usage: WorkloadReplayer <trace> [--paced]");
+            System.exit(2);
+        }
+        WorkloadReplayer replayer = new WorkloadReplayer(Paths.get(args[0]));
+        replayer.setPaced(args.length == 2);
+        System.out.println(replayer.replay(new History()));
+    }
+
+    /**
+     * Returns whether calls are made at the recorded times
+     *
+     * @return true if paced, false if calls are made as fast as possible
+     */
+    public boolean isPaced() {
+        return paced;
+    }
+
+    /**
+     * Sets whether calls are made at the recorded times or as fast as
+     * possible, which is the default
+     *
+     * @param paced true to make each call at its recorded time
+     */
+    public void setPaced(boolean paced) {
+        this.paced = paced;
+    }
+
+    /**
+     * Makes the calls of the trace on the given tom.history.History and
+     * returns the throughput and latencies. The tom.history.History should be
+     * empty and set up, for instance with a memory budget, as the recorded one
+     * was
+     *
+     * @param history the tom.history.History to drive
+     * @return the report of the replay
+     * @throws IOException if the trace cannot be read or is not a trace
+     */
+    @NotNull
+    public Report replay(@NotNull History history) throws IOException {
+        Report report = new Report();
+        try (DataInputStream in = new DataInputStream(
+          new BufferedInputStream(Files.newInputStream(trace), 1 << 16)))
+        {
+            if (in.readInt() != WorkloadRecorder.MAGIC ||
+                in.readInt() != WorkloadRecorder.VERSION)
+            {
+                throw new IOException(trace + " is not a workload trace");
+            }
+            long[] numbers = new long[3];
+            long start = System.nanoTime();
+            long due = start;
+            WorkloadRecorder.Call call;
+            while ((call = WorkloadRecorder.read(in, numbers)) != null) {
+                due += numbers[0];
+                if (paced) {
+                    waitUntil(due);
+                }
+                long began = paced ? due : System.nanoTime();
+                cost = numbers[1];
+                switch (call) {
+                    case REGISTER:
+                        history.registerAction(new SyntheticAction(numbers[2]));
+                        break;
+                    case EXECUTE:
+                        history.registerActionAndExecute(new SyntheticAction(numbers[2]));
+                        break;
+                    case UNDO:
+                        history.undo();
+                        break;
+                    case REDO:
+                        history.redo();
+                        break;
+                    default:
+                        history.setLimit((int) numbers[1]);
+                        break;
+                }
+                long ended = System.nanoTime();
+                report.latencies[call.ordinal()].record(ended - began);
+                report.all.record(ended - began);
+                report.elapsed = ended - start;
+            }
+            report.complete = numbers[0] >= 0;
+        }
+        return report;
+    }
+
+    private static void waitUntil(long due) {
+        long left;
+        while ((left = due - System.nanoTime()) > 0) {
+            if (left > SPIN) {
+                LockSupport.parkNanos(left - SPIN);
+            } else {
+                Thread.onSpinWait();
+            }
+        }
+    }
+
+    private static void spin(long nanos) {
+        long end = System.nanoTime() + nanos;
+        while (System.nanoTime() - end < 0) {
+            Thread.onSpinWait();
+        }
+    }
+
+    /**
+     * The throughput and latencies of one replay
+     */
+    public static final class Report {
+
+        private final LatencyHistogram all = new LatencyHistogram();
+        private final LatencyHistogram[] latencies = new LatencyHistogram[WorkloadRecorder.Call.values().length];
+        private long elapsed;
+        private boolean complete;
+
+        Report() {
+            for (int i = 0; i < latencies.length; i++) {
+                latencies[i] = new LatencyHistogram();
+            }
+        }
+
+        /**
+         * Returns the number of calls made
+         *
+         * @return the number of calls
+         */
+        public long getCallCount() {
+            return all.getCount();
+        }
+
+        /**
+         * Returns whether the whole workload was replayed. It is false if the
+         * recorder stopped recording part of the way, see
+         * {@link WorkloadRecorder#isComplete()}
+         *
+         * @return false if the trace was marked incomplete
+         */
+        public boolean isComplete() {
+            return complete;
+        }
+
+        /**
+         * Returns the time from the start of the replay to the end of the
+         * last call
+         *
+         * @return the elapsed time in nanoseconds
+         */
+        public long getElapsedNanos() {
+            return elapsed;
+        }
+
+        /**
+         * Returns the number of calls made per second
+         *
+         * @return the throughput or 0 if no calls were made
+         */
+        public double getThroughput() {
+            return elapsed == 0 ? 0 : all.getCount() * 1e9 / elapsed;
+        }
+
+        /**
+         * Returns the latencies of every call made
+         *
+         * @return the histogram of latencies
+         */
+        @NotNull
+        public LatencyHistogram getLatency() {
+            return all;
+        }
+
+        /**
+         * Returns the latencies of one kind of call
+         *
+         * @param call the kind of call
+         * @return the histogram of latencies
+         */
+        @NotNull
+        public LatencyHistogram getLatency(@NotNull WorkloadRecorder.Call call) {
+            return latencies[call.ordinal()];
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append("calls=").append(all.getCount())
+              .append(" elapsed=").append(TimeUnit.NANOSECONDS.toMillis(elapsed)).append("ms")
+              .append(" throughput=").append(Math.round(getThroughput())).append("/s")
+              .append(" p999=").append(all.getPercentileNanos(0.999)).append("ns")
+              .append(complete ? "" : " (incomplete trace)")
+              .append(System.lineSeparator()).append("all: ").append(all);
+            for (WorkloadRecorder.Call call : WorkloadRecorder.Call.values()) {
+                LatencyHistogram h = latencies[call.ordinal()];
+                if (h.getCount() > 0) {
+                    sb.append(System.lineSeparator()).append(call).append(": ").append(h);
+                }
+            }
+            return sb.toString();
+        }
+    }
+
+    /**
+     * Stands in for a recorded action, with its estimated size and the
+     * recorded time of the call being replayed
+     */
+    private final class SyntheticAction implements Action {
+
+        private final byte[] payload;
+
+        SyntheticAction(long size) {
+            payload = new byte[(int) Math.min(size, Integer.MAX_VALUE - 8)];
+        }
+
+        @Override
+        public void execute() {
+            spin(cost);
+        }
+
+        @Override
+        public void undo() {
+            spin(cost);
+        }
+
+        @Override
+        public void redo() {
+            spin(cost);
+        }
+
+        @Override
+        public long getEstimatedSize() {
+            return payload.length;
+        }
+    }
+}
@@ -7,6 +7,7 @@ import javafx.scene.layout.FlowPane;
 import javafx.stage.Stage;
 import tom.history.Action;
 import tom.history.History;
+import tom.history.fx.FxHistory;
 
 /**
  * @author Thomas Povinelli
@@ -27,8 +28,9 @@ public class AnotherTest extends Application {
         Button undo = new Button("undo");
         Button redo = new Button("redo");
 
-        History.getInstance().registerUndoButton(undo);
-        History.getInstance().registerRedoButton(redo);
+        FxHistory fx = FxHistory.of(History.getInstance());
+        fx.registerUndoButton(undo);
+        fx.registerRedoButton(redo);
 
         b.setOnAction(new EventHandler<ActionEvent>() {
             @Override
@@ -12,7 +12,11 @@ import javafx.scene.paint.Paint;
 import javafx.scene.text.Font;
 import javafx.stage.Stage;
 import tom.history.Action;
+import tom.history.Differ;
 import tom.history.History;
+import tom.history.PropertyLane;
+import tom.history.StateAction;
+import tom.history.fx.FxHistory;
 
 import java.util.Random;
 
@@ -41,8 +45,15 @@ public class SimplePracticalTest extends Application {
         Button test = new Button("Do Something else");
         Button dangerousButton = new Button("DO NOT CLICK ME");
 
-        History.getInstance().registerUndoButton(undo);
-        History.getInstance().registerRedoButton(redo);
+        FxHistory fx = FxHistory.of(History.getInstance());
+        fx.registerUndoButton(undo);
+        fx.registerRedoButton(redo);
+
+        // font size changes are stored as rows of the property lane
+        PropertyLane lane = History.getInstance().getPropertyLane();
+        int fontSize = lane.addDoubleProperty((Label label, double size) ->
+          label.setFont(Font.font(label.getFont().getFamily(), size)));
+        int label = lane.addTarget(l);
 
         dangerousButton.setOnAction( event -> {
             Action a = new Action() {
@@ -142,34 +153,13 @@ public class SimplePracticalTest extends Application {
 
         button.setOnAction(event ->
         {
-            Action a = new Action() {
-
-                private String previous;
-                private String redoData;
-
-                @Override
-                public void execute()
-                {
-                    previous = l.getText();
-                    String text = t.getText();
-                    l.setText(l.getText() + "\n" + text);
-                    t.clear();
-                    t.requestFocus();
-                    redoData = l.getText();
-                }
-
-                @Override
-                public void undo()
-                {
-                    l.setText(previous);
-                }
-
-                public void redo()
-                {
-                    l.setText(redoData);
-                }
-            };
+            // only the appended line is stored, not the whole label text
+            String text = t.getText();
+            Action a = new StateAction<>(l::getText, l::setText,
+              Differ.strings(), previous -> previous + "\n" + text);
             History.getInstance().registerActionAndExecute(a);
+            t.clear();
+            t.requestFocus();
         });
 
         // ACQUIRES NO LOCK
@@ -186,29 +176,8 @@ public class SimplePracticalTest extends Application {
         {
             if (event.getCode() == KeyCode.EQUALS && event.isShiftDown()) {
                 l.requestFocus();
-                Action a = new Action() {
-
-                    private double previousSize;
-
-                    @Override
-                    public void execute() {
-                        previousSize = l.getFont().getSize();
-                        l.setFont(Font.font(l.getFont().getFamily(),
-                          previousSize * 1.25));
-                    }
-
-                    @Override
-                    public void undo() {
-                        l.setFont(
-                          Font.font(l.getFont().getFamily(), previousSize));
-                    }
-
-                    @Override
-                    public void redo() {
-                        execute();
-                    }
-                };
-                History.getInstance().registerActionAndExecute(a);
+                double size = l.getFont().getSize();
+                lane.setDouble(fontSize, label, size, size * 1.25);
             }
 
         });
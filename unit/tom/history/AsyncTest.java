@@ -0,0 +1,211 @@
+package tom.history;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AsyncTest {
+
+    @Test
+    void operationsRunInOrder() throws Exception {
+        History history = new History();
+        Counter c = new Counter();
+        history.registerActionAndExecuteAsync(c.add(1));
+        history.registerActionAndExecuteAsync(c.add(2));
+        history.undoAsync();
+        CompletableFuture<Boolean> last = history.redoAsync();
+        assertTrue(last.get(10, TimeUnit.SECONDS));
+        assertEquals(List.of("execute 1", "execute 2", "undo 2", "redo 2"), c.log);
+        assertEquals(2, history.undoSize());
+        assertEquals(3, c.value);
+    }
+
+    @Test
+    void nothingToUndo() throws Exception {
+        History history = new History();
+        assertFalse(history.undoAsync().get(10, TimeUnit.SECONDS));
+        assertFalse(history.redoAsync().get(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void failedExecuteRegistersNothing() throws Exception {
+        History history = new History();
+        CompletableFuture<Boolean> f = history.registerActionAndExecuteAsync(new Blocking(true));
+        ExecutionException e = assertThrows(ExecutionException.class,
+                                            () -> f.get(10, TimeUnit.SECONDS));
+        assertInstanceOf(IllegalStateException.class, e.getCause());
+        assertEquals(0, history.undoSize());
+    }
+
+    @Test
+    void timedOutUndoLeavesActionToUndo() throws Exception {
+        History history = new History();
+        Blocking action = new Blocking(false);
+        history.registerAction(action);
+        CompletableFuture<Boolean> f = history.undoAsync(50, TimeUnit.MILLISECONDS);
+        ExecutionException e = assertThrows(ExecutionException.class,
+                                            () -> f.get(10, TimeUnit.SECONDS));
+        assertInstanceOf(TimeoutException.class, e.getCause());
+        assertTrue(action.finished.await(10, TimeUnit.SECONDS));
+        assertTrue(action.interrupted);
+        assertEquals(1, history.undoSize());
+        assertEquals(0, history.redoSize());
+        // the history is usable again once the action has given up
+        action.release.countDown();
+        assertTrue(history.undo());
+        assertEquals(1, history.redoSize());
+    }
+
+    @Test
+    void timedOutActionThatKeepsRunningIsSettledOnce() throws Exception {
+        History history = new History();
+        Counter c = new Counter();
+        history.registerActionAndExecute(c.add(1));
+        Stubborn slow = new Stubborn(c, 10, 500);
+        history.registerActionAndExecute(slow);
+        assertEquals(11, c.value);
+        CompletableFuture<Boolean> f = history.undoAsync(50, TimeUnit.MILLISECONDS);
+        ExecutionException e = assertThrows(ExecutionException.class,
+                                            () -> f.get(10, TimeUnit.SECONDS));
+        assertInstanceOf(TimeoutException.class, e.getCause());
+        // waits for the slow undo to return, which moves it to the redo stack
+        assertTrue(history.undo());
+        assertEquals(1, slow.undone);
+        assertEquals(0, c.value);
+        assertEquals(0, history.undoSize());
+        assertEquals(2, history.redoSize());
+        assertTrue(history.redo());
+        assertTrue(history.redo());
+        assertEquals(11, c.value);
+    }
+
+    @Test
+    void cancelledExecuteRegistersNothing() throws Exception {
+        History history = new History();
+        Counter c = new Counter();
+        Blocking action = new Blocking(false);
+        CompletableFuture<Boolean> f = history.registerActionAndExecuteAsync(action);
+        assertTrue(action.started.await(10, TimeUnit.SECONDS));
+        assertTrue(f.cancel(true));
+        assertTrue(action.finished.await(10, TimeUnit.SECONDS));
+        assertTrue(history.registerActionAndExecuteAsync(c.add(1)).get(10, TimeUnit.SECONDS));
+        assertEquals(1, history.undoSize());
+        assertEquals("Add 1", history.peekUndo().toString());
+    }
+
+    @Test
+    void callsWaitForRunningAction() throws Exception {
+        History history = new History();
+        Counter c = new Counter();
+        Blocking action = new Blocking(false);
+        CompletableFuture<Boolean> f = history.registerActionAndExecuteAsync(action);
+        assertTrue(action.started.await(10, TimeUnit.SECONDS));
+        CompletableFuture<Void> register = CompletableFuture.runAsync(
+          () -> history.registerActionAndExecute(c.add(1)));
+        Thread.sleep(100);
+        assertFalse(register.isDone());
+        action.release.countDown();
+        assertTrue(f.get(10, TimeUnit.SECONDS));
+        register.get(10, TimeUnit.SECONDS);
+        assertEquals(2, history.undoSize());
+        assertEquals("Add 1", history.peekUndo().toString());
+    }
+
+    /**
+     * An action that adds to a counter and spins for a while when undone,
+     * ignoring interrupts
+     */
+    private static final class Stubborn implements Action {
+
+        private final Counter counter;
+        private final int amount;
+        private final long millis;
+        volatile int undone;
+
+        Stubborn(Counter counter, int amount, long millis) {
+            this.counter = counter;
+            this.amount = amount;
+            this.millis = millis;
+        }
+
+        @Override
+        public void execute() {
+            counter.value += amount;
+        }
+
+        @Override
+        public void undo() {
+            long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+            while (System.nanoTime() - end < 0) {
+                Thread.onSpinWait();
+            }
+            counter.value -= amount;
+            undone++;
+        }
+
+        @Override
+        public void redo() {
+            counter.value += amount;
+        }
+    }
+
+    /**
+     * An action whose execute and undo wait until released or interrupted,
+     * or throw straight away
+     */
+    private static final class Blocking implements Action {
+
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch finished = new CountDownLatch(1);
+        final boolean fail;
+        volatile boolean interrupted;
+
+        Blocking(boolean fail) {
+            this.fail = fail;
+        }
+
+        @Override
+        public void execute() {
+            block();
+        }
+
+        @Override
+        public void undo() {
+            block();
+        }
+
+        @Override
+        public void redo() {
+            block();
+        }
+
+        private void block() {
+            started.countDown();
+            try {
+                if (fail) {
+                    throw new IllegalStateException("failed");
+                }
+                if (!release.await(10, TimeUnit.SECONDS)) {
+                    throw new IllegalStateException("never released");
+                }
+            } catch (InterruptedException e) {
+                interrupted = true;
+                throw new IllegalStateException("interrupted", e);
+            } finally {
+                finished.countDown();
+            }
+        }
+    }
+}
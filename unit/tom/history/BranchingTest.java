@@ -0,0 +1,126 @@
+package tom.history;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BranchingTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void registeringAfterUndoKeepsBranch() {
+        History history = new History();
+        Counter c = new Counter();
+        history.setBranching(true);
+        history.registerActionAndExecute(c.add(1));
+        history.registerActionAndExecute(c.add(2));
+        history.undo();
+        history.registerActionAndExecute(c.add(3));
+        List<Branch> branches = history.getBranches();
+        assertEquals(1, branches.size());
+        assertEquals(1, branches.get(0).size());
+        assertEquals(4, c.value);
+    }
+
+    @Test
+    void switchingBranchRestoresUndoneActions() {
+        History history = new History();
+        Counter c = new Counter();
+        history.setBranching(true);
+        history.registerActionAndExecute(c.add(1));
+        history.registerActionAndExecute(c.add(2));
+        history.undo();
+        history.registerActionAndExecute(c.add(3));
+        history.switchBranch(history.getBranches().get(0));
+        assertEquals(1, c.value);
+        assertTrue(history.redo());
+        assertEquals(3, c.value);
+        assertEquals("Add 2", history.peekUndo().toString());
+        // the path just left is now a branch of its own
+        assertEquals(1, history.getBranches().size());
+        history.switchBranch(history.getBranches().get(0));
+        assertTrue(history.redo());
+        assertEquals(4, c.value);
+    }
+
+    @Test
+    void switchedBranchIsNoLongerAlive() {
+        History history = new History();
+        Counter c = new Counter();
+        history.setBranching(true);
+        history.registerActionAndExecute(c.add(1));
+        history.undo();
+        history.registerActionAndExecute(c.add(2));
+        Branch branch = history.getBranches().get(0);
+        history.switchBranch(branch);
+        assertThrows(IllegalArgumentException.class, () -> history.switchBranch(branch));
+    }
+
+    @Test
+    void turningBranchingOffDropsBranches() {
+        History history = new History();
+        Counter c = new Counter();
+        history.setBranching(true);
+        history.registerActionAndExecute(c.add(1));
+        history.undo();
+        history.registerActionAndExecute(c.add(2));
+        history.setBranching(false);
+        assertFalse(history.isBranching());
+        assertTrue(history.getBranches().isEmpty());
+    }
+
+    @Test
+    void journalReplaysSwitchedBranch() throws IOException {
+        Path file = dir.resolve("journal");
+        Counter c = new Counter();
+        History history = new History();
+        history.setBranching(true);
+        try (HistoryJournal journal = new HistoryJournal(file, c.serializer())) {
+            history.setJournal(journal);
+            history.registerActionAndExecute(c.add(1));
+            history.registerActionAndExecute(c.add(2));
+            history.undo();
+            history.registerActionAndExecute(c.add(3));
+            history.switchBranch(history.getBranches().get(0));
+            history.redo();
+            assertEquals("Add 2", history.peekUndo().toString());
+        }
+
+        History replayed = new History();
+        try (HistoryJournal journal = new HistoryJournal(file, c.serializer())) {
+            replayed.setJournal(journal);
+            assertEquals(history.undoSize(), replayed.undoSize());
+            assertEquals(history.redoSize(), replayed.redoSize());
+            assertEquals("Add 2", replayed.peekUndo().toString());
+            replayed.undo();
+            replayed.undo();
+            assertFalse(replayed.canUndo());
+        }
+    }
+
+    @Test
+    void branchBelongsToItsHistory() {
+        History one = new History();
+        History two = new History();
+        Counter c = new Counter();
+        one.setBranching(true);
+        two.setBranching(true);
+        one.registerActionAndExecute(c.add(1));
+        one.undo();
+        one.registerActionAndExecute(c.add(2));
+        Branch branch = one.getBranches().get(0);
+        assertThrows(IllegalArgumentException.class, () -> two.switchBranch(branch));
+        assertSame(branch, one.getBranches().get(0));
+    }
+}
@@ -0,0 +1,16 @@
+package tom.history;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ButtonForwardingTest {
+
+    @Test
+    @SuppressWarnings("deprecation")
+    void needsFxModule() {
+        History history = new History();
+        assertThrows(IllegalStateException.class, () -> history.registerUndoButton(null));
+        assertThrows(IllegalStateException.class, () -> history.registerRedoButton(new Object()));
+    }
+}
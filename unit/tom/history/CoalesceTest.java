@@ -0,0 +1,127 @@
+package tom.history;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CoalesceTest {
+
+    @Test
+    void failedExecuteRegistersNothingWithoutCoalescing() {
+        failedExecuteRegistersNothing(0);
+    }
+
+    @Test
+    void failedExecuteRegistersNothingWithCoalescing() {
+        failedExecuteRegistersNothing(1);
+    }
+
+    private void failedExecuteRegistersNothing(long window) {
+        History history = new History();
+        history.setCoalesceWindow(window, TimeUnit.HOURS);
+        Counter c = new Counter();
+        history.registerActionAndExecute(c.add(1));
+        history.registerActionAndExecute(c.add(2));
+        history.undo();
+        assertThrows(IllegalStateException.class,
+                     () -> history.registerActionAndExecute(new Failing()));
+        assertEquals(1, history.undoSize());
+        assertEquals(1, history.redoSize());
+        assertTrue(history.redo());
+        assertEquals(3, c.value);
+    }
+
+    @Test
+    void actionsWithinWindowAreMerged() {
+        History history = new History();
+        history.setCoalesceWindow(1, TimeUnit.HOURS);
+        Typing typing = new Typing();
+        for (char ch : "hello".toCharArray()) {
+            history.registerActionAndExecute(typing.type(ch));
+        }
+        assertEquals(1, history.undoSize());
+        history.undo();
+        assertEquals("", typing.text.toString());
+        history.redo();
+        assertEquals("hello", typing.text.toString());
+    }
+
+    @Test
+    void undoEndsMerging() {
+        History history = new History();
+        history.setCoalesceWindow(1, TimeUnit.HOURS);
+        Typing typing = new Typing();
+        history.registerActionAndExecute(typing.type('a'));
+        history.registerActionAndExecute(typing.type('b'));
+        history.undo();
+        history.redo();
+        history.registerActionAndExecute(typing.type('c'));
+        assertEquals(2, history.undoSize());
+        history.undo();
+        assertEquals("ab", typing.text.toString());
+    }
+
+    private static final class Failing implements Action {
+
+        @Override
+        public void execute() {
+            throw new IllegalStateException("execute failed");
+        }
+
+        @Override
+        public void undo() {
+        }
+
+        @Override
+        public void redo() {
+        }
+    }
+
+    private static final class Typing {
+
+        final StringBuilder text = new StringBuilder();
+
+        Type type(char ch) {
+            return new Type(String.valueOf(ch));
+        }
+
+        final class Type implements Action {
+
+            String typed;
+            int at;
+
+            Type(String typed) {
+                this.typed = typed;
+            }
+
+            @Override
+            public void execute() {
+                at = text.length();
+                text.append(typed);
+            }
+
+            @Override
+            public void undo() {
+                text.setLength(at);
+            }
+
+            @Override
+            public void redo() {
+                text.append(typed);
+            }
+
+            @Override
+            public boolean absorb(Action newer) {
+                if (!(newer instanceof Type)) {
+                    return false;
+                }
+                typed += ((Type) newer).typed;
+                return true;
+            }
+        }
+    }
+}
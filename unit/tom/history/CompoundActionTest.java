@@ -0,0 +1,160 @@
+package tom.history;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CompoundActionTest {
+
+    private final List<String> log = Collections.synchronizedList(new ArrayList<>());
+
+    @Test
+    void conflictingActionsKeepTheirOrder() {
+        List<Action> actions = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            actions.add(new Touch("x" + i, i % 5 == 0 ? null : Set.of("r" + i % 3)));
+        }
+        CompoundAction group = new CompoundAction(actions);
+        group.execute();
+        log.clear();
+        group.undo();
+        assertEquals(50, log.size());
+        checkOrder(actions, true);
+        log.clear();
+        group.redo();
+        assertEquals(50, log.size());
+        checkOrder(actions, false);
+    }
+
+    /**
+     * Checks that every two actions that share a resource, or where either
+     * has unknown resources, ran in order, backwards when undoing
+     */
+    private void checkOrder(List<Action> actions, boolean undo) {
+        for (int a = 0; a < actions.size(); a++) {
+            for (int b = a + 1; b < actions.size(); b++) {
+                Collection<?> ra = actions.get(a).getResources();
+                Collection<?> rb = actions.get(b).getResources();
+                boolean conflict = ra == null || rb == null || !Collections.disjoint(ra, rb);
+                if (conflict) {
+                    int ia = log.indexOf(((Touch) actions.get(a)).name);
+                    int ib = log.indexOf(((Touch) actions.get(b)).name);
+                    assertTrue(undo ? ib < ia : ia < ib,
+                               actions.get(a) + " and " + actions.get(b) + " ran out of order");
+                }
+            }
+        }
+    }
+
+    @Test
+    void groupWithoutResourcesRunsInOrder() {
+        CompoundAction group = new CompoundAction(new Touch("a", null), new Touch("b", null),
+                                                  new Touch("c", null));
+        assertTrue(group.isSequential());
+        group.undo();
+        assertEquals(List.of("c", "b", "a"), log);
+        log.clear();
+        group.redo();
+        assertEquals(List.of("a", "b", "c"), log);
+    }
+
+    @Test
+    void chainOfConflictsRunsInOrder() {
+        CompoundAction group = new CompoundAction(new Touch("a", Set.of("r")),
+                                                  new Touch("b", Set.of("r")),
+                                                  new Touch("c", null));
+        assertTrue(group.isSequential());
+        group.undo();
+        assertEquals(List.of("c", "b", "a"), log);
+    }
+
+    @Test
+    void independentActionsRunInParallel() {
+        CompoundAction group = new CompoundAction(new Touch("a", Set.of("r1")),
+                                                  new Touch("b", Set.of("r2")));
+        assertFalse(group.isSequential());
+        group.redo();
+        assertEquals(Set.of("a", "b"), Set.copyOf(log));
+    }
+
+    @Test
+    void failureIsRethrownAfterOthersFinish() {
+        Touch ok = new Touch("ok", Set.of("a"));
+        Action failing = new Touch("bad", Set.of("b")) {
+            @Override
+            public void undo() {
+                throw new IllegalStateException("undo failed");
+            }
+        };
+        CompoundAction group = new CompoundAction(ok, failing);
+        assertThrows(IllegalStateException.class, group::undo);
+    }
+
+    @Test
+    void resourcesAreUnionOfGroup() {
+        CompoundAction known = new CompoundAction(new Touch("a", Set.of("r1")),
+                                                  new Touch("b", Set.of("r2")));
+        assertEquals(Set.of("r1", "r2"), known.getResources());
+        CompoundAction unknown = new CompoundAction(new Touch("a", Set.of("r1")),
+                                                    new Touch("b", null));
+        assertNull(unknown.getResources());
+    }
+
+    @Test
+    void groupIsOneEntryInHistory() {
+        History history = new History();
+        Counter c = new Counter();
+        history.registerActionAndExecute(new CompoundAction(c.add(1), c.add(2), c.add(3)));
+        assertEquals(1, history.undoSize());
+        history.undo();
+        assertEquals(0, c.value);
+        assertEquals(List.of("execute 1", "execute 2", "execute 3",
+                             "undo 3", "undo 2", "undo 1"), c.log);
+    }
+
+    private class Touch implements Action {
+
+        final String name;
+        final Collection<?> resources;
+
+        Touch(String name, Collection<?> resources) {
+            this.name = name;
+            this.resources = resources;
+        }
+
+        @Override
+        public void execute() {
+            log.add(name);
+        }
+
+        @Override
+        public void undo() {
+            log.add(name);
+        }
+
+        @Override
+        public void redo() {
+            log.add(name);
+        }
+
+        @Override
+        public Collection<?> getResources() {
+            return resources;
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+}
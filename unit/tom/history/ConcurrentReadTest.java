@@ -0,0 +1,142 @@
+package tom.history;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ConcurrentReadTest {
+
+    @Test
+    void readsDoNotWaitForRunningUndo() throws Exception {
+        History history = new History();
+        Counter c = new Counter();
+        history.registerActionAndExecute(c.add(1));
+        Blocking blocking = new Blocking();
+        history.registerActionAndExecute(blocking);
+
+        Thread undoer = new Thread(history::undo);
+        undoer.start();
+        assertTrue(blocking.started.await(10, TimeUnit.SECONDS));
+        try {
+            // the undoing thread holds the lock, the reads still see the
+            // state before the undo
+            assertTimeoutPreemptively(Duration.ofSeconds(5), () -> {
+                for (int i = 0; i < 1000; i++) {
+                    assertTrue(history.canUndo());
+                    assertFalse(history.canRedo());
+                    assertEquals(2, history.undoSize());
+                    assertEquals(0, history.redoSize());
+                    assertSame(blocking, history.peekUndo());
+                }
+            });
+        } finally {
+            blocking.release.countDown();
+            undoer.join(10_000);
+        }
+        assertFalse(undoer.isAlive());
+        assertTrue(history.canRedo());
+        assertEquals(1, history.undoSize());
+        assertEquals(1, history.redoSize());
+        assertInstanceOf(Counter.Add.class, history.peekUndo());
+    }
+
+    @Test
+    void readsStayConsistentDuringSlowUndos() throws Exception {
+        int total = 200;
+        History history = new History();
+        for (int i = 0; i < total; i++) {
+            history.registerActionAndExecute(new Slow());
+        }
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread undoer = new Thread(() -> {
+            try {
+                while (history.undo()) {
+                    Thread.onSpinWait();
+                }
+            } catch (Throwable t) {
+                failure.set(t);
+            }
+        });
+        undoer.start();
+        // the undo stack only shrinks and the redo stack only grows, so a
+        // redo size read between two undo sizes is bounded by both
+        int last = total;
+        while (undoer.isAlive() || history.undoSize() > 0) {
+            int before = history.undoSize();
+            int redo = history.redoSize();
+            boolean canUndo = history.canUndo();
+            int after = history.undoSize();
+            assertTrue(before <= last, before + " after " + last);
+            assertTrue(after <= before, after + " after " + before);
+            assertTrue(redo >= total - before && redo <= total - after,
+                       "redo " + redo + " between undo " + before + " and " + after);
+            assertTrue(canUndo ? before > 0 : after == 0,
+                       "canUndo " + canUndo + " between undo " + before + " and " + after);
+            last = after;
+        }
+        undoer.join(10_000);
+        assertNull(failure.get());
+        assertFalse(history.canUndo());
+        assertEquals(total, history.redoSize());
+    }
+
+    /**
+     * An action whose undo waits until it is released
+     */
+    private static final class Blocking implements Action {
+
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        @Override
+        public void execute() {
+        }
+
+        @Override
+        public void undo() {
+            started.countDown();
+            try {
+                release.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        @Override
+        public void redo() {
+        }
+    }
+
+    /**
+     * An action that takes a little while to undo
+     */
+    private static final class Slow implements Action {
+
+        @Override
+        public void execute() {
+        }
+
+        @Override
+        public void undo() {
+            long end = System.nanoTime() + 50_000;
+            while (System.nanoTime() < end) {
+                Thread.onSpinWait();
+            }
+        }
+
+        @Override
+        public void redo() {
+        }
+    }
+}
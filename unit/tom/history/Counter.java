@@ -0,0 +1,99 @@
+package tom.history;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A value changed by actions, for the tests. Each action adds an amount to
+ * the value and records what it did, so a test can check both the value and
+ * the order in which the actions ran
+ */
+final class Counter {
+
+    int value;
+    final List<String> log = new ArrayList<>();
+
+    /**
+     * Returns an action that adds {@code amount} to the value when executed
+     * or redone and takes it away when undone
+     *
+     * @param amount the amount to add
+     * @return the action
+     */
+    Add add(int amount) {
+        return new Add(amount, null);
+    }
+
+    /**
+     * Returns an action like {@link #add(int)} that belongs to a scope
+     *
+     * @param scope  the scope of the action
+     * @param amount the amount to add
+     * @return the action
+     */
+    Add add(Object scope, int amount) {
+        return new Add(amount, scope);
+    }
+
+    /**
+     * Returns a serializer that writes the amount of each action and reads it
+     * back as an action on this counter
+     *
+     * @return the serializer
+     */
+    ActionSerializer serializer() {
+        return new ActionSerializer() {
+            @Override
+            public void write(Action action, DataOutput out) throws IOException {
+                out.writeInt(((Add) action).amount);
+            }
+
+            @Override
+            public Action read(DataInput in) throws IOException {
+                return add(in.readInt());
+            }
+        };
+    }
+
+    final class Add implements Action {
+
+        final int amount;
+        final Object scope;
+
+        Add(int amount, Object scope) {
+            this.amount = amount;
+            this.scope = scope;
+        }
+
+        @Override
+        public void execute() {
+            value += amount;
+            log.add("execute " + amount);
+        }
+
+        @Override
+        public void undo() {
+            value -= amount;
+            log.add("undo " + amount);
+        }
+
+        @Override
+        public void redo() {
+            value += amount;
+            log.add("redo " + amount);
+        }
+
+        @Override
+        public Object getScope() {
+            return scope;
+        }
+
+        @Override
+        public String toString() {
+            return "Add " + amount;
+        }
+    }
+}
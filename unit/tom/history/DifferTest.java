@@ -0,0 +1,143 @@
+package tom.history;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.UnaryOperator;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DifferTest {
+
+    /**
+     * Pairs of values before and after a change: insertion at the start, in
+     * the middle and at the end, deletion at each of those, replacement, no
+     * change and changes from and to nothing
+     */
+    private static final String[][] EDITS = {
+        {"world", "hello world"},
+        {"held", "hello world"},
+        {"hello", "hello world"},
+        {"hello world", "world"},
+        {"hello world", "held"},
+        {"hello world", "hello"},
+        {"hello world", "hello there"},
+        {"hello", "hello"},
+        {"", "hello"},
+        {"hello", ""},
+        {"aaaa", "aaaaaa"},
+    };
+
+    @Test
+    void stringsRoundTrip() {
+        for (String[] edit : EDITS) {
+            String[] state = {edit[0]};
+            History history = new History();
+            history.registerActionAndExecute(new StateAction<>(
+              () -> state[0], v -> state[0] = v, Differ.strings(), v -> edit[1]));
+            assertEquals(edit[1], state[0]);
+            history.undo();
+            assertEquals(edit[0], state[0], Arrays.toString(edit));
+            history.redo();
+            assertEquals(edit[1], state[0], Arrays.toString(edit));
+        }
+    }
+
+    @Test
+    void bytesRoundTrip() {
+        for (String[] edit : EDITS) {
+            byte[] before = edit[0].getBytes(StandardCharsets.UTF_8);
+            byte[] after = edit[1].getBytes(StandardCharsets.UTF_8);
+            byte[][] state = {before};
+            History history = new History();
+            history.registerActionAndExecute(new StateAction<>(
+              () -> state[0], v -> state[0] = v, Differ.bytes(), v -> after.clone()));
+            history.undo();
+            assertArrayEquals(before, state[0], Arrays.toString(edit));
+            history.redo();
+            assertArrayEquals(after, state[0], Arrays.toString(edit));
+        }
+    }
+
+    @Test
+    void listsRoundTrip() {
+        for (String[] edit : EDITS) {
+            List<Character> before = chars(edit[0]);
+            List<Character> after = chars(edit[1]);
+            List<List<Character>> state = new ArrayList<>(List.of(before));
+            History history = new History();
+            history.registerActionAndExecute(new StateAction<>(
+              () -> state.get(0), v -> state.set(0, v), Differ.lists(), v -> after));
+            history.undo();
+            assertEquals(before, state.get(0), Arrays.toString(edit));
+            history.redo();
+            assertEquals(after, state.get(0), Arrays.toString(edit));
+        }
+    }
+
+    @Test
+    void listDeltaDoesNotModifyItsArgument() {
+        List<String> before = List.of("a", "b", "c");
+        List<String> after = List.of("a", "x", "c");
+        Differ.Delta<List<String>> delta = Differ.<String>lists().diff(before, after);
+        assertEquals(after, delta.apply(before));
+        assertEquals(before, delta.revert(after));
+        assertEquals(List.of("a", "b", "c"), before);
+    }
+
+    @Test
+    void manyEditsRoundTrip() {
+        String[] state = {""};
+        History history = new History();
+        List<UnaryOperator<String>> edits = List.of(
+          v -> v + "line\n",
+          v -> "start " + v,
+          v -> v.substring(0, v.length() / 2) + "middle" + v.substring(v.length() / 2),
+          v -> v.replace("line", "LINE"),
+          v -> v.substring(3));
+        List<String> values = new ArrayList<>(List.of(state[0]));
+        for (int i = 0; i < 20; i++) {
+            history.registerActionAndExecute(new StateAction<>(
+              () -> state[0], v -> state[0] = v, Differ.strings(), edits.get(i % edits.size())));
+            values.add(state[0]);
+        }
+        for (int i = values.size() - 2; i >= 0; i--) {
+            history.undo();
+            assertEquals(values.get(i), state[0]);
+        }
+        for (int i = 1; i < values.size(); i++) {
+            history.redo();
+            assertEquals(values.get(i), state[0]);
+        }
+    }
+
+    @Test
+    void appendStoresOnlyTheEdit() {
+        String document = "x".repeat(100_000);
+        Differ.Delta<String> delta = Differ.strings().diff(document, document + "appended");
+        assertTrue(delta.getEstimatedSize() < 1_000, "size " + delta.getEstimatedSize());
+    }
+
+    @Test
+    void undoBeforeExecuteThrows() {
+        String[] state = {"a"};
+        StateAction<String> action = new StateAction<>(
+          () -> state[0], v -> state[0] = v, Differ.strings(), v -> v + "b");
+        assertEquals(0, action.getEstimatedSize());
+        assertThrows(IllegalStateException.class, action::undo);
+    }
+
+    private static List<Character> chars(String s) {
+        List<Character> chars = new ArrayList<>();
+        for (char c : s.toCharArray()) {
+            chars.add(c);
+        }
+        return chars;
+    }
+}
@@ -0,0 +1,119 @@
+package tom.history;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Flow;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+
+class EventsTest {
+
+    @Test
+    void defaultSubscriptionNeverStallsWriters() throws InterruptedException {
+        History history = new History();
+        Counter c = new Counter();
+        Collector collector = new Collector();
+        history.getEvents().subscribe(collector);
+        // the collector never requests anything, yet registering goes on
+        assertTimeoutPreemptively(Duration.ofSeconds(10), () -> {
+            for (int i = 0; i < 10_000; i++) {
+                history.registerActionAndExecute(c.add(1));
+            }
+        });
+        collector.subscription.request(Long.MAX_VALUE);
+        HistoryEvent last = null;
+        for (HistoryEvent e; (e = collector.events.poll(1, TimeUnit.SECONDS)) != null; ) {
+            last = e;
+        }
+        assertNotNull(last);
+        assertEquals(10_000, last.getUndoSize());
+    }
+
+    @Test
+    void eventsArriveInOrder() throws InterruptedException {
+        History history = new History();
+        Counter c = new Counter();
+        Collector collector = new Collector();
+        history.getEvents().subscribe(collector, 16, HistoryEventPublisher.Overflow.BLOCK);
+        collector.subscription.request(Long.MAX_VALUE);
+        history.registerActionAndExecute(c.add(1));
+        history.registerActionAndExecute(c.add(2));
+        history.undo();
+        history.redo();
+        List<HistoryEvent.Type> types = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            types.add(collector.events.poll(5, TimeUnit.SECONDS).getType());
+        }
+        assertEquals(List.of(HistoryEvent.Type.REGISTER, HistoryEvent.Type.REGISTER,
+                             HistoryEvent.Type.UNDO, HistoryEvent.Type.REDO), types);
+    }
+
+    @Test
+    void dropKeepsOldestEvents() throws InterruptedException {
+        History history = new History();
+        Counter c = new Counter();
+        Collector collector = new Collector();
+        history.getEvents().subscribe(collector, 1, HistoryEventPublisher.Overflow.DROP);
+        for (int i = 0; i < 100; i++) {
+            history.registerActionAndExecute(c.add(1));
+        }
+        collector.subscription.request(Long.MAX_VALUE);
+        assertEquals(1, collector.events.poll(5, TimeUnit.SECONDS).getUndoSize());
+    }
+
+    @Test
+    void switchingBranchPublishesNewRedoSide() throws InterruptedException {
+        History history = new History();
+        Counter c = new Counter();
+        history.setBranching(true);
+        history.registerActionAndExecute(c.add(1));
+        history.registerActionAndExecute(c.add(2));
+        history.undo();
+        history.undo();
+        history.registerActionAndExecute(c.add(3));
+        Collector collector = new Collector();
+        history.getEvents().subscribe(collector, 16, HistoryEventPublisher.Overflow.BLOCK);
+        collector.subscription.request(Long.MAX_VALUE);
+        history.switchBranch(history.getBranches().get(0));
+        HistoryEvent undo = collector.events.poll(5, TimeUnit.SECONDS);
+        assertEquals(HistoryEvent.Type.UNDO, undo.getType());
+        HistoryEvent branch = collector.events.poll(5, TimeUnit.SECONDS);
+        assertEquals(HistoryEvent.Type.BRANCH, branch.getType());
+        assertEquals(2, branch.getCount());
+        assertEquals(0, branch.getUndoSize());
+        assertEquals(2, branch.getRedoSize());
+        assertEquals(history.redoSize(), branch.getRedoSize());
+    }
+
+    private static final class Collector implements Flow.Subscriber<HistoryEvent> {
+
+        final BlockingQueue<HistoryEvent> events = new LinkedBlockingQueue<>();
+        volatile Flow.Subscription subscription;
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+        }
+
+        @Override
+        public void onNext(HistoryEvent item) {
+            events.add(item);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+        }
+
+        @Override
+        public void onComplete() {
+        }
+    }
+}
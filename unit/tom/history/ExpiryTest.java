@@ -0,0 +1,105 @@
+package tom.history;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ExpiryTest {
+
+    @Test
+    void actionsExpireAfterMaxAge() throws Exception {
+        History history = new History();
+        Counter c = new Counter();
+        history.setMaxAge(200, TimeUnit.MILLISECONDS);
+        long start = System.nanoTime();
+        history.registerActionAndExecute(c.add(1));
+        history.registerActionAndExecute(c.add(2));
+        assertEquals(2, history.undoSize());
+        awaitTrue(() -> history.undoSize() == 0);
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue(elapsed >= 200, "expired after " + elapsed + "ms");
+        assertEquals(3, c.value);
+    }
+
+    @Test
+    void onlyOldActionsExpire() throws Exception {
+        History history = new History();
+        Counter c = new Counter();
+        history.setMaxAge(300, TimeUnit.MILLISECONDS);
+        history.registerActionAndExecute(c.add(1));
+        Thread.sleep(200);
+        history.registerActionAndExecute(c.add(2));
+        awaitTrue(() -> history.undoSize() == 1);
+        assertEquals("Add 2", history.peekUndo().toString());
+        awaitTrue(() -> history.undoSize() == 0);
+    }
+
+    @Test
+    void manyActionsExpireInBatches() throws Exception {
+        History history = new History();
+        Counter c = new Counter();
+        history.setMaxAge(100, TimeUnit.MILLISECONDS);
+        for (int i = 0; i < 1000; i++) {
+            history.registerActionAndExecute(c.add(1));
+        }
+        awaitTrue(() -> history.undoSize() == 0);
+    }
+
+    @Test
+    void redoIsClearedOnceExpired() throws Exception {
+        History history = new History();
+        Counter c = new Counter();
+        history.setMaxAge(100, TimeUnit.MILLISECONDS);
+        history.registerActionAndExecute(c.add(1));
+        history.undo();
+        assertEquals(1, history.redoSize());
+        awaitTrue(() -> history.redoSize() == 0);
+    }
+
+    @Test
+    void existingActionsCountFromWhenMaxAgeIsSet() throws Exception {
+        History history = new History();
+        Counter c = new Counter();
+        history.registerActionAndExecute(c.add(1));
+        Thread.sleep(150);
+        history.setMaxAge(150, TimeUnit.MILLISECONDS);
+        Thread.sleep(50);
+        assertEquals(1, history.undoSize());
+        awaitTrue(() -> history.undoSize() == 0);
+    }
+
+    @Test
+    void zeroTurnsExpiryOff() throws Exception {
+        History history = new History();
+        Counter c = new Counter();
+        history.setMaxAge(100, TimeUnit.MILLISECONDS);
+        history.registerActionAndExecute(c.add(1));
+        history.setMaxAge(0, TimeUnit.MILLISECONDS);
+        assertEquals(0, history.getMaxAge());
+        Thread.sleep(3 * TimingWheel.TICK / 1_000_000);
+        assertEquals(1, history.undoSize());
+    }
+
+    @Test
+    void negativeMaxAgeIsRejected() {
+        History history = new History();
+        assertThrows(IllegalArgumentException.class,
+                     () -> history.setMaxAge(-1, TimeUnit.SECONDS));
+    }
+
+    /**
+     * Waits up to ten seconds for a condition set by the sweeper thread
+     */
+    private static void awaitTrue(BooleanSupplier condition) throws InterruptedException {
+        long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.nanoTime() - end < 0, "timed out");
+            Thread.sleep(10);
+        }
+    }
+}
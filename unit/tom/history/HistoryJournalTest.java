@@ -0,0 +1,215 @@
+package tom.history;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HistoryJournalTest {
+
+    /**
+     * The length of the file header and of a register record of a counter
+     * action: the length, the checksum, the type of record, the tag of a
+     * plain action and the amount
+     */
+    private static final int HEADER = 8;
+    private static final int REGISTER = 4 + 4 + 1 + 1 + 4;
+
+    @TempDir
+    Path dir;
+
+    private final Counter counter = new Counter();
+
+    @Test
+    void replayRebuildsStacks() throws IOException {
+        Path file = dir.resolve("journal");
+        History history = new History();
+        try (HistoryJournal journal = new HistoryJournal(file, counter.serializer())) {
+            history.setJournal(journal);
+            for (int i = 1; i <= 5; i++) {
+                history.registerActionAndExecute(counter.add(i));
+            }
+            history.undo();
+            history.undo();
+            history.redo();
+        }
+        History replayed = replay(file);
+        assertEquals(4, replayed.undoSize());
+        assertEquals(1, replayed.redoSize());
+        assertEquals("Add 4", replayed.peekUndo().toString());
+    }
+
+    @Test
+    void tornRecordIsDropped() throws IOException {
+        Path file = dir.resolve("journal");
+        write(file, 3);
+        long size = Files.size(file);
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+            raf.setLength(size - 3);
+        }
+        History replayed = replay(file);
+        assertEquals(2, replayed.undoSize());
+        assertEquals("Add 2", replayed.peekUndo().toString());
+        assertEquals(HEADER + 2 * REGISTER, Files.size(file));
+    }
+
+    @Test
+    void replayStopsAtCorruptRecord() throws IOException {
+        Path file = dir.resolve("journal");
+        write(file, 5);
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+            // the last byte of the amount of the third action
+            long at = HEADER + 3L * REGISTER - 1;
+            raf.seek(at);
+            int b = raf.read();
+            raf.seek(at);
+            raf.write(b ^ 0xff);
+        }
+        History replayed = replay(file);
+        assertEquals(2, replayed.undoSize());
+        assertEquals("Add 2", replayed.peekUndo().toString());
+    }
+
+    @Test
+    void appendsAfterDamagedEnd() throws IOException {
+        Path file = dir.resolve("journal");
+        write(file, 3);
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+            raf.setLength(Files.size(file) - 1);
+        }
+        History history = new History();
+        try (HistoryJournal journal = new HistoryJournal(file, counter.serializer())) {
+            history.setJournal(journal);
+            history.registerActionAndExecute(counter.add(10));
+            history.registerActionAndExecute(counter.add(11));
+        }
+        History replayed = replay(file);
+        assertEquals(4, replayed.undoSize());
+        assertEquals("Add 11", replayed.peekUndo().toString());
+    }
+
+    @Test
+    void notAJournal() throws IOException {
+        Path file = dir.resolve("journal");
+        Files.write(file, new byte[]{1, 2, 3, 4, 5, 6, 7, 8, 9});
+        History history = new History();
+        try (HistoryJournal journal = new HistoryJournal(file, counter.serializer())) {
+            assertThrows(IOException.class, () -> history.setJournal(journal));
+        }
+    }
+
+    @Test
+    void onlyAttachedToEmptyHistory() throws IOException {
+        History history = new History();
+        history.registerActionAndExecute(counter.add(1));
+        try (HistoryJournal journal = new HistoryJournal(dir.resolve("journal"),
+                                                         counter.serializer())) {
+            assertThrows(IllegalStateException.class, () -> history.setJournal(journal));
+        }
+    }
+
+    @Test
+    void failingJournalIsDetachedAfterUndo() throws IOException {
+        History history = new History();
+        List<Throwable> reported = reportFailures();
+        try {
+            HistoryJournal journal = new HistoryJournal(dir.resolve("journal"),
+                                                        counter.serializer());
+            history.setJournal(journal);
+            history.registerActionAndExecute(counter.add(1));
+            history.registerActionAndExecute(counter.add(2));
+            // a closed journal can no longer map its file
+            journal.close();
+            assertTrue(history.undo());
+            assertEquals(1, reported.size());
+            assertInstanceOf(UncheckedIOException.class, reported.get(0));
+            assertNull(history.getJournal());
+            assertEquals(1, history.undoSize());
+            assertEquals(1, history.redoSize());
+            assertEquals(1, counter.value);
+            assertTrue(history.undo());
+            assertEquals(0, counter.value);
+            assertEquals(List.of("execute 1", "execute 2", "undo 2", "undo 1"), counter.log);
+        } finally {
+            Thread.currentThread().setUncaughtExceptionHandler(null);
+        }
+    }
+
+    @Test
+    void failingRecordStillRegistersAction() throws IOException {
+        History history = new History();
+        List<Throwable> reported = reportFailures();
+        ActionSerializer serializer = counter.serializer();
+        try (HistoryJournal journal = new HistoryJournal(dir.resolve("journal"),
+                                                         new ActionSerializer() {
+            @Override
+            public void write(Action action, DataOutput out) throws IOException {
+                if (((Counter.Add) action).amount < 0) {
+                    throw new IOException("cannot write");
+                }
+                serializer.write(action, out);
+            }
+
+            @Override
+            public Action read(DataInput in) throws IOException {
+                return serializer.read(in);
+            }
+        })) {
+            history.setJournal(journal);
+            history.registerActionAndExecute(counter.add(1));
+            history.registerActionAndExecute(counter.add(-1));
+            assertEquals(1, reported.size());
+            assertNull(history.getJournal());
+            assertEquals(2, history.undoSize());
+            assertTrue(history.undo());
+            assertEquals(1, counter.value);
+            assertEquals(1, history.redoSize());
+        } finally {
+            Thread.currentThread().setUncaughtExceptionHandler(null);
+        }
+    }
+
+    /**
+     * Collects the failures passed to the uncaught exception handler of the
+     * calling thread
+     */
+    private static List<Throwable> reportFailures() {
+        List<Throwable> reported = new ArrayList<>();
+        Thread.currentThread().setUncaughtExceptionHandler((t, e) -> reported.add(e));
+        return reported;
+    }
+
+    private void write(Path file, int actions) throws IOException {
+        History history = new History();
+        try (HistoryJournal journal = new HistoryJournal(file, counter.serializer())) {
+            history.setJournal(journal);
+            for (int i = 1; i <= actions; i++) {
+                history.registerActionAndExecute(counter.add(i));
+            }
+        }
+        assertEquals(HEADER + (long) actions * REGISTER, Files.size(file));
+    }
+
+    private History replay(Path file) throws IOException {
+        History history = new History();
+        try (HistoryJournal journal = new HistoryJournal(file, counter.serializer())) {
+            history.setJournal(journal);
+            history.setJournal(null);
+        }
+        return history;
+    }
+}
@@ -0,0 +1,180 @@
+package tom.history;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class IndexTest {
+
+    private static final long ALL_FROM = Long.MIN_VALUE;
+    private static final long ALL_TO = Long.MAX_VALUE;
+
+    @Test
+    void findsByTypeAndLabel() {
+        History history = indexed();
+        history.registerAction(new Tagged("color", "Color red"));
+        history.registerAction(new Tagged("size", "Size 10"));
+        history.registerAction(new Tagged("color", "Color blue"));
+        history.registerAction(new Tagged("color", "Colour green"));
+        assertEquals(List.of("Color red", "Color blue", "Colour green"),
+                     labels(history.findByType("color", ALL_FROM, ALL_TO)));
+        assertEquals(List.of("Color red", "Color blue"),
+                     labels(history.findByLabel("Color", ALL_FROM, ALL_TO)));
+        assertEquals(List.of("Color red", "Color blue", "Colour green"),
+                     labels(history.findByLabel("Col", ALL_FROM, ALL_TO)));
+        assertEquals(4, history.findByLabel("", ALL_FROM, ALL_TO).size());
+        assertTrue(history.findByType("shape", ALL_FROM, ALL_TO).isEmpty());
+    }
+
+    @Test
+    void findsBetweenTimes() throws Exception {
+        History history = indexed();
+        history.registerAction(new Tagged("a", "first"));
+        Thread.sleep(20);
+        long middle = System.currentTimeMillis();
+        Thread.sleep(20);
+        history.registerAction(new Tagged("a", "second"));
+        assertEquals(List.of("first"), labels(history.findBetween(ALL_FROM, middle)));
+        assertEquals(List.of("second"), labels(history.findBetween(middle, ALL_TO)));
+        assertEquals(List.of("second"), labels(history.findByType("a", middle, ALL_TO)));
+        assertEquals(List.of("first"), labels(history.findByLabel("", ALL_FROM, middle)));
+    }
+
+    @Test
+    void redoSideIsNotFound() {
+        History history = indexed();
+        history.registerAction(new Tagged("a", "first"));
+        history.registerAction(new Tagged("a", "second"));
+        history.undo();
+        assertEquals(List.of("first"), labels(history.findByType("a", ALL_FROM, ALL_TO)));
+        history.redo();
+        assertEquals(List.of("first", "second"), labels(history.findByType("a", ALL_FROM, ALL_TO)));
+    }
+
+    @Test
+    void pushTruncatesClearedRedo() {
+        History history = indexed();
+        history.registerAction(new Tagged("a", "first"));
+        history.registerAction(new Tagged("b", "second"));
+        history.undo();
+        history.registerAction(new Tagged("c", "third"));
+        assertTrue(history.findByType("b", ALL_FROM, ALL_TO).isEmpty());
+        assertTrue(history.findByLabel("second", ALL_FROM, ALL_TO).isEmpty());
+        assertEquals(List.of("first", "third"), labels(history.findBetween(ALL_FROM, ALL_TO)));
+    }
+
+    @Test
+    void droppedActionsAreTrimmed() {
+        History history = indexed();
+        history.setLimit(3);
+        for (int i = 0; i < 10; i++) {
+            history.registerAction(new Tagged(i % 2 == 0 ? "even" : "odd", "Action " + i));
+        }
+        assertEquals(List.of("Action 7", "Action 8", "Action 9"),
+                     labels(history.findBetween(ALL_FROM, ALL_TO)));
+        assertEquals(List.of("Action 8"), labels(history.findByType("even", ALL_FROM, ALL_TO)));
+        assertEquals(List.of("Action 7", "Action 9"),
+                     labels(history.findByType("odd", ALL_FROM, ALL_TO)));
+        assertEquals(List.of("Action 9"), labels(history.findByLabel("Action 9", ALL_FROM, ALL_TO)));
+        assertTrue(history.findByLabel("Action 1", ALL_FROM, ALL_TO).isEmpty());
+    }
+
+    @Test
+    void existingActionsAreIndexedWhenTurnedOn() {
+        History history = new History();
+        history.registerAction(new Tagged("a", "first"));
+        assertFalse(history.isIndexed());
+        assertThrows(IllegalStateException.class,
+                     () -> history.findBetween(ALL_FROM, ALL_TO));
+        history.setIndexed(true);
+        assertEquals(List.of("first"), labels(history.findByType("a", ALL_FROM, ALL_TO)));
+        history.setIndexed(false);
+        assertThrows(IllegalStateException.class,
+                     () -> history.findByType("a", ALL_FROM, ALL_TO));
+    }
+
+    @Test
+    void indexTrimsAndTruncatesEachList() {
+        HistoryIndex index = new HistoryIndex();
+        for (int i = 0; i < 100; i++) {
+            index.add(i, i % 3, "L" + (i % 5), i, 0);
+        }
+        index.trim(90);
+        index.truncate(95);
+        assertEquals(List.of(90L, 91L, 92L, 93L, 94L),
+                     places(out -> index.between(0, 100, ALL_FROM, ALL_TO, out::add)));
+        assertEquals(List.of(90L, 93L),
+                     places(out -> index.byType(0, 0, 100, ALL_FROM, ALL_TO, out::add)));
+        assertEquals(List.of(91L),
+                     places(out -> index.byLabel("L1", 0, 100, ALL_FROM, ALL_TO, out::add)));
+        // a new action after the trimmed and truncated ones starts at the end
+        index.add(95, 2, "L0", 200, 92);
+        assertEquals(List.of(92L, 95L),
+                     places(out -> index.byType(2, 0, 100, ALL_FROM, ALL_TO, out::add)));
+        assertEquals(List.of(95L),
+                     places(out -> index.between(0, 100, 150, ALL_TO, out::add)));
+    }
+
+    private static History indexed() {
+        History history = new History();
+        history.setIndexed(true);
+        return history;
+    }
+
+    private static List<String> labels(List<Action> actions) {
+        List<String> labels = new ArrayList<>();
+        for (Action a : actions) {
+            labels.add(a.getLabel());
+        }
+        return labels;
+    }
+
+    private static List<Long> places(Consumer<List<Long>> query) {
+        List<Long> places = new ArrayList<>();
+        query.accept(places);
+        return places;
+    }
+
+    /**
+     * An action with a type and label that does nothing
+     */
+    private static final class Tagged implements Action {
+
+        private final Object type;
+        private final String label;
+
+        Tagged(Object type, String label) {
+            this.type = type;
+            this.label = label;
+        }
+
+        @Override
+        public void execute() {
+        }
+
+        @Override
+        public void undo() {
+        }
+
+        @Override
+        public void redo() {
+        }
+
+        @Override
+        public String getLabel() {
+            return label;
+        }
+
+        @Override
+        public Object getType() {
+            return type;
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package tom.history;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class JumpTest {
+
+    private final StringBuilder text = new StringBuilder();
+    private int calls;
+    private int restores;
+
+    @Test
+    void jumpsWithoutCheckpoints() {
+        History history = document(20, 0);
+        history.jumpTo(5);
+        assertEquals(expected(5), text.toString());
+        assertEquals(5, history.undoSize());
+        assertEquals(15, history.redoSize());
+        history.jumpTo(12);
+        assertEquals(expected(12), text.toString());
+        history.jumpTo(0);
+        assertEquals("", text.toString());
+        history.jumpTo(20);
+        assertEquals(expected(20), text.toString());
+    }
+
+    @Test
+    void jumpAcrossCheckpointRestoresIt() {
+        History history = document(100, 10);
+        calls = 0;
+        // 31 is one past the checkpoint at 30, far from the end
+        history.jumpTo(31);
+        assertEquals(expected(31), text.toString());
+        assertEquals(31, history.undoSize());
+        assertEquals(1, restores);
+        assertTrue(calls < 10, "called " + calls + " actions");
+        calls = 0;
+        history.jumpTo(88);
+        assertEquals(expected(88), text.toString());
+        assertTrue(calls < 10, "called " + calls + " actions");
+        // then single steps from there still line up
+        assertTrue(history.undo());
+        assertEquals(expected(87), text.toString());
+        assertTrue(history.redo());
+        assertTrue(history.redo());
+        assertEquals(expected(89), text.toString());
+    }
+
+    @Test
+    void undoAndRedoByCountAcrossCheckpoints() {
+        History history = document(50, 10);
+        assertEquals(37, history.undo(37));
+        assertEquals(expected(13), text.toString());
+        assertEquals(20, history.redo(20));
+        assertEquals(expected(33), text.toString());
+        assertEquals(17, history.redo(100));
+        assertEquals(expected(50), text.toString());
+        assertEquals(50, history.undo(100));
+        assertEquals("", text.toString());
+        assertEquals(0, history.undo(1));
+    }
+
+    @Test
+    void outOfBoundsJumpIsRejected() {
+        History history = document(10, 0);
+        assertThrows(IndexOutOfBoundsException.class, () -> history.jumpTo(-1));
+        assertThrows(IndexOutOfBoundsException.class, () -> history.jumpTo(11));
+        assertThrows(IllegalArgumentException.class, () -> history.undo(-1));
+        assertThrows(IllegalArgumentException.class, () -> history.redo(-1));
+        assertEquals(expected(10), text.toString());
+        history.jumpTo(10);
+        assertEquals(10, history.undoSize());
+    }
+
+    @Test
+    void failingActionStopsTheJump() {
+        History history = new History();
+        for (int i = 0; i < 3; i++) {
+            history.registerActionAndExecute(new Append(i));
+        }
+        history.registerActionAndExecute(new Append(3) {
+            @Override
+            public void undo() {
+                throw new IllegalStateException("cannot undo");
+            }
+        });
+        for (int i = 4; i < 6; i++) {
+            history.registerActionAndExecute(new Append(i));
+        }
+        assertThrows(IllegalStateException.class, () -> history.jumpTo(0));
+        // left at the last action that was undone
+        assertEquals(4, history.undoSize());
+        assertEquals(2, history.redoSize());
+        assertEquals(expected(4), text.toString());
+        history.jumpTo(6);
+        assertEquals(expected(6), text.toString());
+    }
+
+    /**
+     * Creates a history of {@code size} appends, every {@code every}th one a
+     * checkpoint, or none if {@code every} is 0
+     */
+    private History document(int size, int every) {
+        History history = new History();
+        for (int i = 0; i < size; i++) {
+            boolean checkpoint = every > 0 && (i + 1) % every == 0;
+            history.registerActionAndExecute(checkpoint ? new Checkpoint(i) : new Append(i));
+        }
+        assertEquals(expected(size), text.toString());
+        return history;
+    }
+
+    private static String expected(int length) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            sb.append(letter(i));
+        }
+        return sb.toString();
+    }
+
+    private static char letter(int i) {
+        return (char) ('a' + i % 26);
+    }
+
+    private class Append implements Action {
+
+        final char letter;
+
+        Append(int i) {
+            letter = letter(i);
+        }
+
+        @Override
+        public void execute() {
+            text.append(letter);
+        }
+
+        @Override
+        public void undo() {
+            calls++;
+            text.setLength(text.length() - 1);
+        }
+
+        @Override
+        public void redo() {
+            calls++;
+            text.append(letter);
+        }
+    }
+
+    private final class Checkpoint extends Append implements SnapshotAction {
+
+        private String snapshot;
+
+        Checkpoint(int i) {
+            super(i);
+        }
+
+        @Override
+        public void execute() {
+            super.execute();
+            snapshot = text.toString();
+        }
+
+        @Override
+        public void restoreSnapshot() {
+            restores++;
+            text.setLength(0);
+            text.append(snapshot);
+        }
+    }
+}
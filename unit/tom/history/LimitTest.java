@@ -0,0 +1,105 @@
+package tom.history;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LimitTest {
+
+    @Test
+    void largestLimitOnEmptyHistory() {
+        History history = new History();
+        Counter c = new Counter();
+        history.setLimit(Integer.MAX_VALUE);
+        history.registerActionAndExecute(c.add(1));
+        history.registerActionAndExecute(c.add(2));
+        assertEquals(Integer.MAX_VALUE, history.getLimit());
+        assertEquals(2, history.undoSize());
+        assertEquals(3, c.value);
+    }
+
+    @Test
+    void largestLimitOnNonEmptyHistory() {
+        History history = new History();
+        Counter c = new Counter();
+        for (int i = 1; i <= 100; i++) {
+            history.registerActionAndExecute(c.add(i));
+        }
+        history.undo();
+        history.undo();
+        history.setLimit(Integer.MAX_VALUE);
+        assertEquals(98, history.undoSize());
+        assertEquals(2, history.redoSize());
+        history.redo();
+        history.registerActionAndExecute(c.add(1000));
+        assertEquals(100, history.undoSize());
+        assertEquals(0, history.redoSize());
+        assertEquals(5050 - 100 + 1000, c.value);
+        while (history.undo()) {
+            // undo everything
+        }
+        assertEquals(0, c.value);
+    }
+
+    @Test
+    void largeLimitAllocatesLazily() {
+        History history = new History();
+        Counter c = new Counter();
+        history.setLimit(200_000_000);
+        for (int i = 0; i < 1000; i++) {
+            history.registerActionAndExecute(c.add(1));
+        }
+        assertEquals(1000, history.undoSize());
+        assertEquals(1000, c.value);
+
+        ActionRing ring = new ActionRing();
+        ring.setLimit(200_000_000);
+        for (int i = 0; i < 1000; i++) {
+            ring.push(c.add(1));
+        }
+        assertTrue(ring.capacity() < 4096, "capacity " + ring.capacity());
+    }
+
+    @Test
+    void ringNeverGrowsPastLimit() {
+        Counter c = new Counter();
+        ActionRing ring = new ActionRing();
+        ring.setLimit(100);
+        for (int i = 0; i < 100; i++) {
+            ring.push(c.add(1));
+        }
+        for (int i = 0; i < 100; i++) {
+            ring.appendRedo(c.add(1));
+        }
+        assertEquals(200, ring.capacity());
+        assertThrows(IllegalStateException.class, () -> ring.appendRedo(c.add(1)));
+    }
+
+    @Test
+    void limitIsEnforced() {
+        History history = new History();
+        Counter c = new Counter();
+        history.setLimit(3);
+        for (int i = 1; i <= 5; i++) {
+            history.registerActionAndExecute(c.add(i));
+        }
+        assertEquals(3, history.undoSize());
+        history.setLimit(-1);
+        for (int i = 0; i < 10; i++) {
+            history.registerActionAndExecute(c.add(1));
+        }
+        assertEquals(13, history.undoSize());
+    }
+
+    @Test
+    void invalidLimitChangesNothing() {
+        History history = new History();
+        history.setLimit(10);
+        assertThrows(IllegalArgumentException.class, () -> history.setLimit(0));
+        assertThrows(IllegalArgumentException.class, () -> history.setLimit(-2));
+        assertThrows(IllegalArgumentException.class, () -> history.setLimit(Integer.MIN_VALUE));
+        assertEquals(10, history.getLimit());
+    }
+}
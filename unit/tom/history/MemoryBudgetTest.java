@@ -0,0 +1,112 @@
+package tom.history;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class MemoryBudgetTest {
+
+    @Test
+    void oldestUndoIsDroppedOverBudget() {
+        History history = new History();
+        history.setMemoryBudget(1000);
+        for (int i = 1; i <= 10; i++) {
+            history.registerAction(new Sized("a" + i, 300));
+        }
+        assertEquals(3, history.undoSize());
+        assertEquals(900, history.getRetainedSize());
+        assertEquals("a10", history.peekUndo().toString());
+    }
+
+    @Test
+    void farthestRedoIsDroppedFirst() {
+        History history = new History();
+        for (int i = 1; i <= 4; i++) {
+            history.registerAction(new Sized("a" + i, 100));
+        }
+        history.undo();
+        history.undo();
+        history.setMemoryBudget(300);
+        // a4 is the farthest redo, the oldest undo a1 stays
+        assertEquals(2, history.undoSize());
+        assertEquals(1, history.redoSize());
+        history.redo();
+        assertEquals("a3", history.peekUndo().toString());
+    }
+
+    @Test
+    void nextUndoAndRedoAreKept() {
+        History history = new History();
+        history.registerAction(new Sized("a1", 100));
+        history.registerAction(new Sized("a2", 100));
+        history.undo();
+        history.setMemoryBudget(10);
+        assertEquals(1, history.undoSize());
+        assertEquals(1, history.redoSize());
+        assertEquals(200, history.getRetainedSize());
+    }
+
+    @Test
+    void retainedSizeFollowsUndoAndRedo() {
+        History history = new History();
+        history.registerAction(new Sized("a1", 10));
+        history.registerAction(new Sized("a2", 20));
+        history.undo();
+        assertEquals(30, history.getRetainedSize());
+        history.registerAction(new Sized("a3", 5));
+        assertEquals(15, history.getRetainedSize());
+    }
+
+    @Test
+    void budgetWorksAlongsideLimit() {
+        History history = new History();
+        history.setLimit(2);
+        history.setMemoryBudget(1_000_000);
+        for (int i = 1; i <= 5; i++) {
+            history.registerAction(new Sized("a" + i, 1));
+        }
+        assertEquals(2, history.undoSize());
+    }
+
+    @Test
+    void invalidBudget() {
+        History history = new History();
+        assertThrows(IllegalArgumentException.class, () -> history.setMemoryBudget(0));
+        assertThrows(IllegalArgumentException.class, () -> history.setMemoryBudget(-2));
+        assertEquals(-1, history.getMemoryBudget());
+    }
+
+    private static final class Sized implements Action {
+
+        private final String name;
+        private final long size;
+
+        Sized(String name, long size) {
+            this.name = name;
+            this.size = size;
+        }
+
+        @Override
+        public void execute() {
+        }
+
+        @Override
+        public void undo() {
+        }
+
+        @Override
+        public void redo() {
+        }
+
+        @Override
+        public long getEstimatedSize() {
+            return size;
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package tom.history;
+
+import org.junit.jupiter.api.Test;
+
+import tom.history.HistoryMetrics.Operation;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MetricsTest {
+
+    @Test
+    void emptyHistogramReadsZero() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getTotalNanos());
+        assertEquals(0, histogram.getMeanNanos());
+        assertEquals(0, histogram.getMaxNanos());
+        assertEquals(0, histogram.getPercentileNanos(0.99));
+    }
+
+    @Test
+    void smallDurationsAreExact() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < 16; i++) {
+            histogram.record(i);
+        }
+        histogram.record(-5);
+        assertEquals(17, histogram.getCount());
+        assertEquals(120, histogram.getTotalNanos());
+        assertEquals(15, histogram.getMaxNanos());
+        assertEquals(0, histogram.getPercentileNanos(0));
+        assertEquals(1, histogram.getPercentileNanos(3 / 17.0));
+        assertEquals(7, histogram.getPercentileNanos(0.5));
+        assertEquals(15, histogram.getPercentileNanos(1));
+    }
+
+    @Test
+    void percentilesStayWithinBucketWidth() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 100_000; i++) {
+            histogram.record(i);
+        }
+        assertEquals(100_000, histogram.getCount());
+        assertEquals(5_000_050_000L, histogram.getTotalNanos());
+        assertEquals(50_000.5, histogram.getMeanNanos());
+        assertEquals(100_000, histogram.getMaxNanos());
+        for (double fraction : new double[] {0.01, 0.25, 0.5, 0.9, 0.99, 0.999}) {
+            long exact = (long) Math.ceil(fraction * 100_000);
+            long read = histogram.getPercentileNanos(fraction);
+            assertTrue(read >= exact && read <= exact * 1.125,
+                       fraction + " read as " + read + " for " + exact);
+        }
+        assertEquals(100_000, histogram.getPercentileNanos(1));
+    }
+
+    @Test
+    void largeDurationsDoNotOverflow() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(Long.MAX_VALUE);
+        histogram.record(1L << 62);
+        assertEquals(Long.MAX_VALUE, histogram.getMaxNanos());
+        assertEquals(Long.MAX_VALUE, histogram.getPercentileNanos(1));
+        long half = histogram.getPercentileNanos(0.5);
+        assertTrue(half >= 1L << 62 && half <= (1L << 62) / 8 * 9, "p50 " + half);
+    }
+
+    @Test
+    void percentileOutsideRangeIsRejected() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertThrows(IllegalArgumentException.class, () -> histogram.getPercentileNanos(-0.1));
+        assertThrows(IllegalArgumentException.class, () -> histogram.getPercentileNanos(1.1));
+    }
+
+    @Test
+    void historyCountsEachOperation() {
+        Counter counter = new Counter();
+        History history = new History();
+        HistoryMetrics metrics = new HistoryMetrics();
+        history.setMetrics(metrics);
+        for (int i = 1; i <= 3; i++) {
+            history.registerActionAndExecute(counter.add(i));
+        }
+        // registered without running, so nothing to time
+        history.registerAction(counter.add(4));
+        assertTrue(history.undo());
+        assertTrue(history.undo());
+        assertTrue(history.undo());
+        assertTrue(history.redo());
+
+        assertEquals(1, metrics.getActionClasses().size());
+        assertTrue(metrics.getActionClasses().contains(Counter.Add.class));
+        assertEquals(3, metrics.getLatency(Counter.Add.class, Operation.EXECUTE).getCount());
+        assertEquals(3, metrics.getLatency(Counter.Add.class, Operation.UNDO).getCount());
+        assertEquals(1, metrics.getLatency(Counter.Add.class, Operation.REDO).getCount());
+        assertNull(metrics.getLatency(Action.class, Operation.UNDO));
+        assertEquals(2, metrics.getUndoDepth());
+        assertEquals(2, metrics.getRedoDepth());
+        // every change took the lock once
+        assertEquals(8, metrics.getLockWait().getCount());
+        assertEquals(8, metrics.getLockHold().getCount());
+        assertEquals(0, metrics.getEvictionCount());
+    }
+
+    @Test
+    void historyCountsEvictions() {
+        Counter counter = new Counter();
+        History history = new History();
+        HistoryMetrics metrics = new HistoryMetrics();
+        history.setMetrics(metrics);
+        history.setLimit(3);
+        for (int i = 1; i <= 5; i++) {
+            history.registerActionAndExecute(counter.add(i));
+        }
+        assertEquals(2, metrics.getEvictionCount());
+        assertEquals(3, metrics.getUndoDepth());
+
+        history.setMetrics(null);
+        history.undo();
+        assertEquals(5, metrics.getLatency(Counter.Add.class, Operation.EXECUTE).getCount());
+        assertEquals(0, metrics.getLatency(Counter.Add.class, Operation.UNDO).getCount());
+        assertEquals(3, metrics.getUndoDepth());
+    }
+}
@@ -0,0 +1,156 @@
+package tom.history;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PropertyLaneTest {
+
+    @Test
+    void eachColumnUndoesAndRedoes() {
+        History history = new History();
+        PropertyLane lane = history.getPropertyLane();
+        int width = lane.addDoubleProperty((Box b, double v) -> b.width = v);
+        int stamp = lane.addLongProperty((Box b, long v) -> b.stamp = v);
+        int count = lane.addIntProperty((Box b, int v) -> b.count = v);
+        Box box = new Box();
+        int target = lane.addTarget(box);
+        lane.setDouble(width, target, 0, 640.5);
+        lane.setLong(stamp, target, 0, Long.MAX_VALUE);
+        lane.setInt(count, target, 0, -7);
+        assertEquals(640.5, box.width);
+        assertEquals(Long.MAX_VALUE, box.stamp);
+        assertEquals(-7, box.count);
+        assertEquals(3, lane.size());
+        history.undo();
+        assertEquals(0, box.count);
+        history.undo();
+        assertEquals(0, box.stamp);
+        history.undo();
+        assertEquals(0, box.width);
+        assertFalse(history.canUndo());
+        history.redo();
+        history.redo();
+        history.redo();
+        assertEquals(640.5, box.width);
+        assertEquals(Long.MAX_VALUE, box.stamp);
+        assertEquals(-7, box.count);
+    }
+
+    @Test
+    void targetsAreKeptApart() {
+        History history = new History();
+        PropertyLane lane = history.getPropertyLane();
+        int width = lane.addDoubleProperty((Box b, double v) -> b.width = v);
+        Box first = new Box();
+        Box second = new Box();
+        int a = lane.addTarget(first);
+        int b = lane.addTarget(second);
+        lane.setDouble(width, a, 0, 1);
+        lane.setDouble(width, b, 0, 2);
+        lane.setDouble(width, a, 1, 3);
+        history.undo();
+        assertEquals(1, first.width);
+        assertEquals(2, second.width);
+        history.undo();
+        assertEquals(0, second.width);
+    }
+
+    @Test
+    void rowsMixWithActions() {
+        History history = new History();
+        Counter c = new Counter();
+        PropertyLane lane = history.getPropertyLane();
+        int count = lane.addIntProperty((Box b, int v) -> b.count = v);
+        Box box = new Box();
+        int target = lane.addTarget(box);
+        history.registerActionAndExecute(c.add(1));
+        lane.setInt(count, target, 0, 1);
+        history.registerActionAndExecute(c.add(2));
+        lane.setInt(count, target, 1, 2);
+        assertEquals(4, history.undoSize());
+        history.undo();
+        assertEquals(1, box.count);
+        assertEquals(3, c.value);
+        history.undo();
+        assertEquals(1, c.value);
+        history.undo();
+        assertEquals(0, box.count);
+        history.redo();
+        assertEquals(1, box.count);
+        // a new action clears the row left on the redo side
+        history.registerActionAndExecute(c.add(4));
+        assertEquals(1, lane.size());
+        assertFalse(history.canRedo());
+        history.undo();
+        history.undo();
+        assertEquals(0, box.count);
+        assertEquals(List.of("execute 1", "execute 2", "undo 2", "execute 4", "undo 4"), c.log);
+    }
+
+    @Test
+    void limitDropsOldestRows() {
+        History history = new History();
+        history.setLimit(5);
+        PropertyLane lane = history.getPropertyLane();
+        int count = lane.addIntProperty((Box b, int v) -> b.count = v);
+        Box box = new Box();
+        int target = lane.addTarget(box);
+        // enough rows to wrap around and grow the columns
+        for (int i = 1; i <= 40; i++) {
+            lane.setInt(count, target, i - 1, i);
+        }
+        assertEquals(5, lane.size());
+        for (int i = 39; i >= 35; i--) {
+            assertTrue(history.undo());
+            assertEquals(i, box.count);
+        }
+        assertFalse(history.undo());
+        history.setLimit(100);
+        for (int i = 36; i <= 40; i++) {
+            assertTrue(history.redo());
+            assertEquals(i, box.count);
+        }
+        for (int i = 41; i <= 80; i++) {
+            lane.setInt(count, target, i - 1, i);
+        }
+        assertEquals(45, lane.size());
+        assertEquals(45, history.undo(45));
+        assertEquals(35, box.count);
+    }
+
+    @Test
+    void wrongPropertyIsRejected() {
+        History history = new History();
+        PropertyLane lane = history.getPropertyLane();
+        int width = lane.addDoubleProperty((Box b, double v) -> b.width = v);
+        int target = lane.addTarget(new Box());
+        assertThrows(IllegalArgumentException.class, () -> lane.setInt(width, target, 0, 1));
+        assertThrows(IllegalArgumentException.class, () -> lane.setDouble(width + 1, target, 0, 1));
+        assertThrows(IllegalArgumentException.class, () -> lane.setDouble(width, target + 1, 0, 1));
+        assertEquals(0, history.undoSize());
+    }
+
+    @Test
+    void notInTransaction() {
+        History history = new History();
+        PropertyLane lane = history.getPropertyLane();
+        int width = lane.addDoubleProperty((Box b, double v) -> b.width = v);
+        int target = lane.addTarget(new Box());
+        history.beginTransaction();
+        assertThrows(IllegalStateException.class, () -> lane.setDouble(width, target, 0, 1));
+        history.rollback();
+    }
+
+    private static final class Box {
+
+        double width;
+        long stamp;
+        int count;
+    }
+}
@@ -0,0 +1,145 @@
+package tom.history;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RegistryTest {
+
+    @Test
+    void sameKeyGivesSameHistory() {
+        HistoryRegistry<String> registry = new HistoryRegistry<>();
+        History a = registry.get("a");
+        assertSame(a, registry.get("a"));
+        assertSame(a, registry.get(new String("a")));
+        assertSame(a, registry.find("a"));
+        assertNotSame(a, registry.get("b"));
+        assertEquals(2, registry.size());
+    }
+
+    @Test
+    void historiesAreIndependent() {
+        HistoryRegistry<String> registry = new HistoryRegistry<>(h -> h.setLimit(2));
+        Counter first = new Counter();
+        Counter second = new Counter();
+        for (int i = 1; i <= 3; i++) {
+            registry.get("first").registerActionAndExecute(first.add(i));
+        }
+        registry.get("second").registerActionAndExecute(second.add(10));
+        assertEquals(2, registry.get("first").undoSize());
+        assertEquals(1, registry.get("second").undoSize());
+        assertTrue(registry.get("second").undo());
+        assertEquals(0, second.value);
+        assertEquals(6, first.value);
+        assertEquals(2, registry.get("first").undoSize());
+    }
+
+    @Test
+    void initializerRunsOncePerHistory() throws Exception {
+        AtomicInteger created = new AtomicInteger();
+        HistoryRegistry<Integer> registry = new HistoryRegistry<>(h -> created.incrementAndGet());
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        History[] seen = new History[8];
+        for (int i = 0; i < seen.length; i++) {
+            int slot = i;
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                seen[slot] = registry.get(42);
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join(10_000);
+        }
+        assertEquals(1, created.get());
+        for (History history : seen) {
+            assertSame(seen[0], history);
+        }
+    }
+
+    @Test
+    void locksAreIndependent() throws Exception {
+        HistoryRegistry<String> registry = new HistoryRegistry<>();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        registry.get("busy").registerActionAndExecute(new Action() {
+            @Override
+            public void execute() {
+            }
+
+            @Override
+            public void undo() {
+                started.countDown();
+                try {
+                    release.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+
+            @Override
+            public void redo() {
+            }
+        });
+        Thread undoer = new Thread(() -> registry.get("busy").undo());
+        undoer.start();
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        try {
+            // the busy history holds its lock, the other one does not wait
+            Counter c = new Counter();
+            assertTimeoutPreemptively(Duration.ofSeconds(5), () -> {
+                History idle = registry.get("idle");
+                idle.registerActionAndExecute(c.add(1));
+                assertTrue(idle.undo());
+                assertTrue(idle.redo());
+            });
+            assertEquals(1, c.value);
+        } finally {
+            release.countDown();
+            undoer.join(10_000);
+        }
+        assertFalse(undoer.isAlive());
+        assertEquals(1, registry.get("busy").redoSize());
+    }
+
+    @Test
+    void removedKeyGetsNewHistory() {
+        HistoryRegistry<String> registry = new HistoryRegistry<>();
+        Counter c = new Counter();
+        History old = registry.get("doc");
+        old.registerActionAndExecute(c.add(1));
+        assertSame(old, registry.remove("doc"));
+        assertNull(registry.find("doc"));
+        assertNull(registry.remove("doc"));
+        assertEquals(0, registry.size());
+
+        // the removed history still works
+        assertTrue(old.undo());
+        assertEquals(0, c.value);
+
+        History created = registry.get("doc");
+        assertNotSame(old, created);
+        assertFalse(created.canUndo());
+        assertEquals(1, registry.size());
+    }
+}
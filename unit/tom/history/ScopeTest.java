@@ -0,0 +1,147 @@
+package tom.history;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ScopeTest {
+
+    @Test
+    void undoesMostRecentActionOfScope() {
+        History history = new History();
+        Counter c = new Counter();
+        history.registerActionAndExecute(c.add("a", 1));
+        history.registerActionAndExecute(c.add("b", 10));
+        history.registerActionAndExecute(c.add("a", 100));
+        history.registerActionAndExecute(c.add("b", 1000));
+        assertTrue(history.undoInScope("a"));
+        assertEquals(1011, c.value);
+        assertTrue(history.undoInScope("a"));
+        assertEquals(1010, c.value);
+        assertFalse(history.undoInScope("a"));
+        assertTrue(history.redoInScope("a"));
+        assertEquals(1011, c.value);
+    }
+
+    @Test
+    void integerScopeIsNotAStepCount() {
+        History history = new History();
+        Counter c = new Counter();
+        history.registerActionAndExecute(c.add(7, 1));
+        history.registerActionAndExecute(c.add(3, 10));
+        history.registerActionAndExecute(c.add(3, 100));
+        assertTrue(history.undoInScope(7));
+        assertEquals(110, c.value);
+        assertEquals(2, history.undo(2));
+        assertEquals(0, c.value);
+    }
+
+    @Test
+    void undoAndRedoByCountSkipPlaceholders() {
+        History history = new History();
+        Counter c = new Counter();
+        history.registerActionAndExecute(c.add("a", 1));
+        history.registerActionAndExecute(c.add("b", 10));
+        history.registerActionAndExecute(c.add("a", 100));
+        history.registerActionAndExecute(c.add("b", 1000));
+        history.registerActionAndExecute(c.add("a", 10000));
+        assertTrue(history.undoInScope("b"));
+        assertEquals(10111, c.value);
+        assertEquals(2, history.undo(2));
+        assertEquals(11, c.value);
+        assertEquals(1, history.redo(1));
+        assertEquals(111, c.value);
+        assertEquals(1, history.redo(1));
+        assertEquals(10111, c.value);
+        assertEquals(0, history.redo(1));
+        assertEquals(4, history.undo(10));
+        assertEquals(0, c.value);
+        assertEquals(4, history.redo(10));
+        assertEquals(10111, c.value);
+    }
+
+    @Test
+    void jumpToSkipsPlaceholders() {
+        History history = new History();
+        Counter c = new Counter();
+        history.registerActionAndExecute(c.add("a", 1));
+        history.registerActionAndExecute(c.add("b", 10));
+        history.registerActionAndExecute(c.add("a", 100));
+        history.registerActionAndExecute(c.add("b", 1000));
+        history.registerActionAndExecute(c.add("a", 10000));
+        history.undoInScope("b");
+        history.jumpTo(1);
+        assertEquals(1, c.value);
+        history.jumpTo(3);
+        assertEquals(111, c.value);
+        history.jumpTo(4);
+        assertEquals(10111, c.value);
+        assertThrows(IndexOutOfBoundsException.class, () -> history.jumpTo(5));
+        history.jumpTo(0);
+        assertEquals(0, c.value);
+    }
+
+    @Test
+    void undoStepsOverPlaceholders() {
+        History history = new History();
+        Counter c = new Counter();
+        history.registerActionAndExecute(c.add("a", 1));
+        history.registerActionAndExecute(c.add("b", 10));
+        history.registerActionAndExecute(c.add("a", 100));
+        history.undoInScope("b");
+        // the undone action keeps its place but undo and redo step over it
+        assertEquals(3, history.undoSize());
+        assertEquals("Add 100", history.peekUndo().toString());
+        history.undo();
+        history.undo();
+        assertEquals(0, c.value);
+        assertFalse(history.canUndo());
+        history.redo();
+        history.redo();
+        assertEquals(101, c.value);
+        assertTrue(history.redoInScope("b"));
+        assertEquals(111, c.value);
+    }
+
+    @Test
+    void redoneOnlyWhenPlaceIsDone() {
+        History history = new History();
+        Counter c = new Counter();
+        history.registerActionAndExecute(c.add("b", 10));
+        history.registerActionAndExecute(c.add("a", 1));
+        history.undoInScope("a");
+        history.undo();
+        assertEquals(0, c.value);
+        assertFalse(history.redoInScope("a"));
+        history.redo();
+        assertTrue(history.redoInScope("a"));
+        assertEquals(11, c.value);
+    }
+
+    @Test
+    void registeringInScopeClearsItsRedo() {
+        History history = new History();
+        Counter c = new Counter();
+        history.registerActionAndExecute(c.add("a", 1));
+        history.undoInScope("a");
+        history.registerActionAndExecute(c.add("a", 2));
+        assertFalse(history.redoInScope("a"));
+        assertEquals(2, c.value);
+    }
+
+    @Test
+    void notAllowedInTransaction() {
+        History history = new History();
+        Counter c = new Counter();
+        history.registerActionAndExecute(c.add("a", 1));
+        history.beginTransaction();
+        try {
+            assertThrows(IllegalStateException.class, () -> history.undoInScope("a"));
+        } finally {
+            history.rollback();
+        }
+    }
+}
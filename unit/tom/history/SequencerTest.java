@@ -0,0 +1,198 @@
+package tom.history;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SequencerTest {
+
+    @Test
+    void operationsRunInSubmittedOrder() throws Exception {
+        History history = new History();
+        Counter c = new Counter();
+        try (HistorySequencer sequencer = new HistorySequencer(history)) {
+            sequencer.registerActionAndExecute(c.add(1));
+            sequencer.registerActionAndExecute(c.add(2));
+            CompletableFuture<Boolean> undo = sequencer.undo();
+            CompletableFuture<Boolean> redo = sequencer.redo();
+            assertTrue(redo.get(10, TimeUnit.SECONDS));
+            assertTrue(undo.isDone());
+        }
+        assertEquals(List.of("execute 1", "execute 2", "undo 2", "redo 2"), c.log);
+        assertEquals(2, history.undoSize());
+    }
+
+    @Test
+    void nothingToUndoCompletesWithFalse() throws Exception {
+        History history = new History();
+        try (HistorySequencer sequencer = new HistorySequencer(history)) {
+            assertFalse(sequencer.undo().get(10, TimeUnit.SECONDS));
+            assertFalse(sequencer.redo().get(10, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    void registerDoesNotExecute() throws Exception {
+        History history = new History();
+        Counter c = new Counter();
+        try (HistorySequencer sequencer = new HistorySequencer(history)) {
+            assertTrue(sequencer.registerAction(c.add(1)).get(10, TimeUnit.SECONDS));
+        }
+        assertTrue(c.log.isEmpty());
+        assertEquals(1, history.undoSize());
+    }
+
+    @Test
+    void eachThreadKeepsItsOrder() throws Exception {
+        History history = new History();
+        List<String> log = Collections.synchronizedList(new ArrayList<>());
+        int threads = 4;
+        int each = 500;
+        try (HistorySequencer sequencer = new HistorySequencer(history)) {
+            sequencer.setMaxBatch(16);
+            List<Thread> workers = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                int id = t;
+                workers.add(new Thread(() -> {
+                    for (int i = 0; i < each; i++) {
+                        sequencer.registerActionAndExecute(new Logged(log, id + ":" + i));
+                    }
+                }));
+            }
+            workers.forEach(Thread::start);
+            for (Thread w : workers) {
+                w.join();
+            }
+        }
+        assertEquals(threads * each, log.size());
+        int[] next = new int[threads];
+        for (String entry : log) {
+            String[] parts = entry.split(":");
+            int id = Integer.parseInt(parts[0]);
+            assertEquals(next[id]++, Integer.parseInt(parts[1]), entry);
+        }
+        assertEquals(threads * each, history.undoSize());
+    }
+
+    @Test
+    void futuresCompleteInOrder() throws Exception {
+        History history = new History();
+        Counter c = new Counter();
+        List<Integer> completed = Collections.synchronizedList(new ArrayList<>());
+        try (HistorySequencer sequencer = new HistorySequencer(history)) {
+            for (int i = 0; i < 100; i++) {
+                int n = i;
+                sequencer.registerActionAndExecute(c.add(1)).thenRun(() -> completed.add(n));
+            }
+        }
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i, completed.get(i));
+        }
+    }
+
+    @Test
+    void failureOnlyFailsItsOwnFuture() throws Exception {
+        History history = new History();
+        Counter c = new Counter();
+        try (HistorySequencer sequencer = new HistorySequencer(history)) {
+            CompletableFuture<Boolean> before = sequencer.registerActionAndExecute(c.add(1));
+            CompletableFuture<Boolean> failing = sequencer.registerActionAndExecute(new Action() {
+                @Override
+                public void execute() {
+                    throw new IllegalStateException("failed");
+                }
+
+                @Override
+                public void undo() {
+                }
+
+                @Override
+                public void redo() {
+                }
+            });
+            CompletableFuture<Boolean> after = sequencer.registerActionAndExecute(c.add(2));
+            assertTrue(before.get(10, TimeUnit.SECONDS));
+            ExecutionException e = assertThrows(ExecutionException.class,
+                                                () -> failing.get(10, TimeUnit.SECONDS));
+            assertInstanceOf(IllegalStateException.class, e.getCause());
+            assertTrue(after.get(10, TimeUnit.SECONDS));
+        }
+        assertEquals(2, history.undoSize());
+        assertEquals(3, c.value);
+    }
+
+    @Test
+    void closedSequencerRejects() {
+        History history = new History();
+        Counter c = new Counter();
+        HistorySequencer sequencer = new HistorySequencer(history);
+        sequencer.close();
+        ExecutionException e = assertThrows(ExecutionException.class,
+                                            () -> sequencer.registerActionAndExecute(c.add(1)).get());
+        assertInstanceOf(RejectedExecutionException.class, e.getCause());
+        assertEquals(0, history.undoSize());
+    }
+
+    @Test
+    void closeFinishesSubmittedOperations() {
+        History history = new History();
+        Counter c = new Counter();
+        List<CompletableFuture<Boolean>> futures = new ArrayList<>();
+        try (HistorySequencer sequencer = new HistorySequencer(history)) {
+            for (int i = 0; i < 1000; i++) {
+                futures.add(sequencer.registerActionAndExecute(c.add(1)));
+            }
+        }
+        for (CompletableFuture<Boolean> f : futures) {
+            assertTrue(f.isDone());
+        }
+        assertEquals(1000, c.value);
+    }
+
+    @Test
+    void invalidBatchIsRejected() {
+        try (HistorySequencer sequencer = new HistorySequencer(new History())) {
+            assertThrows(IllegalArgumentException.class, () -> sequencer.setMaxBatch(0));
+            assertEquals(256, sequencer.getMaxBatch());
+        }
+    }
+
+    /**
+     * An action that logs its name when executed
+     */
+    private static final class Logged implements Action {
+
+        private final List<String> log;
+        private final String name;
+
+        Logged(List<String> log, String name) {
+            this.log = log;
+            this.name = name;
+        }
+
+        @Override
+        public void execute() {
+            log.add(name);
+        }
+
+        @Override
+        public void undo() {
+        }
+
+        @Override
+        public void redo() {
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package tom.history;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SoftDepthTest {
+
+    @Test
+    void reclaimedUndoEndsTheUndoStack() {
+        History history = new History();
+        Counter c = new Counter();
+        history.setSoftDepth(2);
+        for (int i = 1; i <= 5; i++) {
+            history.registerActionAndExecute(c.add(i));
+        }
+        history.reclaimSoftActions();
+        // the most recent two are held strongly
+        assertTrue(history.undo());
+        assertTrue(history.undo());
+        assertEquals(6, c.value);
+        assertFalse(history.undo());
+        assertEquals(6, c.value);
+        assertEquals(3, history.getReclaimedCount());
+        assertEquals(0, history.undoSize());
+        assertFalse(history.canUndo());
+        // the actions undone before the loss can still be redone
+        assertEquals(2, history.redoSize());
+        assertTrue(history.redo());
+        assertTrue(history.redo());
+        assertEquals(15, c.value);
+    }
+
+    @Test
+    void reclaimedRedoEndsTheRedoStack() {
+        History history = new History();
+        Counter c = new Counter();
+        history.setSoftDepth(1);
+        for (int i = 1; i <= 3; i++) {
+            history.registerActionAndExecute(c.add(i));
+        }
+        assertEquals(3, history.undo(3));
+        history.reclaimSoftActions();
+        assertTrue(history.canRedo());
+        assertFalse(history.redo());
+        assertEquals(0, history.redoSize());
+        assertFalse(history.canRedo());
+        assertEquals(3, history.getReclaimedCount());
+        assertEquals(0, c.value);
+        // the history is still usable
+        history.registerActionAndExecute(c.add(10));
+        assertTrue(history.undo());
+    }
+
+    @Test
+    void undoByCountStopsAtReclaimedAction() {
+        History history = new History();
+        Counter c = new Counter();
+        history.setSoftDepth(1);
+        for (int i = 1; i <= 5; i++) {
+            history.registerActionAndExecute(c.add(i));
+        }
+        history.reclaimSoftActions();
+        assertEquals(1, history.undo(5));
+        assertEquals(10, c.value);
+        assertEquals(4, history.getReclaimedCount());
+        assertEquals(0, history.undoSize());
+        assertEquals(1, history.redoSize());
+    }
+
+    @Test
+    void jumpToStopsAtReclaimedAction() {
+        History history = new History();
+        Counter c = new Counter();
+        history.setSoftDepth(2);
+        for (int i = 1; i <= 5; i++) {
+            history.registerActionAndExecute(c.add(i));
+        }
+        history.reclaimSoftActions();
+        history.jumpTo(0);
+        assertEquals(6, c.value);
+        assertEquals(3, history.getReclaimedCount());
+        assertFalse(history.canUndo());
+    }
+
+    @Test
+    void holdingStronglyAgainKeepsActions() {
+        History history = new History();
+        Counter c = new Counter();
+        history.setSoftDepth(1);
+        for (int i = 1; i <= 5; i++) {
+            history.registerActionAndExecute(c.add(i));
+        }
+        history.setSoftDepth(-1);
+        history.reclaimSoftActions();
+        assertEquals(5, history.undo(5));
+        assertEquals(0, c.value);
+        assertEquals(0, history.getReclaimedCount());
+    }
+
+    @Test
+    void invalidDepthIsRejected() {
+        History history = new History();
+        assertThrows(IllegalArgumentException.class, () -> history.setSoftDepth(0));
+        assertThrows(IllegalArgumentException.class, () -> history.setSoftDepth(-2));
+        assertEquals(-1, history.getSoftDepth());
+    }
+}
@@ -0,0 +1,96 @@
+package tom.history;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SpillTierTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void actionsRoundTripThroughFile() throws IOException {
+        Counter c = new Counter();
+        History history = new History();
+        try (SpillTier tier = new SpillTier(dir.resolve("spill"), c.serializer(), 10)) {
+            history.setSpillTier(tier);
+            for (int i = 1; i <= 1000; i++) {
+                history.registerActionAndExecute(c.add(i));
+            }
+            assertEquals(990, tier.size());
+            assertEquals(1000, history.undoSize());
+            for (int i = 1000; i >= 1; i--) {
+                assertEquals("Add " + i, history.peekUndo().toString());
+                assertTrue(history.undo());
+            }
+            assertFalse(history.canUndo());
+            assertEquals(0, c.value);
+            assertEquals(0, tier.size());
+            for (int i = 0; i < 1000; i++) {
+                assertTrue(history.redo());
+            }
+            assertEquals(500500, c.value);
+        }
+    }
+
+    @Test
+    void readAheadGrowsDuringRunOfUndos() throws IOException {
+        Counter c = new Counter();
+        History history = new History();
+        try (SpillTier tier = new SpillTier(dir.resolve("spill"), c.serializer(), 1)) {
+            tier.setReadAhead(8);
+            history.setSpillTier(tier);
+            for (int i = 0; i < 100; i++) {
+                history.registerActionAndExecute(c.add(1));
+            }
+            assertEquals(99, tier.size());
+            history.undo();
+            history.undo();
+            history.undo();
+            history.undo();
+            // the first undo is of the action in memory, then reads of 1, 2
+            // and 4 actions
+            assertEquals(99 - 7, tier.size());
+            history.registerActionAndExecute(c.add(1));
+            assertEquals(97, history.undoSize());
+        }
+    }
+
+    @Test
+    void droppedActionsAreCompactedAway() throws IOException {
+        Counter c = new Counter();
+        History history = new History();
+        history.setLimit(1000);
+        try (SpillTier tier = new SpillTier(dir.resolve("spill"), c.serializer(), 10)) {
+            history.setSpillTier(tier);
+            for (int i = 0; i < 1_000_000; i++) {
+                history.registerActionAndExecute(c.add(1));
+            }
+            assertEquals(990, tier.size());
+            // each record is 13 bytes, so a million would take 13 MB
+            long live = 990 * 13;
+            assertTrue(tier.fileSize() <= SpillTier.COMPACT_SIZE + 2 * live,
+                       "file size " + tier.fileSize());
+            for (int i = 0; i < 1000; i++) {
+                assertTrue(history.undo());
+            }
+            assertFalse(history.canUndo());
+            assertEquals(1_000_000 - 1000, c.value);
+        }
+    }
+
+    @Test
+    void hotSizeMustBePositive() {
+        Counter c = new Counter();
+        assertThrows(IllegalArgumentException.class,
+                     () -> new SpillTier(dir.resolve("spill"), c.serializer(), 0));
+    }
+}
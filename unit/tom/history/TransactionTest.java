@@ -0,0 +1,159 @@
+package tom.history;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TransactionTest {
+
+    @Test
+    void commitStoresOneEntry() {
+        History history = new History();
+        Counter c = new Counter();
+        history.beginTransaction();
+        assertTrue(history.isInTransaction());
+        history.registerActionAndExecute(c.add(1));
+        history.registerActionAndExecute(c.add(2));
+        assertEquals(3, c.value);
+        assertEquals(0, history.undoSize());
+        history.commit();
+        assertFalse(history.isInTransaction());
+        assertEquals(1, history.undoSize());
+        assertInstanceOf(CompoundAction.class, history.peekUndo());
+        assertTrue(history.undo());
+        assertEquals(0, c.value);
+        assertEquals(List.of("execute 1", "execute 2", "undo 2", "undo 1"), c.log);
+    }
+
+    @Test
+    void emptyCommitStoresNothing() {
+        History history = new History();
+        history.beginTransaction();
+        history.commit();
+        assertEquals(0, history.undoSize());
+    }
+
+    @Test
+    void rollbackUndoesMostRecentFirst() {
+        History history = new History();
+        Counter c = new Counter();
+        history.beginTransaction();
+        history.registerActionAndExecute(c.add(1));
+        history.registerActionAndExecute(c.add(2));
+        history.rollback();
+        assertFalse(history.isInTransaction());
+        assertEquals(0, c.value);
+        assertEquals(List.of("execute 1", "execute 2", "undo 2", "undo 1"), c.log);
+        assertEquals(0, history.undoSize());
+    }
+
+    @Test
+    void innerCommitJoinsOuter() {
+        History history = new History();
+        Counter c = new Counter();
+        history.beginTransaction();
+        history.registerActionAndExecute(c.add(1));
+        history.beginTransaction();
+        history.registerActionAndExecute(c.add(2));
+        history.commit();
+        assertTrue(history.isInTransaction());
+        assertEquals(0, history.undoSize());
+        history.commit();
+        assertEquals(1, history.undoSize());
+        history.undo();
+        assertEquals(0, c.value);
+    }
+
+    @Test
+    void innerRollbackKeepsOuter() {
+        History history = new History();
+        Counter c = new Counter();
+        history.beginTransaction();
+        history.registerActionAndExecute(c.add(1));
+        history.beginTransaction();
+        history.registerActionAndExecute(c.add(2));
+        history.registerActionAndExecute(c.add(4));
+        history.rollback();
+        assertTrue(history.isInTransaction());
+        assertEquals(1, c.value);
+        history.registerActionAndExecute(c.add(8));
+        history.commit();
+        assertEquals(1, history.undoSize());
+        history.undo();
+        assertEquals(0, c.value);
+        history.redo();
+        assertEquals(9, c.value);
+    }
+
+    @Test
+    void registerAllStoresOneEntry() {
+        History history = new History();
+        Counter c = new Counter();
+        history.registerAll(List.of(c.add(1), c.add(2), c.add(4)));
+        assertEquals(1, history.undoSize());
+        history.undo();
+        assertEquals(List.of("undo 4", "undo 2", "undo 1"), c.log);
+        assertEquals(-7, c.value);
+        history.redo();
+        assertEquals(List.of("undo 4", "undo 2", "undo 1", "redo 1", "redo 2", "redo 4"), c.log);
+    }
+
+    @Test
+    void registerAllOfOneStoresTheAction() {
+        History history = new History();
+        Counter c = new Counter();
+        Counter.Add add = c.add(1);
+        history.registerAll(List.of(add));
+        assertEquals(add, history.peekUndo());
+        history.registerAll(List.of());
+        assertEquals(1, history.undoSize());
+    }
+
+    @Test
+    void registerAllJoinsTransaction() {
+        History history = new History();
+        Counter c = new Counter();
+        history.beginTransaction();
+        history.registerAll(List.of(c.add(1), c.add(2)));
+        assertEquals(0, history.undoSize());
+        history.rollback();
+        assertEquals(List.of("undo 2", "undo 1"), c.log);
+    }
+
+    @Test
+    void undoAndRedoInsideTransactionThrow() {
+        History history = new History();
+        Counter c = new Counter();
+        history.registerActionAndExecute(c.add(1));
+        history.beginTransaction();
+        assertThrows(IllegalStateException.class, history::undo);
+        assertThrows(IllegalStateException.class, history::redo);
+        history.commit();
+        assertTrue(history.undo());
+    }
+
+    @Test
+    void commitWithoutTransactionThrows() {
+        History history = new History();
+        assertThrows(IllegalStateException.class, history::commit);
+        assertThrows(IllegalStateException.class, history::rollback);
+    }
+
+    @Test
+    void transactionIsPerThread() throws Exception {
+        History history = new History();
+        Counter c = new Counter();
+        history.beginTransaction();
+        Thread other = new Thread(() -> history.registerActionAndExecute(c.add(1)));
+        other.start();
+        other.join();
+        assertEquals(1, history.undoSize());
+        history.commit();
+    }
+}
@@ -0,0 +1,139 @@
+package tom.history;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class WorkloadTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void replayRepeatsRecordedCalls() throws IOException {
+        Path trace = dir.resolve("trace");
+        History history = new History();
+        Counter c = new Counter();
+        try (WorkloadRecorder recorder = new WorkloadRecorder(trace)) {
+            history.setRecorder(recorder);
+            history.registerAction(c.add(1));
+            history.registerActionAndExecute(c.add(2));
+            history.registerActionAndExecute(c.add(3));
+            history.undo();
+            history.undo();
+            history.redo();
+            history.setLimit(10);
+            history.undo();
+            history.undo();
+            history.undo();
+            assertTrue(recorder.isComplete());
+            assertEquals(11, recorder.getRecordCount());
+        }
+        assertEquals(List.of(WorkloadRecorder.Call.SET_LIMIT, WorkloadRecorder.Call.REGISTER,
+                             WorkloadRecorder.Call.EXECUTE, WorkloadRecorder.Call.EXECUTE,
+                             WorkloadRecorder.Call.UNDO, WorkloadRecorder.Call.UNDO,
+                             WorkloadRecorder.Call.REDO, WorkloadRecorder.Call.SET_LIMIT,
+                             WorkloadRecorder.Call.UNDO, WorkloadRecorder.Call.UNDO,
+                             WorkloadRecorder.Call.UNDO),
+                     calls(trace));
+        History replayed = new History();
+        WorkloadReplayer.Report report = new WorkloadReplayer(trace).replay(replayed);
+        assertTrue(report.isComplete());
+        assertEquals(11, report.getCallCount());
+        assertEquals(5, report.getLatency(WorkloadRecorder.Call.UNDO).getCount());
+        assertEquals(1, report.getLatency(WorkloadRecorder.Call.REDO).getCount());
+        assertEquals(2, report.getLatency(WorkloadRecorder.Call.EXECUTE).getCount());
+        assertEquals(history.undoSize(), replayed.undoSize());
+        assertEquals(history.redoSize(), replayed.redoSize());
+        assertEquals(10, replayed.getLimit());
+        assertTrue(report.getLatency().getPercentileNanos(0.5) > 0);
+        assertTrue(report.getLatency().getPercentileNanos(0.999) >=
+                   report.getLatency().getPercentileNanos(0.5));
+        assertTrue(report.getElapsedNanos() > 0);
+        assertTrue(report.toString().contains("p999="));
+    }
+
+    @Test
+    void batchedCallsAreRecordedAsSingleSteps() throws Exception {
+        Path trace = dir.resolve("trace");
+        History history = new History();
+        Counter c = new Counter();
+        try (WorkloadRecorder recorder = new WorkloadRecorder(trace)) {
+            history.setRecorder(recorder);
+            for (int i = 0; i < 5; i++) {
+                history.registerActionAndExecute(c.add(1));
+            }
+            history.registerAll(List.of(c.add(1), c.add(2)));
+            history.beginTransaction();
+            history.registerActionAndExecute(c.add(1));
+            history.commit();
+            assertEquals(3, history.undo(3));
+            assertEquals(1, history.redo(1));
+            history.jumpTo(1);
+            history.undoAsync().get(10, TimeUnit.SECONDS);
+            history.redoAsync().get(10, TimeUnit.SECONDS);
+            history.registerActionAndExecuteAsync(c.add(1)).get(10, TimeUnit.SECONDS);
+            try (HistorySequencer sequencer = new HistorySequencer(history)) {
+                sequencer.registerActionAndExecute(c.add(1));
+                sequencer.registerAction(c.add(1));
+                sequencer.undo();
+                sequencer.undo().get(10, TimeUnit.SECONDS);
+            }
+            assertTrue(recorder.isComplete());
+        }
+        History replayed = new History();
+        WorkloadReplayer.Report report = new WorkloadReplayer(trace).replay(replayed);
+        assertTrue(report.isComplete());
+        assertEquals(history.undoSize(), replayed.undoSize());
+        assertEquals(history.redoSize(), replayed.redoSize());
+    }
+
+    @Test
+    void scopedUndoStopsRecording() throws IOException {
+        Path trace = dir.resolve("trace");
+        History history = new History();
+        Counter c = new Counter();
+        try (WorkloadRecorder recorder = new WorkloadRecorder(trace)) {
+            history.setRecorder(recorder);
+            history.registerActionAndExecute(c.add("a", 1));
+            history.registerActionAndExecute(c.add("b", 2));
+            history.undoInScope("a");
+            history.undo();
+            assertFalse(recorder.isComplete());
+            assertEquals(3, recorder.getRecordCount());
+        }
+        WorkloadReplayer.Report report = new WorkloadReplayer(trace).replay(new History());
+        assertFalse(report.isComplete());
+        assertEquals(3, report.getCallCount());
+        assertTrue(report.toString().contains("incomplete"));
+    }
+
+    private static List<WorkloadRecorder.Call> calls(Path trace) throws IOException {
+        List<WorkloadRecorder.Call> calls = new ArrayList<>();
+        try (DataInputStream in = new DataInputStream(
+          new BufferedInputStream(Files.newInputStream(trace))))
+        {
+            assertEquals(WorkloadRecorder.MAGIC, in.readInt());
+            assertEquals(WorkloadRecorder.VERSION, in.readInt());
+            long[] numbers = new long[3];
+            WorkloadRecorder.Call call;
+            while ((call = WorkloadRecorder.read(in, numbers)) != null) {
+                calls.add(call);
+            }
+            assertEquals(0, numbers[0]);
+        }
+        return calls;
+    }
+}